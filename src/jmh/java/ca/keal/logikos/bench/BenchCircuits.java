@@ -0,0 +1,212 @@
+package ca.keal.logikos.bench;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.FieldComponent;
+import ca.keal.logikos.field.InputFC;
+import ca.keal.logikos.field.OutputFC;
+import ca.keal.logikos.field.Position;
+import ca.keal.logikos.logic.AndGate;
+import ca.keal.logikos.logic.Clock;
+import ca.keal.logikos.logic.Input;
+import ca.keal.logikos.logic.LogicComponent;
+import ca.keal.logikos.logic.NandGate;
+import ca.keal.logikos.logic.NotGate;
+import ca.keal.logikos.logic.OrGate;
+import ca.keal.logikos.logic.Output;
+import ca.keal.logikos.logic.UserGate;
+import ca.keal.logikos.logic.XorGate;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the {@link Field}s the benchmarks run on. Every generator is seeded, so the same parameters always give
+ * the same circuit and the numbers can be compared between runs.
+ */
+final class BenchCircuits {
+  
+  static final long SEED = 0x10615L;
+  
+  private static final Position ORIGIN = new Position(0, 0);
+  
+  private BenchCircuits() {}
+  
+  static InputFC addInput(Field field) {
+    InputFC inputFC = new InputFC(new Input(), ORIGIN, InputFC.Type.SWITCH);
+    field.addFieldComponent(inputFC);
+    return inputFC;
+  }
+  
+  static OutputFC addOutput(Field field, LogicComponent from) {
+    OutputFC outputFC = new OutputFC(new Output(), ORIGIN, OutputFC.Type.LAMP);
+    field.addFieldComponent(outputFC);
+    outputFC.getLogicComponent().getInput(0).connectTo(from.getOutput(0));
+    return outputFC;
+  }
+  
+  static <LC extends LogicComponent> LC add(Field field, LC lc, LogicComponent... from) {
+    field.addFieldComponent(new FieldComponent(lc, ORIGIN));
+    for (int i = 0; i < from.length; i++) {
+      lc.getInput(i).connectTo(from[i].getOutput(0));
+    }
+    return lc;
+  }
+  
+  /**
+   * A field of about {@code numComponents} components: 8 inputs, a clock, random gates wired to random earlier or later
+   * components (so there are feedback loops), and an output for every 16th gate.
+   */
+  static Field randomField(int numComponents) {
+    Random random = new Random(SEED);
+    Field field = new Field();
+    field.setName("random" + numComponents);
+    
+    List<LogicComponent> all = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      all.add(addInput(field).getLogicComponent());
+    }
+    all.add(add(field, new Clock()));
+    
+    int numGates = Math.max(1, (numComponents - all.size()) * 16 / 17);
+    List<LogicComponent> gates = new ArrayList<>();
+    for (int i = 0; i < numGates; i++) {
+      LogicComponent gate;
+      switch (random.nextInt(4)) {
+        case 0:
+          gate = new AndGate();
+          break;
+        case 1:
+          gate = new OrGate();
+          break;
+        case 2:
+          gate = new NotGate();
+          break;
+        default:
+          gate = new NandGate();
+      }
+      gates.add(add(field, gate));
+    }
+    all.addAll(gates);
+    
+    // Mostly local wiring, like a real circuit, with the odd long wire
+    for (int g = 0; g < gates.size(); g++) {
+      LogicComponent gate = gates.get(g);
+      for (int i = 0; i < gate.getNumInputs(); i++) {
+        int from = random.nextInt(8) == 0 ? random.nextInt(all.size())
+            : Math.floorMod(g + 9 - 1 - random.nextInt(16), all.size());
+        gate.getInput(i).connectTo(all.get(from).getOutput(0));
+      }
+      if (g % 16 == 0) {
+        addOutput(field, gate);
+      }
+    }
+    
+    return field;
+  }
+  
+  /**
+   * A combinational field with {@code numInputs} inputs and {@code numGates} random gates, each wired only to earlier
+   * components, mostly nearby ones, with an output for every 16th gate.
+   */
+  static Field randomCombinationalField(int numInputs, int numGates) {
+    Random random = new Random(SEED);
+    Field field = new Field();
+    field.setName("combinational" + numInputs + "x" + numGates);
+    
+    List<LogicComponent> all = new ArrayList<>();
+    for (int i = 0; i < numInputs; i++) {
+      all.add(addInput(field).getLogicComponent());
+    }
+    
+    for (int g = 0; g < numGates; g++) {
+      LogicComponent gate;
+      switch (random.nextInt(4)) {
+        case 0:
+          gate = new AndGate();
+          break;
+        case 1:
+          gate = new OrGate();
+          break;
+        case 2:
+          gate = new XorGate();
+          break;
+        default:
+          gate = new NandGate();
+      }
+      for (int i = 0; i < gate.getNumInputs(); i++) {
+        int from = random.nextInt(8) == 0 ? random.nextInt(all.size())
+            : Math.max(0, all.size() - 1 - random.nextInt(16));
+        gate.getInput(i).connectTo(all.get(from).getOutput(0));
+      }
+      add(field, gate);
+      all.add(gate);
+      if (g % 16 == 0) {
+        addOutput(field, gate);
+      }
+    }
+    
+    return field;
+  }
+  
+  /**
+   * A field with two inputs and two outputs holding a user gate nested {@code depth} levels deep. Each level holds two
+   * instances of the level below and a NAND gate, so the innermost level is instantiated {@code 2^(depth - 1)} times.
+   */
+  static Field nestedUserGateField(int depth) {
+    Field field = new Field();
+    field.setName("nested" + depth);
+    LogicComponent a = addInput(field).getLogicComponent();
+    LogicComponent b = addInput(field).getLogicComponent();
+    
+    LogicComponent first;
+    LogicComponent second;
+    if (depth == 0) {
+      first = add(field, new NandGate(), a, b);
+      second = add(field, new OrGate(), first, b);
+    } else {
+      Field inner = nestedUserGateField(depth - 1);
+      first = add(field, new UserGate(inner), a, b);
+      second = add(field, new UserGate(inner), first, b);
+    }
+    addOutput(field, second);
+    addOutput(field, add(field, new NandGate(), first, second));
+    
+    return field;
+  }
+  
+  /**
+   * Serialize {@code field} to {@code file} in the same way as {@code SaveUtil}.
+   */
+  static void write(Field field, File file) throws IOException, ParserConfigurationException, TransformerException {
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+      write(field, out);
+    }
+  }
+  
+  static void write(Field field, OutputStream out) throws ParserConfigurationException, TransformerException {
+    Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    doc.appendChild(field.toXml(doc));
+    
+    Transformer transformer = TransformerFactory.newInstance().newTransformer();
+    transformer.setOutputProperty(OutputKeys.METHOD, "xml");
+    transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+    transformer.setOutputProperty(OutputKeys.ENCODING, "utf-8");
+    transformer.transform(new DOMSource(doc), new StreamResult(out));
+  }
+  
+}
@@ -0,0 +1,96 @@
+package ca.keal.logikos.bench;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.InputFC;
+import ca.keal.logikos.sim.SimulationMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Field#tick} on random circuits of increasing size. One input is toggled before every tick so that
+ * event-driven ticks always have some work to do. {@link Field#runVectors(long[], int, int, long[])} is measured on
+ * the same stimulus, one tick per vector, to show the cost of driving the field one bit at a time. With
+ * {@code metrics}, the ticks are counted in {@link SimulationMetrics}, to show what leaving them on costs. With
+ * {@code compiled}, ticks which aren't event-driven run bytecode generated from the field.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldTickBenchmark {
+  
+  @Param({"100", "1000", "10000", "100000"})
+  public int size;
+  
+  @Param({"true", "false"})
+  public boolean eventDriven;
+  
+  @Param({"false", "true"})
+  public boolean metrics;
+  
+  @Param({"false", "true"})
+  public boolean compiled;
+  
+  private Field field;
+  private List<InputFC> inputFCs;
+  private boolean[] outputs;
+  private int tick = 0;
+  
+  private static final int VECTORS = 1024;
+  private long[] stimulus;
+  private long[] results;
+  
+  @Setup
+  public void setUp() {
+    field = BenchCircuits.randomField(size);
+    field.setEventDriven(eventDriven);
+    if (metrics) {
+      field.setMetrics(new SimulationMetrics());
+    }
+    field.setCompiled(compiled);
+    inputFCs = field.getInputFCs();
+    outputs = new boolean[field.getOutputFCs().size()];
+    
+    // each vector toggles one input, like tick() does
+    stimulus = new long[VECTORS];
+    for (int i = 1; i < VECTORS; i++) {
+      stimulus[i] = stimulus[i - 1] ^ (1L << (i & 7));
+    }
+    results = new long[VECTORS * ((outputs.length + 63) / 64)];
+    
+    // compile, and let the clock and feedback loops get going
+    for (int i = 0; i < 1000; i++) {
+      field.tick(null, outputs);
+    }
+  }
+  
+  @Benchmark
+  public boolean[] tick() {
+    inputFCs.get(tick++ & 7).toggle();
+    field.tick(null, outputs);
+    return outputs;
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(VECTORS)
+  public long[] runVectors() {
+    field.runVectors(stimulus, VECTORS, 1, results);
+    return results;
+  }
+  
+}
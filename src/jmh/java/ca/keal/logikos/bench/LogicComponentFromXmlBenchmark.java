@@ -0,0 +1,53 @@
+package ca.keal.logikos.bench;
+
+import ca.keal.logikos.logic.LogicComponent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The dispatch from a {@code <logicComponent>} element to a new {@link LogicComponent} in
+ * {@link LogicComponent#fromXml}, for each built-in type.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogicComponentFromXmlBenchmark {
+  
+  @Param({"AND", "OR", "NOT", "NAND", "INPUT", "OUTPUT", "CLK", "0", "1"})
+  public String type;
+  
+  private Element elem;
+  
+  @Setup
+  public void setUp() throws Exception {
+    Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    elem = doc.createElement("logicComponent");
+    elem.setAttribute("uuid", UUID.randomUUID().toString());
+    elem.setAttribute("type", type);
+    doc.appendChild(elem);
+  }
+  
+  @Benchmark
+  public LogicComponent fromXml() throws Exception {
+    return LogicComponent.fromXml(elem, null);
+  }
+  
+}
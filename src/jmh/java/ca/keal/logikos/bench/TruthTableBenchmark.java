@@ -0,0 +1,56 @@
+package ca.keal.logikos.bench;
+
+import ca.keal.logikos.sim.Netlist;
+import ca.keal.logikos.sim.TruthTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TruthTable#of(Netlist)}, i.e. exhaustive evaluation of a combinational field, with and without the Vector
+ * API. {@code vector} runs with the {@code jdk.incubator.vector} module, so each gate covers a whole vector register of
+ * rows; {@code scalar} runs without it, so each gate covers 64 rows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TruthTableBenchmark {
+  
+  @Param({"12", "16", "20"})
+  public int numInputs;
+  
+  @Param({"1000"})
+  public int numGates;
+  
+  private Netlist netlist;
+  
+  @Setup
+  public void setUp() {
+    netlist = Netlist.compile(BenchCircuits.randomCombinationalField(numInputs, numGates));
+  }
+  
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+  public TruthTable vector() {
+    return TruthTable.of(netlist);
+  }
+  
+  @Benchmark
+  @Fork(1)
+  public TruthTable scalar() {
+    return TruthTable.of(netlist);
+  }
+  
+}
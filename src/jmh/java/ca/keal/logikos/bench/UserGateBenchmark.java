@@ -0,0 +1,82 @@
+package ca.keal.logikos.bench;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.InputFC;
+import ca.keal.logikos.logic.LogicComponent;
+import ca.keal.logikos.logic.UserGate;
+import ca.keal.logikos.sim.Netlist;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluation of a {@link UserGate} nested 1 to 6 levels deep, both through {@link Field#tick} with each kind of
+ * {@link Netlist.Flattening}, and by ticking the gate as a {@link LogicComponent} directly.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserGateBenchmark {
+  
+  @Param({"1", "2", "3", "4", "5", "6"})
+  public int depth;
+  
+  @Param({"NONE", "PER_LEVEL_TIMING", "ZERO_DELAY"})
+  public Netlist.Flattening flattening;
+  
+  private Field field;
+  private List<InputFC> inputFCs;
+  private boolean[] outputs;
+  private UserGate userGate;
+  private int tick = 0;
+  
+  @Setup
+  public void setUp() {
+    field = new Field();
+    field.setName("top");
+    field.setFlattening(flattening);
+    LogicComponent a = BenchCircuits.addInput(field).getLogicComponent();
+    LogicComponent b = BenchCircuits.addInput(field).getLogicComponent();
+    userGate = BenchCircuits.add(field, new UserGate(BenchCircuits.nestedUserGateField(depth - 1)), a, b);
+    BenchCircuits.addOutput(field, userGate);
+    inputFCs = field.getInputFCs();
+    outputs = new boolean[field.getOutputFCs().size()];
+    field.tick(null, outputs);
+  }
+  
+  @Benchmark
+  public boolean[] fieldTick() {
+    inputFCs.get(tick++ & 1).toggle();
+    field.tick(null, outputs);
+    return outputs;
+  }
+  
+  @Benchmark
+  public boolean componentTick() {
+    inputFCs.get(tick++ & 1).toggle();
+    for (InputFC inputFC : inputFCs) {
+      inputFC.getLogicComponent().updateInputs();
+      inputFC.getLogicComponent().tick(null);
+      inputFC.getLogicComponent().updateOutputs();
+    }
+    userGate.updateInputs();
+    userGate.tick(null);
+    userGate.updateOutputs();
+    return userGate.getOutputValue(0);
+  }
+  
+}
@@ -0,0 +1,64 @@
+package ca.keal.logikos.bench;
+
+import ca.keal.logikos.field.Field;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a field with {@link Field#fromXml(String)}, and saving one as {@code SaveUtil} does, for files of 1k, 10k
+ * and 100k components.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XmlBenchmark {
+  
+  @Param({"1000", "10000", "100000"})
+  public int size;
+  
+  private Field field;
+  private File readFile;
+  private File writeFile;
+  
+  @Setup
+  public void setUp() throws Exception {
+    field = BenchCircuits.randomField(size);
+    readFile = File.createTempFile("logikos-read", ".lgk");
+    writeFile = File.createTempFile("logikos-write", ".lgk");
+    BenchCircuits.write(field, readFile);
+  }
+  
+  @TearDown
+  public void tearDown() {
+    readFile.delete();
+    writeFile.delete();
+  }
+  
+  @Benchmark
+  public Field fromXml() throws Exception {
+    return Field.fromXml(readFile.getPath());
+  }
+  
+  @Benchmark
+  public File write() throws Exception {
+    BenchCircuits.write(field, writeFile);
+    return writeFile;
+  }
+  
+}
@@ -0,0 +1,335 @@
+package ca.keal.logikos.cli;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.InputFC;
+import ca.keal.logikos.field.OutputFC;
+import ca.keal.logikos.sim.Netlist;
+import ca.keal.logikos.sim.Simulation;
+import ca.keal.logikos.sim.SimulationMetrics;
+import ca.keal.logikos.sim.VcdRecorder;
+import ca.keal.logikos.util.DeserializationException;
+
+import javax.management.JMException;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs a {@link Field} from the command line, without the JavaFX UI. The field is loaded from a {@code .lgk} file,
+ * a series of input vectors is applied to its {@link InputFC}s, and the values of its {@link OutputFC}s are written
+ * as CSV.
+ *
+ * <p>Each input vector is a line holding one {@code 0} or {@code 1} for each {@link InputFC}, in the order of
+ * {@link Field#getInputFCs()}. Spaces and commas between the digits are ignored, as are blank lines and anything after
+ * a {@code #}. After each vector is applied, the field is ticked a given number of times and a row is written with the
+ * tick number, the inputs, and the outputs; with {@code --all-ticks}, a row is written after every tick instead.</p>
+ *
+ * <p>Usage: {@code BatchRunner [options] <file.lgk>}, with the options:</p>
+ * <ul>
+ *   <li>{@code -i <file>}: read the input vectors from {@code file}, or from standard input if it's {@code -}. By
+ *   default, a single vector with every input false is used.</li>
+ *   <li>{@code -n <ticks>}: the number of ticks to run for each vector. The default is 1.</li>
+ *   <li>{@code -o <file>}: write the CSV to {@code file} rather than standard output.</li>
+ *   <li>{@code -a}, {@code --all-ticks}: write a row after every tick.</li>
+ *   <li>{@code -p}, {@code --parallel}: tick every component on all cores rather than only the ones whose inputs
+ *   changed. This is only faster for very large, very busy fields.</li>
+ *   <li>{@code -c}, {@code --compile}: tick every component by running bytecode generated from the field, rather than
+ *   only the ones whose inputs changed. This is faster for busy fields, unless {@code -l} leaves lookup tables in
+ *   it.</li>
+ *   <li>{@code -l}, {@code --lookup-tables}: replace combinational user gates with lookup tables. This is faster, but
+ *   such gates then settle in a single tick; see {@link Netlist.Flattening#LOOKUP_TABLE}.</li>
+ *   <li>{@code -v <file>}, {@code --vcd <file>}: also record every change to the inputs and outputs, tick by tick,
+ *   to the waveform file {@code file}; see {@link VcdRecorder}.</li>
+ *   <li>{@code -j}, {@code --jmx}: publish the simulation's {@link SimulationMetrics} over JMX while it runs, named
+ *   after the {@code .lgk} file.</li>
+ * </ul>
+ */
+public class BatchRunner {
+
+  private static final String USAGE = "Usage: BatchRunner [-i <vectors>|-] [-n <ticks>] [-o <output.csv>] "
+      + "[-a|--all-ticks] [-p|--parallel] [-c|--compile] [-l|--lookup-tables] [-v|--vcd <waves.vcd>] [-j|--jmx] "
+      + "<file.lgk>";
+
+  private final Field field;
+  private final int ticksPerVector;
+  private final boolean allTicks;
+  private final VcdRecorder recorder;
+
+  private final List<InputFC> inputFCs;
+  private final boolean[] inputs;
+  private final boolean[] outputs;
+  private long tick = 0;
+
+  /**
+   * @param field The field to run.
+   * @param ticksPerVector The number of times to tick the field after each input vector is applied.
+   * @param allTicks Whether to write a row after every tick, rather than only the last tick of each vector.
+   */
+  public BatchRunner(Field field, int ticksPerVector, boolean allTicks) {
+    this(field, ticksPerVector, allTicks, null);
+  }
+
+  /**
+   * @param field The field to run.
+   * @param ticksPerVector The number of times to tick the field after each input vector is applied.
+   * @param allTicks Whether to write a row after every tick, rather than only the last tick of each vector.
+   * @param recorder A recorder of {@code field} to be sampled after every tick. May be {@code null}.
+   */
+  public BatchRunner(Field field, int ticksPerVector, boolean allTicks, VcdRecorder recorder) {
+    if (field == null) {
+      throw new NullPointerException("BatchRunner cannot run a null Field");
+    }
+    if (ticksPerVector < 1) {
+      throw new IllegalArgumentException("There must be at least one tick per vector, not " + ticksPerVector);
+    }
+    this.field = field;
+    this.ticksPerVector = ticksPerVector;
+    this.allTicks = allTicks;
+    this.recorder = recorder;
+    inputFCs = field.getInputFCs();
+    inputs = new boolean[inputFCs.size()];
+    outputs = new boolean[field.getOutputFCs().size()];
+  }
+
+  /**
+   * Apply every input vector read from {@code vectors} in turn, writing the header and then the rows of CSV to
+   * {@code out}. {@code out} is flushed but not closed.
+   * @throws IllegalArgumentException If a vector is malformed or has the wrong number of inputs.
+   */
+  public void run(BufferedReader vectors, Writer out) throws IOException {
+    writeHeader(out);
+
+    String line;
+    int lineNumber = 0;
+    while ((line = vectors.readLine()) != null) {
+      lineNumber++;
+      if (parseVector(line, lineNumber)) {
+        runVector(out);
+      }
+    }
+
+    out.flush();
+  }
+
+  /**
+   * Apply a single vector with every input false, writing the header and then the rows of CSV to {@code out}.
+   * {@code out} is flushed but not closed.
+   */
+  public void run(Writer out) throws IOException {
+    writeHeader(out);
+    Arrays.fill(inputs, false);
+    runVector(out);
+    out.flush();
+  }
+
+  private void writeHeader(Writer out) throws IOException {
+    out.write("tick");
+    List<InputFC> inputFCs = field.getInputFCs();
+    for (int i = 0; i < inputFCs.size(); i++) {
+      out.write(',');
+      out.write(columnName(inputFCs.get(i).getLabel(), "in" + i));
+    }
+    List<OutputFC> outputFCs = field.getOutputFCs();
+    for (int i = 0; i < outputFCs.size(); i++) {
+      out.write(',');
+      out.write(columnName(outputFCs.get(i).getLabel(), "out" + i));
+    }
+    out.write('\n');
+  }
+
+  // Use the label if there is one, quoting it if needed
+  private static String columnName(String label, String defaultName) {
+    if (label == null || label.isEmpty()) return defaultName;
+    if (label.indexOf(',') < 0 && label.indexOf('"') < 0 && label.indexOf('\n') < 0) return label;
+    return '"' + label.replace("\"", "\"\"") + '"';
+  }
+
+  // Parse a line into the inputs, returning false if it holds no vector
+  private boolean parseVector(String line, int lineNumber) {
+    int numInputs = 0;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '#') break;
+      if (c == ' ' || c == '\t' || c == ',') continue;
+      if (c != '0' && c != '1') {
+        throw new IllegalArgumentException("Line " + lineNumber + ": unexpected character '" + c + "'");
+      }
+      if (numInputs == inputs.length) {
+        throw new IllegalArgumentException("Line " + lineNumber + ": more than " + inputs.length + " inputs");
+      }
+      inputs[numInputs++] = c == '1';
+    }
+
+    if (numInputs == 0) return false;
+    if (numInputs != inputs.length) {
+      throw new IllegalArgumentException("Line " + lineNumber + ": expected " + inputs.length + " inputs, but found "
+          + numInputs);
+    }
+    return true;
+  }
+
+  private void runVector(Writer out) throws IOException {
+    for (int i = 0; i < inputs.length; i++) {
+      inputFCs.get(i).getLogicComponent().setValue(inputs[i]);
+    }
+
+    if (!allTicks && recorder != null) {
+      // the recorder samples every tick that isn't skipped
+      recorder.run(ticksPerVector);
+      Simulation sim = field.getSimulation();
+      for (int i = 0; i < outputs.length; i++) {
+        outputs[i] = sim.getOutput(i);
+      }
+      tick += ticksPerVector;
+      writeRow(out);
+      return;
+    }
+    if (!allTicks) {
+      // only the last tick is written, so let the field skip ahead over any quiet stretches
+      field.run(ticksPerVector, null, outputs);
+      tick += ticksPerVector;
+      writeRow(out);
+      return;
+    }
+
+    for (int i = 0; i < ticksPerVector; i++) {
+      field.tick(null, outputs);
+      if (recorder != null) {
+        recorder.sample();
+      }
+      tick++;
+      writeRow(out);
+    }
+  }
+
+  private void writeRow(Writer out) throws IOException {
+    out.write(Long.toString(tick));
+    for (boolean input : inputs) {
+      out.write(input ? ",1" : ",0");
+    }
+    for (boolean output : outputs) {
+      out.write(output ? ",1" : ",0");
+    }
+    out.write('\n');
+  }
+
+  /**
+   * Read the field in {@code filename}, which may be relative to the working directory. User gates are found relative
+   * to the field's absolute path, so a bare filename works as well.
+   */
+  static Field load(String filename) throws DeserializationException, IOException {
+    return Field.fromXml(Paths.get(filename).toAbsolutePath().toString());
+  }
+
+  public static void main(String[] args) {
+    String vectorsFilename = null;
+    String outputFilename = null;
+    String vcdFilename = null;
+    String fieldFilename = null;
+    int ticksPerVector = 1;
+    boolean allTicks = false;
+    boolean parallel = false;
+    boolean compiled = false;
+    boolean lookupTables = false;
+    boolean jmx = false;
+
+    try {
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "-i":
+            vectorsFilename = args[++i];
+            break;
+          case "-o":
+            outputFilename = args[++i];
+            break;
+          case "-n":
+            ticksPerVector = Integer.parseInt(args[++i]);
+            break;
+          case "-a":
+          case "--all-ticks":
+            allTicks = true;
+            break;
+          case "-p":
+          case "--parallel":
+            parallel = true;
+            break;
+          case "-c":
+          case "--compile":
+            compiled = true;
+            break;
+          case "-l":
+          case "--lookup-tables":
+            lookupTables = true;
+            break;
+          case "-j":
+          case "--jmx":
+            jmx = true;
+            break;
+          case "-v":
+          case "--vcd":
+            vcdFilename = args[++i];
+            break;
+          default:
+            if (fieldFilename != null || (args[i].startsWith("-") && args[i].length() > 1)) {
+              throw new IllegalArgumentException("Unexpected argument '" + args[i] + "'");
+            }
+            fieldFilename = args[i];
+        }
+      }
+      if (fieldFilename == null) {
+        throw new IllegalArgumentException("No .lgk file given");
+      }
+      if (ticksPerVector < 1) {
+        throw new IllegalArgumentException("-n must be at least 1");
+      }
+    } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+      // NumberFormatException is an IllegalArgumentException
+      System.err.println(e instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : e.getMessage());
+      System.err.println(USAGE);
+      System.exit(2);
+      return;
+    }
+
+    try {
+      Field field = load(fieldFilename);
+      field.setEventDriven(!parallel && !compiled);
+      field.setParallel(parallel);
+      field.setCompiled(compiled);
+      if (lookupTables) {
+        field.setFlattening(Netlist.Flattening.LOOKUP_TABLE);
+      }
+      if (jmx) {
+        SimulationMetrics metrics = new SimulationMetrics();
+        metrics.register(fieldFilename);
+        field.setMetrics(metrics);
+      }
+      try (VcdRecorder recorder = vcdFilename == null ? null : VcdRecorder.create(field, Paths.get(vcdFilename));
+           Writer out = outputFilename == null
+          ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)
+          : new BufferedWriter(new FileWriter(outputFilename), 1 << 16)) {
+        BatchRunner runner = new BatchRunner(field, ticksPerVector, allTicks, recorder);
+        if (vectorsFilename == null) {
+          runner.run(out);
+        } else {
+          try (BufferedReader vectors = new BufferedReader(vectorsFilename.equals("-")
+              ? new InputStreamReader(System.in, StandardCharsets.UTF_8) : new FileReader(vectorsFilename), 1 << 16)) {
+            runner.run(vectors, out);
+          }
+        }
+      }
+    } catch (DeserializationException | IOException | IllegalArgumentException | JMException e) {
+      System.err.println("Error: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+}
@@ -2,6 +2,10 @@ package ca.keal.logikos.field;
 
 import ca.keal.logikos.logic.EvaluationListener;
 import ca.keal.logikos.logic.LogicComponent;
+import ca.keal.logikos.logic.Port;
+import ca.keal.logikos.sim.Netlist;
+import ca.keal.logikos.sim.Simulation;
+import ca.keal.logikos.sim.SimulationMetrics;
 import ca.keal.logikos.util.DeserializationException;
 import ca.keal.logikos.util.XmlUtil;
 import org.w3c.dom.Document;
@@ -14,12 +18,15 @@ import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.LongBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A Field is the container for the entire logic model. It contains {@link FieldComponent}s and handles saving and
@@ -34,21 +41,39 @@ public class Field {
   private final List<InputFC> inputFCs = new ArrayList<>();
   private final List<OutputFC> outputFCs = new ArrayList<>();
   
+  // Read-only views, kept so that the getters don't allocate when called every tick
+  private final List<FieldComponent> fieldComponentsView = Collections.unmodifiableList(fieldComponents);
+  private final List<InputFC> inputFCsView = Collections.unmodifiableList(inputFCs);
+  private final List<OutputFC> outputFCsView = Collections.unmodifiableList(outputFCs);
+  
   private String filename = null;
   private String name = null;
   
   private boolean modified = false;
   
+  // Compiled lazily on the first tick, and thrown away whenever the field is modified or its flattening changes
+  private Netlist netlist = null;
+  private Simulation simulation = null;
+  private long netlistConnectionsVersion;
+  private boolean eventDriven = true;
+  private boolean parallel = false;
+  private boolean compiled = false;
+  private Netlist.Flattening flattening = Netlist.Flattening.PER_LEVEL_TIMING;
+  private SimulationMetrics metrics = null;
+  
+  // The most vectors copied out of a buffer at once by runVectors()
+  private static final int VECTOR_BATCH_SIZE = 1024;
+  
   public List<FieldComponent> getFieldComponents() {
-    return Collections.unmodifiableList(fieldComponents);
+    return fieldComponentsView;
   }
   
   public List<InputFC> getInputFCs() {
-    return Collections.unmodifiableList(inputFCs);
+    return inputFCsView;
   }
   
   public List<OutputFC> getOutputFCs() {
-    return Collections.unmodifiableList(outputFCs);
+    return outputFCsView;
   }
   
   public void addFieldComponent(FieldComponent component) {
@@ -57,6 +82,7 @@ public class Field {
     }
     
     fieldComponents.add(component);
+    renumber(fieldComponents.size() - 1);
     
     if (component instanceof InputFC) {
       inputFCs.add((InputFC) component);
@@ -68,7 +94,14 @@ public class Field {
   }
   
   public void removeFieldComponent(FieldComponent component) {
-    fieldComponents.remove(component);
+    int index = fieldComponents.indexOf(component);
+    if (index >= 0) {
+      fieldComponents.remove(index);
+      if (component.getLogicComponent() != null) {
+        component.getLogicComponent().setIndex(-1);
+      }
+      renumber(index);
+    }
     
     if (component instanceof InputFC) {
       inputFCs.remove(component);
@@ -79,6 +112,16 @@ public class Field {
     setModified(true);
   }
   
+  // Set the index of every component from position start onwards, keeping them dense
+  private void renumber(int start) {
+    for (int i = start; i < fieldComponents.size(); i++) {
+      LogicComponent lc = fieldComponents.get(i).getLogicComponent();
+      if (lc != null) {
+        lc.setIndex(i);
+      }
+    }
+  }
+  
   public String getFilename() {
     return filename;
   }
@@ -99,8 +142,97 @@ public class Field {
     return modified;
   }
   
+  public boolean isEventDriven() {
+    return eventDriven;
+  }
+  
+  /**
+   * Choose whether {@link #tick(EvaluationListener)} evaluates only the components whose inputs changed on the
+   * previous tick (the default), or every component on every tick. The results are the same either way.
+   * @see Simulation#setEventDriven(boolean)
+   */
+  public void setEventDriven(boolean eventDriven) {
+    this.eventDriven = eventDriven;
+    if (simulation != null) {
+      simulation.setEventDriven(eventDriven);
+    }
+  }
+  
+  public boolean isParallel() {
+    return parallel;
+  }
+  
+  /**
+   * Choose whether {@link #tick(EvaluationListener)} evaluates the field's components on all cores, using the common
+   * {@link ForkJoinPool}. This is only done when the field is not {@link #setEventDriven(boolean) event-driven}, and is
+   * only worth it for large fields. The results are the same either way.
+   * @see Simulation#setParallel(ForkJoinPool)
+   */
+  public void setParallel(boolean parallel) {
+    this.parallel = parallel;
+    if (simulation != null) {
+      simulation.setParallel(parallel ? ForkJoinPool.commonPool() : null);
+    }
+  }
+  
+  public boolean isCompiled() {
+    return compiled;
+  }
+  
+  /**
+   * Choose whether {@link #tick(EvaluationListener)} runs bytecode generated from the field, rather than interpreting
+   * its netlist, when the field is not {@link #setEventDriven(boolean) event-driven}. This is only possible when the
+   * field's {@link #setFlattening(Netlist.Flattening) flattening} leaves no user gates or lookup tables in the netlist;
+   * otherwise the netlist is interpreted anyway. The results are the same either way.
+   * @see Simulation#setCompiled(boolean)
+   */
+  public void setCompiled(boolean compiled) {
+    this.compiled = compiled;
+    if (simulation != null) {
+      simulation.setCompiled(compiled && simulation.getNetlist().isFlat());
+    }
+  }
+  
+  public SimulationMetrics getMetrics() {
+    return metrics;
+  }
+  
+  /**
+   * Count the work done by the field's simulation in {@code metrics}, and time a sample of its ticks, or pass
+   * {@code null} to stop. The metrics carry over to the new simulation when the field is recompiled.
+   * @see Simulation#setMetrics(SimulationMetrics)
+   */
+  public void setMetrics(SimulationMetrics metrics) {
+    this.metrics = metrics;
+    if (simulation != null) {
+      simulation.setMetrics(metrics);
+    }
+  }
+  
+  public Netlist.Flattening getFlattening() {
+    return flattening;
+  }
+  
+  /**
+   * Choose how {@link #tick(EvaluationListener)} treats user gates when compiling the field. By default, they are
+   * inlined into one flat netlist with their timing unchanged. Changing this recompiles the field, starting the
+   * simulation over.
+   */
+  public void setFlattening(Netlist.Flattening flattening) {
+    if (flattening == null) {
+      throw new NullPointerException("Field cannot have a null flattening");
+    }
+    this.flattening = flattening;
+    netlist = null;
+    simulation = null;
+  }
+  
   public void setModified(boolean modified) {
     this.modified = modified;
+    if (modified) {
+      netlist = null;
+      simulation = null;
+    }
   }
 
   /**
@@ -110,37 +242,214 @@ public class Field {
     for (FieldComponent fc : fieldComponents) {
       fc.getLogicComponent().reset();
     }
+    if (simulation != null) {
+      simulation.reset();
+    }
+  }
+  
+  /**
+   * Get this field compiled with its {@link #getFlattening() flattening}, compiling it if needed. The netlist is
+   * immutable, so it is shared by this field's own simulation and those of every {@link ca.keal.logikos.logic.UserGate}
+   * based on this field.
+   */
+  public Netlist getNetlist() {
+    dropIfStale();
+    if (netlist == null) {
+      netlistConnectionsVersion = Port.getConnectionsVersion();
+      netlist = Netlist.compile(this, flattening);
+    }
+    return netlist;
+  }
+  
+  // Throw away the netlist and simulation if a connection has been made or removed since the field was compiled
+  private void dropIfStale() {
+    if (netlist != null && netlistConnectionsVersion != Port.getConnectionsVersion()) {
+      netlist = null;
+      simulation = null;
+    }
+  }
+  
+  /**
+   * Get the {@link Simulation} used by {@link #tick(EvaluationListener)}, compiling the field if needed. The field is
+   * recompiled, starting the simulation over, when any connection has been made or removed since it was compiled.
+   */
+  public Simulation getSimulation() {
+    dropIfStale();
+    if (simulation == null) {
+      simulation = new Simulation(getNetlist());
+      simulation.setEventDriven(eventDriven);
+      if (parallel) {
+        simulation.setParallel(ForkJoinPool.commonPool());
+      }
+      if (compiled && netlist.isFlat()) {
+        simulation.setCompiled(true);
+      }
+      if (metrics != null) {
+        simulation.setMetrics(metrics);
+      }
+    }
+    return simulation;
   }
   
   /**
-   * Tick each gate in the {@link Field} and return the {@link OutputFC}s' output as an array.
+   * Tick each gate in the {@link Field} and return the {@link OutputFC}s' output as an array. The field is evaluated
+   * by its compiled {@link Simulation} rather than by ticking each {@link LogicComponent}, so the components' own
+   * output values are not updated.
    * @param listener An {@link EvaluationListener} to listen to each gate's evaluation. May be {@code null}.
    * @return An array containing the output of each {@link OutputFC} in order. To get the {@link OutputFC} associated
    *  with each result, match each element in the returned array with the corresponding element in
    *  {@link #getOutputFCs()}.
    */
   public boolean[] tick(EvaluationListener listener) {
-    // first load all inputs into the components
-    for (FieldComponent fc : fieldComponents) {
-      fc.getLogicComponent().updateInputs();
+    boolean[] outputs = new boolean[outputFCs.size()];
+    tick(listener, outputs);
+    return outputs;
+  }
+  
+  /**
+   * Tick each gate in the {@link Field} and write the {@link OutputFC}s' output into a caller-owned buffer. Unless
+   * {@code listener} is non-null, this does not allocate once the field has been compiled.
+   * @param listener An {@link EvaluationListener} to listen to each gate's evaluation. May be {@code null}.
+   * @param outputs The buffer to write the output of each {@link OutputFC} into, in the order of
+   *  {@link #getOutputFCs()}. Its length must be at least the number of {@link OutputFC}s.
+   */
+  public void tick(EvaluationListener listener, boolean[] outputs) {
+    SimulationMetrics metrics = this.metrics;
+    boolean timed = metrics != null && metrics.sampleTick();
+    long start = timed ? System.nanoTime() : 0;
+    
+    Simulation sim = getSimulation();
+    sim.pullInputs();
+    sim.tick(listener);
+    
+    // then copy out the output FC return values
+    for (int i = 0; i < outputFCs.size(); i++) {
+      outputs[i] = sim.getOutput(i);
     }
     
-    // then tick each of them
-    for (FieldComponent fc : fieldComponents) {
-      fc.getLogicComponent().tick(listener);
+    if (timed) {
+      metrics.recordTickLatency(System.nanoTime() - start);
     }
+  }
+  
+  /**
+   * Tick the {@link Field} {@code ticks} times with its inputs held at their current values, and write the
+   * {@link OutputFC}s' output after the last tick into a caller-owned buffer. When the field is
+   * {@link #setEventDriven(boolean) event-driven}, time in which nothing happens but the clocks counting towards their
+   * next edge is skipped over, so running a settled design for a million clock periods takes moments.
+   * @param listener An {@link EvaluationListener} to listen to each gate's evaluation. May be {@code null}.
+   * @param outputs The buffer to write the output of each {@link OutputFC} into, in the order of
+   *  {@link #getOutputFCs()}.
+   * @see Simulation#run(long, EvaluationListener)
+   */
+  public void run(long ticks, EvaluationListener listener, boolean[] outputs) {
+    Simulation sim = getSimulation();
+    sim.pullInputs();
+    sim.run(ticks, listener);
     
-    // then load all the outputs
-    for (FieldComponent fc : fieldComponents) {
-      fc.getLogicComponent().updateOutputs();
+    for (int i = 0; i < outputFCs.size(); i++) {
+      outputs[i] = sim.getOutput(i);
+    }
+  }
+  
+  /**
+   * Run a block of packed input vectors through the {@link Field} back to back, each for {@code ticksPerVector} ticks,
+   * and write the packed outputs after each vector into a caller-owned buffer. Each vector holds a bit for each
+   * {@link InputFC}, in the order of {@link #getInputFCs()}, packed 64 to a {@code long}: input {@code i} is bit
+   * {@code i % 64} of word {@code i / 64}. The outputs are packed in the same way, in the order of
+   * {@link #getOutputFCs()}. The {@link InputFC}s' own values are neither read nor changed.
+   * @param stimulus The input vectors, {@code (getInputFCs().size() + 63) / 64} words each.
+   * @param numVectors The number of vectors to run.
+   * @param ticksPerVector The number of ticks to run each vector for; at least 1.
+   * @param results Filled with the outputs after each vector, {@code (getOutputFCs().size() + 63) / 64} words each.
+   * @see Simulation#runVectors(long[], int, int, int, long[], int)
+   */
+  public void runVectors(long[] stimulus, int numVectors, int ticksPerVector, long[] results) {
+    getSimulation().runVectors(stimulus, 0, numVectors, ticksPerVector, results, 0);
+  }
+  
+  /**
+   * Run every complete input vector remaining in {@code stimulus} through the {@link Field}, as in
+   * {@link #runVectors(long[], int, int, long[])}, and put the outputs after each vector into {@code results}. Direct
+   * and memory-mapped buffers may be used through {@link java.nio.ByteBuffer#asLongBuffer()}. A field with no
+   * {@link InputFC}s has no complete vectors, so nothing is run.
+   * @return The number of vectors run.
+   * @throws BufferOverflowException If {@code results} doesn't have room for the outputs of every vector, in which case
+   *  nothing is run and neither buffer is changed.
+   */
+  public int runVectors(LongBuffer stimulus, int ticksPerVector, LongBuffer results) {
+    int inputWords = (inputFCs.size() + 63) >>> 6;
+    int outputWords = (outputFCs.size() + 63) >>> 6;
+    int numVectors = inputWords == 0 ? 0 : stimulus.remaining() / inputWords;
+    if (results.remaining() < (long) numVectors * outputWords) {
+      throw new BufferOverflowException();
     }
     
-    // then assemble the array of output FC return values
-    boolean[] outputs = new boolean[outputFCs.size()];
+    // Copy the vectors in and out in batches, so that the simulation runs many vectors per call
+    Simulation sim = getSimulation();
+    int batchSize = Math.min(numVectors, VECTOR_BATCH_SIZE);
+    long[] input = new long[batchSize * inputWords];
+    long[] output = new long[batchSize * outputWords];
+    for (int done = 0; done < numVectors; done += batchSize) {
+      int batch = Math.min(batchSize, numVectors - done);
+      stimulus.get(input, 0, batch * inputWords);
+      sim.runVectors(input, 0, batch, ticksPerVector, output, 0);
+      results.put(output, 0, batch * outputWords);
+    }
+    return numVectors;
+  }
+  
+  /**
+   * Propagate the current input values all the way through the {@link Field}, as if its components had no delay, and
+   * write the {@link OutputFC}s' settled output into a caller-owned buffer.
+   * @param listener An {@link EvaluationListener} to be told of each gate's settled value. May be {@code null}.
+   * @param outputs The buffer to write the output of each {@link OutputFC} into, in the order of
+   *  {@link #getOutputFCs()}.
+   * @return Whether the field settled. If not, it contains feedback loops which oscillate; their components are
+   *  given by {@link #getOscillatingComponents()}.
+   * @see Simulation#settle(EvaluationListener)
+   */
+  public boolean settle(EvaluationListener listener, boolean[] outputs) {
+    Simulation sim = getSimulation();
+    sim.pullInputs();
+    boolean settled = sim.settle(listener);
+    
     for (int i = 0; i < outputFCs.size(); i++) {
-      outputs[i] = outputFCs.get(i).getOutput();
+      outputs[i] = sim.getOutput(i);
     }
-    return outputs;
+    return settled;
+  }
+  
+  /**
+   * Capture the whole state of the {@link Field}'s simulation, including every nested
+   * {@link ca.keal.logikos.logic.UserGate} and the time which drives the clocks, so that it can be
+   * {@link #restore(Simulation.Snapshot) restored} later.
+   * @see Simulation#snapshot()
+   */
+  public Simulation.Snapshot snapshot() {
+    return getSimulation().snapshot();
+  }
+  
+  /**
+   * Put the {@link Field}'s simulation back into the state captured by {@link #snapshot()}. The {@link InputFC}s'
+   * values are set back to those they had when the snapshot was taken, so that the next tick doesn't undo the restore.
+   * @throws IllegalArgumentException If the field has been modified since the snapshot was taken, and so is simulated
+   *  from a different netlist.
+   */
+  public void restore(Simulation.Snapshot snapshot) {
+    Simulation sim = getSimulation();
+    sim.restore(snapshot);
+    for (int i = 0; i < inputFCs.size(); i++) {
+      inputFCs.get(i).getLogicComponent().setValue(sim.getInput(i));
+    }
+  }
+  
+  /**
+   * @return The components in feedback loops which were still changing when the last call to
+   *  {@link #settle(EvaluationListener, boolean[])} gave up on them.
+   */
+  public List<LogicComponent> getOscillatingComponents() {
+    return simulation == null ? Collections.emptyList() : simulation.getOscillating();
   }
   
   /**
@@ -58,7 +58,7 @@ public class FieldComponent {
   
   @Override
   public int hashCode() {
-    return 41 * logicComponent.hashCode() * position.hashCode();
+    return 31 * logicComponent.hashCode() + position.hashCode();
   }
   
   @Override
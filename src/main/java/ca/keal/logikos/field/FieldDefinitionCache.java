@@ -0,0 +1,101 @@
+package ca.keal.logikos.field;
+
+import ca.keal.logikos.util.DeserializationException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A cache of the {@link Field}s defining user gates, so that every instance of a gate shares one {@code Field} parsed
+ * once from its file. A design with thousands of instances of the same gate would otherwise parse the file thousands
+ * of times, and hold thousands of copies of the same components. The shared fields are templates: instances keep
+ * their own state (see {@link ca.keal.logikos.logic.UserGate}), and the fields must not be modified.
+ *
+ * <p>Files are keyed by their canonical path, so different relative paths to the same file share an entry. Each entry
+ * remembers the modification time and size the file had when it was parsed, and is re-parsed if either has changed
+ * by the next time the file is asked for.</p>
+ */
+public final class FieldDefinitionCache {
+  
+  private static final FieldDefinitionCache INSTANCE = new FieldDefinitionCache();
+  
+  private final Map<Path, Definition> definitions = new HashMap<>();
+  
+  FieldDefinitionCache() {}
+  
+  /**
+   * @return The cache shared by the whole application.
+   */
+  public static FieldDefinitionCache getInstance() {
+    return INSTANCE;
+  }
+  
+  /**
+   * Get the {@link Field} in the field file {@code filename}, parsing the file only if it has not been parsed before or
+   * has changed on disk since. Until then, every call for the same file returns the same {@code Field}.
+   */
+  public synchronized Field getDefinition(String filename) throws DeserializationException, IOException {
+    Path path;
+    try {
+      path = Paths.get(filename).toRealPath();
+    } catch (NoSuchFileException e) {
+      throw new DeserializationException("Could not find file '" + filename + "'", e);
+    }
+    
+    long modified = Files.getLastModifiedTime(path).toMillis();
+    long size = Files.size(path);
+    Definition definition = definitions.get(path);
+    if (definition == null || definition.modified != modified || definition.size != size) {
+      String absFilename = Paths.get(filename).toAbsolutePath().normalize().toString();
+      definition = new Definition(Field.fromXml(absFilename), modified, size);
+      definitions.put(path, definition);
+    }
+    return definition.field;
+  }
+  
+  /**
+   * Forget the parsed contents of {@code filename}, if any, so that it is parsed again the next time it is needed.
+   * This is only needed if the file may have been rewritten without its modification time or size changing.
+   */
+  public synchronized void invalidate(String filename) {
+    try {
+      definitions.remove(Paths.get(filename).toRealPath());
+    } catch (IOException e) {
+      // if the file can't be found, it can't have been cached either
+    }
+  }
+  
+  /**
+   * Forget every parsed file.
+   */
+  public synchronized void clear() {
+    definitions.clear();
+  }
+  
+  /**
+   * @return The number of files currently held by the cache.
+   */
+  public synchronized int size() {
+    return definitions.size();
+  }
+  
+  private static class Definition {
+    
+    private final Field field;
+    private final long modified;
+    private final long size;
+    
+    private Definition(Field field, long modified, long size) {
+      this.field = field;
+      this.modified = modified;
+      this.size = size;
+    }
+    
+  }
+  
+}
@@ -34,7 +34,7 @@ public class OutputFC extends LabelledFC {
    * Get the output value of the field component.
    */
   boolean getOutput() {
-    return getLogicComponent().getOutputValues()[0];
+    return getLogicComponent().getOutputValue(0);
   }
   
   /**
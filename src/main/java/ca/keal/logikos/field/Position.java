@@ -37,7 +37,7 @@ public class Position {
   
   @Override
   public int hashCode() {
-    return 11 * Double.hashCode(x) * Double.hashCode(y);
+    return 31 * Double.hashCode(x) + Double.hashCode(y);
   }
   
   @Override
@@ -1,14 +1,22 @@
 package ca.keal.logikos.logic;
 
-public class AndGate extends Gate {
+public class AndGate extends WideGate {
   
   public AndGate() {
-    super(2, 1); // 2 inputs, 1 output
+    this(MIN_INPUTS);
+  }
+  
+  public AndGate(int numInputs) {
+    super(numInputs);
   }
   
   @Override
-  protected boolean[] logicalEval(boolean[] input) {
-    return new boolean[] {input[0] && input[1]};
+  protected void logicalEval(boolean[] input, boolean[] output) {
+    boolean value = true;
+    for (boolean in : input) {
+      value &= in;
+    }
+    output[0] = value;
   }
   
   @Override
@@ -0,0 +1,19 @@
+package ca.keal.logikos.logic;
+
+public class BufGate extends Gate {
+  
+  public BufGate() {
+    super(1, 1); // 1 input, 1 output
+  }
+  
+  @Override
+  protected void logicalEval(boolean[] input, boolean[] output) {
+    output[0] = input[0];
+  }
+  
+  @Override
+  public String getName() {
+    return "BUF";
+  }
+  
+}
\ No newline at end of file
@@ -1,34 +1,101 @@
 package ca.keal.logikos.logic;
 
+import ca.keal.logikos.util.DeserializationException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
 /**
- * An input that toggles every fixed interval.
+ * An input that toggles on a fixed schedule. Each period of the clock is {@link #getPeriod()} ticks long, of which it
+ * is low for the first part and high for the last {@link #getHighTicks()} ticks. A clock with a {@link #getPhase()}
+ * starts that many ticks into its first period.
+ *
+ * <p>Counting the first tick after a reset as tick 1, the clock is high on tick {@code t} if
+ * {@code (t - 1 + phase) % period >= period - highTicks}. By default, a clock is low for 200 ticks and then high for
+ * 200 ticks.</p>
  */
-// TODO reset the clock status when reset is called
 public class Clock extends LogicComponent {
   
-  // TODO customizable clock speed
-  private static final int TICKS_PER_CLOCK_TICK = 200;
+  public static final int DEFAULT_PERIOD = 400;
+  public static final int DEFAULT_HIGH_TICKS = 200;
+  
+  private final int period;
+  private final int highTicks;
+  private final int phase;
   
-  private boolean currentValue = false;
-  private int ticksInValue = 0;
+  // The number of ticks since the last reset
+  private long ticks = 0;
   
   public Clock() {
+    this(DEFAULT_PERIOD, DEFAULT_HIGH_TICKS, 0);
+  }
+  
+  /**
+   * @param period The length of each period in ticks; at least 2.
+   * @param highTicks The number of ticks per period for which the clock is high, i.e. its duty cycle; from 1 to
+   * {@code period - 1}.
+   * @param phase The number of ticks into its first period at which the clock starts; from 0 to {@code period - 1}.
+   * @throws IllegalArgumentException If any argument is out of range.
+   */
+  public Clock(int period, int highTicks, int phase) {
     super(0, 1); // 0 inputs, 1 output
+    if (period < 2) {
+      throw new IllegalArgumentException("A clock's period must be at least 2 ticks, not " + period);
+    }
+    if (highTicks < 1 || highTicks >= period) {
+      throw new IllegalArgumentException("A clock must be high for 1 to " + (period - 1) + " ticks per period, not "
+          + highTicks);
+    }
+    if (phase < 0 || phase >= period) {
+      throw new IllegalArgumentException("A clock's phase must be from 0 to " + (period - 1) + " ticks, not " + phase);
+    }
+    this.period = period;
+    this.highTicks = highTicks;
+    this.phase = phase;
+  }
+  
+  public int getPeriod() {
+    return period;
+  }
+  
+  public int getHighTicks() {
+    return highTicks;
+  }
+  
+  public int getPhase() {
+    return phase;
+  }
+  
+  /**
+   * @return The value of the clock on tick {@code tick}, where the first tick after a reset is tick 1.
+   */
+  public boolean getValueAt(long tick) {
+    return Math.floorMod(tick - 1 + phase, (long) period) >= period - highTicks;
+  }
+  
+  /**
+   * @return The first tick after {@code tick} on which the clock's value differs from its value on {@code tick}.
+   */
+  public long getNextEdgeAfter(long tick) {
+    long position = Math.floorMod(tick - 1 + phase, (long) period);
+    long rising = period - highTicks;
+    // the clock rises when it reaches position period - highTicks, and falls when it wraps around to position 0
+    long toEdge = position < rising ? rising - position : period - position;
+    return tick + toEdge;
   }
   
   @Override
-  boolean[] evaluate(EvaluationListener listener, boolean[] inputValues) {
-    if (ticksInValue >= TICKS_PER_CLOCK_TICK) {
-      ticksInValue = 0;
-      currentValue = !currentValue;
-    }
-    ticksInValue++;
-    
-    boolean[] output = new boolean[] {currentValue};
+  void evaluate(EvaluationListener listener, boolean[] inputValues, boolean[] outputValues) {
+    ticks++;
+    outputValues[0] = getValueAt(ticks);
     if (listener != null) {
-      listener.onEvaluation(new EvaluationListener.Event(this, new boolean[0], output));
+      listener.onEvaluation(new EvaluationListener.Event(this, new boolean[0], outputValues.clone()));
     }
-    return output;
+  }
+  
+  @Override
+  public void reset() {
+    super.reset();
+    ticks = 0;
   }
   
   @Override
@@ -36,4 +103,43 @@ public class Clock extends LogicComponent {
     return "CLK";
   }
   
-}
+  @Override
+  public Element toXml(Document doc) {
+    Element elem = super.toXml(doc);
+    if (period != DEFAULT_PERIOD) {
+      elem.setAttribute("period", Integer.toString(period));
+    }
+    if (highTicks != DEFAULT_HIGH_TICKS) {
+      elem.setAttribute("high", Integer.toString(highTicks));
+    }
+    if (phase != 0) {
+      elem.setAttribute("phase", Integer.toString(phase));
+    }
+    return elem;
+  }
+  
+  /**
+   * Create a clock with the period, high ticks and phase saved by {@link #toXml(Document)}. Each may be left out, in
+   * which case it takes its default value.
+   */
+  static Clock fromXml(Element elem) throws DeserializationException {
+    int period = intAttribute(elem, "period", DEFAULT_PERIOD);
+    int highTicks = intAttribute(elem, "high", DEFAULT_HIGH_TICKS);
+    int phase = intAttribute(elem, "phase", 0);
+    try {
+      return new Clock(period, highTicks, phase);
+    } catch (IllegalArgumentException e) {
+      throw new DeserializationException("Invalid clock: " + e.getMessage(), e);
+    }
+  }
+  
+  private static int intAttribute(Element elem, String name, int defaultValue) throws DeserializationException {
+    if (!elem.hasAttribute(name)) return defaultValue;
+    try {
+      return Integer.parseInt(elem.getAttribute(name));
+    } catch (NumberFormatException e) {
+      throw new DeserializationException("Invalid clock " + name + ": " + elem.getAttribute(name), e);
+    }
+  }
+  
+}
\ No newline at end of file
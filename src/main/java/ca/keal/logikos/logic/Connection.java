@@ -2,13 +2,16 @@ package ca.keal.logikos.logic;
 
 /**
  * Represents a connection between two {@link Port}s. It links a specific {@link Port.Input} on one
- * {@link LogicComponent} to a specific {@link Port.Output} on another {@link LogicComponent}. It is immutable.
+ * {@link LogicComponent} to a specific {@link Port.Output} on another {@link LogicComponent}. Its ports are immutable.
  */
 public class Connection {
   
   private final Port.Input input;
   private final Port.Output output;
   
+  // The connection's place in its output port's fan-out, or -1 once it's removed; maintained by Port.Output
+  int fanOutSlot = -1;
+  
   Connection(Port.Input input, Port.Output output) {
     if (input == null || output == null) throw new NullPointerException("Connection's ports cannot be null");
     this.input = input;
@@ -28,7 +31,7 @@ public class Connection {
    * by this {@link Connection} is active or not.
    */
   public boolean getValue() {
-    return output.getComponent().getOutputValues()[output.getPortNumber()];
+    return output.getComponent().getOutputValue(output.getPortNumber());
   }
   
   /**
@@ -36,7 +39,7 @@ public class Connection {
    */
   public void destruct() {
     input.removeConnection();
-    output.getConnections().remove(this);
+    output.removeFanOut(this);
   }
   
   @Override
@@ -48,7 +51,7 @@ public class Connection {
   
   @Override
   public int hashCode() {
-    return 5 * input.hashCode() * output.hashCode();
+    return 31 * input.hashCode() + output.hashCode();
   }
   
   @Override
@@ -13,9 +13,13 @@ public class Constant extends Gate {
     this.value = value;
   }
   
+  public boolean getValue() {
+    return value;
+  }
+  
   @Override
-  protected boolean[] logicalEval(boolean[] input) {
-    return new boolean[] {value};
+  protected void logicalEval(boolean[] input, boolean[] output) {
+    output[0] = value;
   }
   
   @Override
@@ -26,7 +26,7 @@ public interface EvaluationListener {
     private final boolean[] inputs;
     private final boolean[] outputs;
     
-    Event(LogicComponent logicComponent, boolean[] inputs, boolean[] outputs) {
+    public Event(LogicComponent logicComponent, boolean[] inputs, boolean[] outputs) {
       if (logicComponent == null || inputs == null || outputs == null) {
         throw new NullPointerException("EvaluationListener.Event cannot have null component/input/output");
       }
@@ -17,24 +17,21 @@ public abstract class Gate extends LogicComponent {
   }
   
   /**
-   * Find this {@link Gate}'s output values by evaluating all previous {@link LogicComponent}s.
-   * @return This {@link Gate}'s output values for its current input values.
+   * Find this {@link Gate}'s output values for its current input values.
    */
   @Override
-  public boolean[] evaluate(EvaluationListener listener, boolean[] inputValues) {
-    // Evaluate them
-    boolean[] output = logicalEval(inputValues);
+  void evaluate(EvaluationListener listener, boolean[] inputValues, boolean[] outputValues) {
+    logicalEval(inputValues, outputValues);
     if (listener != null) {
-      listener.onEvaluation(new EvaluationListener.Event(this, inputValues, output));
+      listener.onEvaluation(new EvaluationListener.Event(this, inputValues.clone(), outputValues.clone()));
     }
-    return output;
   }
   
   /**
-   * Perform the logical operation done by this {@link Gate}.
+   * Perform the logical operation done by this {@link Gate}. This is called on every tick, so it should not allocate.
    * @param input The gate's current input. Length is equal to getNumInputs().
-   * @return The gate's output for its input. Length must be equal to getNumOutputs().
+   * @param output The buffer to write the gate's output for its input into. Length is equal to getNumOutputs().
    */
-  protected abstract boolean[] logicalEval(boolean[] input);
+  protected abstract void logicalEval(boolean[] input, boolean[] output);
   
 }
\ No newline at end of file
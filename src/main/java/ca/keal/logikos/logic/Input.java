@@ -29,13 +29,12 @@ public class Input extends LogicComponent {
   }
   
   @Override
-  public boolean[] evaluate(EvaluationListener listener, boolean[] nonexistentInput) {
+  void evaluate(EvaluationListener listener, boolean[] nonexistentInput, boolean[] outputValues) {
     // Supply the set value
-    boolean[] output = new boolean[] {value};
+    outputValues[0] = value;
     if (listener != null) {
-      listener.onEvaluation(new EvaluationListener.Event(this, new boolean[0], output));
+      listener.onEvaluation(new EvaluationListener.Event(this, new boolean[0], outputValues.clone()));
     }
-    return output;
   }
   
   @Override
@@ -5,8 +5,10 @@ import ca.keal.logikos.util.XmlUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.function.BiFunction;
 import java.util.function.IntFunction;
@@ -21,11 +23,17 @@ public abstract class LogicComponent {
   private final Port.Input[] inputs;
   private final Port.Output[] outputs;
   
-  private boolean[] inputValues;
-  private boolean[] outputValues;
-  private boolean[] nextOutputValues;
+  // The values used when the component is ticked on its own, packed one bit per value: the input values, followed by
+  // two banks of output values. outputBank is the bank holding the current output values; tick() fills the other one.
+  private final long[] values;
+  private final int numOutputValues;
+  private int outputBank = 0;
+  
+  // The unpacked values handed to evaluate(), shared by every component ticked on the same thread
+  private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
   
   private UUID id = UUID.randomUUID();
+  private int index = -1;
   
   /**
    * Initialize the LogicComponent with {@code numInputs} inputs {@link Port.Input}s and {@code numOutputs} output
@@ -34,10 +42,19 @@ public abstract class LogicComponent {
    * @param numOutputs The number of outputs this LogicComponent has.
    */
   protected LogicComponent(int numInputs, int numOutputs) {
+    this(numInputs, numOutputs, numOutputs);
+  }
+  
+  /**
+   * Initialize the LogicComponent with {@code numInputs} inputs {@link Port.Input}s and {@code numOutputs} output
+   * {@link Port.Output}s, but room for {@code numOutputValues} output values. This is for components like
+   * {@link Output} which produce a value without having a port to connect it to.
+   */
+  LogicComponent(int numInputs, int numOutputs, int numOutputValues) {
     inputs = getPortArray(numInputs, Port.Input::new, Port.Input[]::new);
     outputs = getPortArray(numOutputs, Port.Output::new, Port.Output[]::new);
-    inputValues = new boolean[numInputs];
-    outputValues = new boolean[numOutputs];
+    this.numOutputValues = numOutputValues;
+    values = new long[(numInputs + 2 * numOutputValues + 63) >>> 6];
   }
   
   // Helper to fill an array with Ports with port numbers and array indices aligned
@@ -54,6 +71,22 @@ public abstract class LogicComponent {
     return id;
   }
   
+  /**
+   * @return This component's position in the {@link ca.keal.logikos.field.Field} it was last added to, a dense ID for
+   * indexing arrays instead of hashing components, or -1 if it isn't in a field. It changes when a component before it
+   * is removed from the field.
+   */
+  public int getIndex() {
+    return index;
+  }
+  
+  /**
+   * Only to be called by the {@link ca.keal.logikos.field.Field} containing this component.
+   */
+  public void setIndex(int index) {
+    this.index = index;
+  }
+  
   public int getNumInputs() {
     return inputs.length;
   }
@@ -92,19 +125,17 @@ public abstract class LogicComponent {
    * Reset all input and output values to false.
    */
   public void reset() {
-    inputValues = new boolean[getNumInputs()];
-    outputValues = new boolean[getNumOutputs()];
-    nextOutputValues = null;
+    Arrays.fill(values, 0);
+    outputBank = 0;
   }
   
   /**
    * Fetch the inputs values from this component's inputs and ready for evaluation.
    */
   public void updateInputs() {
-    inputValues = new boolean[getNumInputs()];
     for (int i = 0; i < getNumInputs(); i++) {
       Port.Input input = inputs[i];
-      inputValues[i] = input.getConnection().getValue();
+      setBit(i, input.getConnection().getValue());
     }
   }
 
@@ -113,22 +144,72 @@ public abstract class LogicComponent {
    * when {@link #updateOutputs()} is called.
    */
   public void tick(EvaluationListener listener) {
-    nextOutputValues = evaluate(listener, inputValues);
+    Scratch scratch = SCRATCH.get();
+    boolean[] inputValues = scratch.inputValues(getNumInputs());
+    for (int i = 0; i < inputValues.length; i++) {
+      inputValues[i] = getBit(i);
+    }
+    boolean[] outputValues = scratch.outputValues(numOutputValues);
+    evaluate(listener, inputValues, outputValues);
+    
+    int next = outputStart(outputBank ^ 1);
+    for (int i = 0; i < outputValues.length; i++) {
+      setBit(next + i, outputValues[i]);
+    }
   }
   
   /**
-   * Get the output values for the current input values.
+   * Write the output values for the current input values into {@code outputValues}. Both arrays belong to the caller
+   * and are reused every tick, so they must not be kept, and this should not allocate unless {@code listener} is
+   * non-null.
    */
-  abstract boolean[] evaluate(EvaluationListener listener, boolean[] inputValues);
+  abstract void evaluate(EvaluationListener listener, boolean[] inputValues, boolean[] outputValues);
   
+  /**
+   * Make the output values queued by {@link #tick(EvaluationListener)} the current output values.
+   */
   public void updateOutputs() {
-    outputValues = nextOutputValues;
+    // swap the banks rather than copy; the old output values are overwritten by the next tick
+    outputBank ^= 1;
+  }
+  
+  /**
+   * @return The current value of output value {@code index}.
+   * @throws IndexOutOfBoundsException If there is no such output value.
+   */
+  public boolean getOutputValue(int index) {
+    Objects.checkIndex(index, numOutputValues);
+    return getBit(outputStart(outputBank) + index);
   }
   
+  /**
+   * @return A copy of the current output values.
+   * @deprecated The output values are packed into bits, so this allocates a new array on every call; use
+   *  {@link #getOutputValue(int)} instead.
+   */
+  @Deprecated
   public boolean[] getOutputValues() {
+    boolean[] outputValues = new boolean[numOutputValues];
+    for (int i = 0; i < numOutputValues; i++) {
+      outputValues[i] = getOutputValue(i);
+    }
     return outputValues;
   }
   
+  // The bit at which the output values of bank start
+  private int outputStart(int bank) {
+    return getNumInputs() + bank * numOutputValues;
+  }
+  
+  private boolean getBit(int bit) {
+    return (values[bit >>> 6] >>> bit & 1) != 0;
+  }
+  
+  private void setBit(int bit, boolean value) {
+    long mask = 1L << bit;
+    values[bit >>> 6] = value ? values[bit >>> 6] | mask : values[bit >>> 6] & ~mask;
+  }
+  
   /** @see Gate#markDirty() */
   public void markDirty() {}
   
@@ -196,16 +277,28 @@ public abstract class LogicComponent {
     LogicComponent lc;
     switch (type) {
       case "AND":
-        lc = new AndGate();
+        lc = new AndGate(WideGate.numInputsFromXml(elem));
         break;
       case "OR":
-        lc = new OrGate();
+        lc = new OrGate(WideGate.numInputsFromXml(elem));
         break;
       case "NOT":
         lc = new NotGate();
         break;
       case "NAND":
-        lc = new NandGate();
+        lc = new NandGate(WideGate.numInputsFromXml(elem));
+        break;
+      case "NOR":
+        lc = new NorGate(WideGate.numInputsFromXml(elem));
+        break;
+      case "XOR":
+        lc = new XorGate(WideGate.numInputsFromXml(elem));
+        break;
+      case "XNOR":
+        lc = new XnorGate(WideGate.numInputsFromXml(elem));
+        break;
+      case "BUF":
+        lc = new BufGate();
         break;
       case "INPUT":
         lc = new Input();
@@ -214,7 +307,7 @@ public abstract class LogicComponent {
         lc = new Output();
         break;
       case "CLK":
-        lc = new Clock();
+        lc = Clock.fromXml(elem);
         break;
       case "USER":
         lc = UserGate.fromXml(elem, filename);
@@ -248,4 +341,32 @@ public abstract class LogicComponent {
     }
   }
   
+  // Arrays of each length for evaluate(), which relies on their lengths, so that ticking doesn't allocate
+  private static final class Scratch {
+    
+    private boolean[][] inputValues = new boolean[0][];
+    private boolean[][] outputValues = new boolean[0][];
+    
+    boolean[] inputValues(int length) {
+      if (length >= inputValues.length) {
+        inputValues = Arrays.copyOf(inputValues, length + 1);
+      }
+      if (inputValues[length] == null) {
+        inputValues[length] = new boolean[length];
+      }
+      return inputValues[length];
+    }
+    
+    boolean[] outputValues(int length) {
+      if (length >= outputValues.length) {
+        outputValues = Arrays.copyOf(outputValues, length + 1);
+      }
+      if (outputValues[length] == null) {
+        outputValues[length] = new boolean[length];
+      }
+      return outputValues[length];
+    }
+    
+  }
+  
 }
\ No newline at end of file
@@ -0,0 +1,27 @@
+package ca.keal.logikos.logic;
+
+public class NorGate extends WideGate {
+  
+  public NorGate() {
+    this(MIN_INPUTS);
+  }
+  
+  public NorGate(int numInputs) {
+    super(numInputs);
+  }
+  
+  @Override
+  protected void logicalEval(boolean[] input, boolean[] output) {
+    boolean value = false;
+    for (boolean in : input) {
+      value |= in;
+    }
+    output[0] = !value;
+  }
+  
+  @Override
+  public String getName() {
+    return "NOR";
+  }
+  
+}
\ No newline at end of file
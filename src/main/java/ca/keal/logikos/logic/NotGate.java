@@ -7,8 +7,8 @@ public class NotGate extends Gate {
   }
   
   @Override
-  protected boolean[] logicalEval(boolean[] input) {
-    return new boolean[] {!input[0]};
+  protected void logicalEval(boolean[] input, boolean[] output) {
+    output[0] = !input[0];
   }
   
   @Override
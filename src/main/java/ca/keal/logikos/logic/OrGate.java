@@ -1,14 +1,22 @@
 package ca.keal.logikos.logic;
 
-public class OrGate extends Gate {
+public class OrGate extends WideGate {
   
   public OrGate() {
-    super(2, 1); // 2 inputs, 1 output
+    this(MIN_INPUTS);
+  }
+  
+  public OrGate(int numInputs) {
+    super(numInputs);
   }
   
   @Override
-  protected boolean[] logicalEval(boolean[] input) {
-    return new boolean[] {input[0] || input[1]};
+  protected void logicalEval(boolean[] input, boolean[] output) {
+    boolean value = false;
+    for (boolean in : input) {
+      value |= in;
+    }
+    output[0] = value;
   }
   
   @Override
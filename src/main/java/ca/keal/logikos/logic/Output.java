@@ -2,22 +2,22 @@ package ca.keal.logikos.logic;
 
 /**
  * A simple {@link LogicComponent} representing an output on a circuit. It is simply an end-node with 1 input and 0
- * outputs; despite this, {@link #evaluate(EvaluationListener, boolean[])} still returns a value, mirroring its input
- * value.
+ * outputs; despite this, {@link #evaluate(EvaluationListener, boolean[], boolean[])} still produces a value, mirroring
+ * its input value.
  */
 public class Output extends LogicComponent {
   
   public Output() {
-    super(1, 0); // 1 input, 0 outputs
+    super(1, 0, 1); // 1 input, 0 outputs, but 1 output value
   }
   
   @Override
-  public boolean[] evaluate(EvaluationListener listener, boolean[] inputValues) {
+  void evaluate(EvaluationListener listener, boolean[] inputValues, boolean[] outputValues) {
     // Mirror the input value
+    outputValues[0] = inputValues[0];
     if (listener != null) {
-      listener.onEvaluation(new EvaluationListener.Event(this, inputValues, inputValues));
+      listener.onEvaluation(new EvaluationListener.Event(this, inputValues.clone(), outputValues.clone()));
     }
-    return inputValues;
   }
   
   @Override
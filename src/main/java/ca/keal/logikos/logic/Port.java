@@ -4,10 +4,12 @@ import ca.keal.logikos.util.DeserializationException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A generic, abstract class representing a port on a {@link LogicComponent}. It has a non-negative port number and a
@@ -23,6 +25,9 @@ import java.util.UUID;
  */
 public abstract class Port<CONNECTABLE_TO extends Port> {
   
+  // Bumped whenever any connection is made or removed, so that compiled fields can tell that they're out of date
+  private static final AtomicLong connectionsVersion = new AtomicLong();
+  
   private final int portNumber;
   private final LogicComponent component;
   
@@ -43,9 +48,18 @@ public abstract class Port<CONNECTABLE_TO extends Port> {
   
   public abstract void connectTo(CONNECTABLE_TO port);
   
+  /**
+   * @return A number which changes whenever any connection between any ports is made or removed. A
+   * {@link ca.keal.logikos.field.Field} compares it with the number it was compiled at to find out whether its
+   * connections may have changed since.
+   */
+  public static long getConnectionsVersion() {
+    return connectionsVersion.get();
+  }
+  
   @Override
   public boolean equals(Object obj) {
-    if (!(obj instanceof Port)) return false;
+    if (obj == null || obj.getClass() != getClass()) return false;
     Port port = (Port) obj;
     // no null check here because component is never null
     return port.portNumber == portNumber && component.equals(port.component);
@@ -53,7 +67,8 @@ public abstract class Port<CONNECTABLE_TO extends Port> {
   
   @Override
   public int hashCode() {
-    return 271 * portNumber * component.hashCode();
+    // the ports of a component get consecutive hashes, so no two of its inputs or outputs collide
+    return 31 * component.hashCode() + portNumber;
   }
   
   @Override
@@ -78,18 +93,20 @@ public abstract class Port<CONNECTABLE_TO extends Port> {
     
     public void removeConnection() {
       connection = null;
+      connectionsVersion.incrementAndGet();
     }
     
     @Override
     public void connectTo(Output port) {
       // Remove the previous connection from the other port if it exists
       if (connection != null) {
-        connection.getOutput().getConnections().remove(connection);
+        connection.getOutput().removeFanOut(connection);
       }
       
       // Overwrite the connection and add it to the other port
       connection = new Connection(this, port);
-      port.getConnections().add(connection);
+      port.addFanOut(connection);
+      connectionsVersion.incrementAndGet();
     }
   
     /**
@@ -170,14 +187,38 @@ public abstract class Port<CONNECTABLE_TO extends Port> {
    */
   public static class Output extends Port<Input> {
     
-    private final Set<Connection> connections = new HashSet<>();
+    // Each connection sits at the slot it records, so that it is removed without searching or hashing; high-fanout
+    // nets like clocks have thousands of connections
+    private final List<Connection> connections = new ArrayList<>();
+    private final List<Connection> connectionsView = Collections.unmodifiableList(connections);
     
     public Output(int number, LogicComponent component) {
       super(number, component);
     }
     
-    public Set<Connection> getConnections() {
-      return connections;
+    /**
+     * @return A read-only view of the connections from this port, in no particular order.
+     */
+    public List<Connection> getConnections() {
+      return connectionsView;
+    }
+    
+    void addFanOut(Connection connection) {
+      connection.fanOutSlot = connections.size();
+      connections.add(connection);
+    }
+    
+    void removeFanOut(Connection connection) {
+      int slot = connection.fanOutSlot;
+      if (slot < 0 || slot >= connections.size() || connections.get(slot) != connection) return;
+      
+      // move the last connection into the gap rather than shifting everything after it
+      Connection last = connections.remove(connections.size() - 1);
+      if (last != connection) {
+        connections.set(slot, last);
+        last.fanOutSlot = slot;
+      }
+      connection.fanOutSlot = -1;
     }
     
     @Override
@@ -1,7 +1,9 @@
 package ca.keal.logikos.logic;
 
 import ca.keal.logikos.field.Field;
-import ca.keal.logikos.field.InputFC;
+import ca.keal.logikos.field.FieldDefinitionCache;
+import ca.keal.logikos.sim.Netlist;
+import ca.keal.logikos.sim.Simulation;
 import ca.keal.logikos.ui.Logikos;
 import ca.keal.logikos.util.DeserializationException;
 import org.w3c.dom.Document;
@@ -10,18 +12,23 @@ import org.w3c.dom.Element;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
 
 /**
  * A user-created gate based on a {@link Field}. The {@code UserGate} is a way for users to create a custom gate based
- * on a {@link Field} they have previously created. It contains a {@code Field} to which it delegates evaluation. It
- * also has a user-entered name.
+ * on a {@link Field} they have previously created. It also has a user-entered name.
+ *
+ * <p>The {@code Field} is only a definition, shared by every instance of the same gate and never modified by them.
+ * Each instance evaluates the field's compiled {@link Netlist}, which is also shared, and keeps nothing of its own but
+ * a {@link Simulation} holding the values of the nets inside it.</p>
  */
 public class UserGate extends Gate {
   
   private Field field;
   private String name;
   
+  // This instance's state; created on the first tick, and again if the field is recompiled
+  private Simulation state = null;
+  
   /**
    * Create a {@link UserGate} based on the given {@link Field}. The new {@code UserGate} is functionally identical to
    * the {@code Field} when run.
@@ -38,6 +45,7 @@ public class UserGate extends Gate {
       throw new NullPointerException("UserGate cannot have a null Field");
     }
     this.field = field;
+    state = null;
   }
   
   public Field getField() {
@@ -56,15 +64,29 @@ public class UserGate extends Gate {
   }
   
   @Override
-  protected boolean[] logicalEval(boolean[] input) {
-    // Set the inputs
-    List<InputFC> inputFCs = field.getInputFCs();
-    for (int i = 0; i < input.length; i++) {
-      inputFCs.get(i).getLogicComponent().setValue(input[i]);
+  protected void logicalEval(boolean[] input, boolean[] output) {
+    Netlist netlist = field.getNetlist();
+    if (state == null || state.getNetlist() != netlist) {
+      state = new Simulation(netlist);
+      state.setEventDriven(field.isEventDriven());
     }
     
-    // Tick
-    return field.tick(null);
+    // The first input slots belong to the field's InputFCs, in order
+    for (int i = 0; i < input.length; i++) {
+      state.setInput(i, input[i]);
+    }
+    state.tick(null);
+    for (int i = 0; i < output.length; i++) {
+      output[i] = state.getOutput(i);
+    }
+  }
+  
+  @Override
+  public void reset() {
+    super.reset();
+    if (state != null) {
+      state.reset();
+    }
   }
   
   @Override
@@ -109,10 +131,10 @@ public class UserGate extends Gate {
     Path base = Paths.get(filename).getParent().normalize();
     Path absGatePath = base.resolve(gatePath);
     
-    // Attempt to recover the field from the filename
+    // Attempt to recover the field from the filename, parsing the file only for the first instance of the gate
     Field userField;
     try {
-      userField = Field.fromXml(absGatePath.toString());
+      userField = FieldDefinitionCache.getInstance().getDefinition(absGatePath.toString());
     } catch (IOException e) {
       throw new DeserializationException("Error while trying to read file '" + absGatePath + "'", e);
     }
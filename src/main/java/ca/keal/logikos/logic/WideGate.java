@@ -0,0 +1,68 @@
+package ca.keal.logikos.logic;
+
+import ca.keal.logikos.util.DeserializationException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * A {@link Gate} with one output and any number of inputs from {@link #MIN_INPUTS} to {@link #MAX_INPUTS}, so that a
+ * wide function is one component rather than a tree of 2-input gates. The number of inputs is saved in the
+ * {@code inputs} attribute, which is left out for 2-input gates so that older files still load.
+ */
+public abstract class WideGate extends Gate {
+  
+  public static final int MIN_INPUTS = 2;
+  public static final int MAX_INPUTS = 64;
+  
+  /**
+   * @throws IllegalArgumentException If {@code numInputs} is not from {@link #MIN_INPUTS} to {@link #MAX_INPUTS}.
+   */
+  protected WideGate(int numInputs) {
+    super(checkNumInputs(numInputs), 1);
+  }
+  
+  private static int checkNumInputs(int numInputs) {
+    if (numInputs < MIN_INPUTS || numInputs > MAX_INPUTS) {
+      throw new IllegalArgumentException("Gates must have from " + MIN_INPUTS + " to " + MAX_INPUTS
+          + " inputs, not " + numInputs);
+    }
+    return numInputs;
+  }
+  
+  @Override
+  public String getPortNameByIndex(boolean input, int index) {
+    String name = super.getPortNameByIndex(input, index);
+    
+    // there aren't enough letters for the widest gates
+    return input && getNumInputs() > 26 ? Integer.toString(index) : name;
+  }
+  
+  @Override
+  public Element toXml(Document doc) {
+    Element elem = super.toXml(doc);
+    if (getNumInputs() != MIN_INPUTS) {
+      elem.setAttribute("inputs", Integer.toString(getNumInputs()));
+    }
+    return elem;
+  }
+  
+  /**
+   * @return The number of inputs saved in the element by {@link #toXml(Document)}.
+   */
+  static int numInputsFromXml(Element elem) throws DeserializationException {
+    if (!elem.hasAttribute("inputs")) return MIN_INPUTS;
+    
+    int numInputs;
+    try {
+      numInputs = Integer.parseInt(elem.getAttribute("inputs"));
+    } catch (NumberFormatException e) {
+      throw new DeserializationException("Invalid number of inputs: " + elem.getAttribute("inputs"), e);
+    }
+    if (numInputs < MIN_INPUTS || numInputs > MAX_INPUTS) {
+      throw new DeserializationException("Gates must have from " + MIN_INPUTS + " to " + MAX_INPUTS
+          + " inputs, not " + numInputs);
+    }
+    return numInputs;
+  }
+  
+}
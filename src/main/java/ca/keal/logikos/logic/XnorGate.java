@@ -0,0 +1,28 @@
+package ca.keal.logikos.logic;
+
+public class XnorGate extends WideGate {
+  
+  public XnorGate() {
+    this(MIN_INPUTS);
+  }
+  
+  public XnorGate(int numInputs) {
+    super(numInputs);
+  }
+  
+  @Override
+  protected void logicalEval(boolean[] input, boolean[] output) {
+    // true if an even number of inputs are true
+    boolean value = true;
+    for (boolean in : input) {
+      value ^= in;
+    }
+    output[0] = value;
+  }
+  
+  @Override
+  public String getName() {
+    return "XNOR";
+  }
+  
+}
\ No newline at end of file
@@ -0,0 +1,28 @@
+package ca.keal.logikos.logic;
+
+public class XorGate extends WideGate {
+  
+  public XorGate() {
+    this(MIN_INPUTS);
+  }
+  
+  public XorGate(int numInputs) {
+    super(numInputs);
+  }
+  
+  @Override
+  protected void logicalEval(boolean[] input, boolean[] output) {
+    // true if an odd number of inputs are true
+    boolean value = false;
+    for (boolean in : input) {
+      value ^= in;
+    }
+    output[0] = value;
+  }
+  
+  @Override
+  public String getName() {
+    return "XOR";
+  }
+  
+}
\ No newline at end of file
@@ -0,0 +1,49 @@
+package ca.keal.logikos.sim;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers for treating a {@code long[]}, or a {@link ByteBuffer} of {@code long}s, as a packed bitset, one bit per net.
+ */
+final class Bits {
+
+  private Bits() {}
+
+  /** The number of {@code long}s needed to hold {@code numBits} bits. */
+  static int words(int numBits) {
+    return (numBits + 63) >>> 6;
+  }
+
+  static boolean get(long[] bits, int index) {
+    return (bits[index >>> 6] & (1L << index)) != 0;
+  }
+
+  static void set(long[] bits, int index) {
+    bits[index >>> 6] |= 1L << index;
+  }
+
+  static void set(long[] bits, int index, boolean value) {
+    if (value) {
+      bits[index >>> 6] |= 1L << index;
+    } else {
+      bits[index >>> 6] &= ~(1L << index);
+    }
+  }
+
+  static boolean get(ByteBuffer bits, int index) {
+    return (bits.getLong((index >>> 6) << 3) & (1L << index)) != 0;
+  }
+
+  static void set(ByteBuffer bits, int index, boolean value) {
+    int offset = (index >>> 6) << 3;
+    long word = bits.getLong(offset);
+    bits.putLong(offset, value ? word | (1L << index) : word & ~(1L << index));
+  }
+
+  static void clear(ByteBuffer bits) {
+    for (int offset = 0; offset < bits.capacity(); offset += Long.BYTES) {
+      bits.putLong(offset, 0L);
+    }
+  }
+
+}
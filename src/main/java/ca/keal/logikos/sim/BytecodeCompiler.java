@@ -0,0 +1,531 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.logic.Clock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles a flat {@link Netlist} into a class of its own, defined at run time as a hidden class, whose
+ * {@link Evaluator#evaluate} does exactly what a full {@link Simulation#tick} does to the state vectors. Every gate
+ * becomes a few straight-line bitwise instructions on {@code int}s which are 0 or 1, with no dispatch on opcodes and no
+ * loops over fan-in, and every net read by a gate is loaded from the state vector into a local once. The JIT then sees
+ * the whole circuit as one block of arithmetic to register-allocate.
+ *
+ * <p>The code has no branches at all. Each component's output is shifted into a local holding the state word being
+ * built, which is stored when the next word is reached; since nets are numbered in component order, every word of the
+ * next state vector is stored exactly once. The JIT won't compile very large methods, so the components are split into
+ * chunks of one method each, which the evaluator calls in turn.</p>
+ *
+ * <p>Hidden classes are unloaded once nothing refers to them, so a field which is edited and rerun many times doesn't
+ * fill up the metaspace. They need Java 15, so on older JVMs the class is defined as an ordinary class in this package
+ * instead, which stays loaded for as long as the application runs.</p>
+ *
+ * <p>Only {@link Netlist#isFlat() flat} netlists, without nested user gates or lookup tables, can be compiled.</p>
+ */
+final class BytecodeCompiler {
+
+  /**
+   * Evaluates every component of a netlist once, reading the state vector {@code values} and writing the whole of
+   * {@code next}, as in {@link Simulation#tick}.
+   */
+  interface Evaluator {
+    void evaluate(long[] values, long[] next, long[] inputs, Clock[] clocks, long time);
+  }
+
+  private static final String CLASS_NAME_PREFIX = BytecodeCompiler.class.getPackage().getName().replace('.', '/')
+      + "/CompiledNetlist$";
+
+  // Each compiled netlist is defined under a new name, since without hidden classes they all share this class's loader
+  private static final AtomicInteger NEXT_CLASS_NUMBER = new AtomicInteger();
+
+  // Lookup.defineHiddenClass(byte[], boolean, ClassOption...), or null before Java 15; looked up by reflection so that
+  // the project still builds on Java 11
+  private static final Method DEFINE_HIDDEN_CLASS = findDefineHiddenClass();
+  private static final String EVALUATE_DESCRIPTOR = "([J[J[J[L" + Clock.class.getName().replace('.', '/') + ";J)V";
+
+  // Start a new chunk once the current one's code passes this size. No component compiles to more than about 1K of
+  // bytecode, so every chunk stays under the 8000 bytes beyond which HotSpot won't JIT-compile a method at all.
+  private static final int MAX_CHUNK_CODE = 6 * 1024;
+
+  // Each call from evaluate() to a chunk takes 13 bytes
+  private static final int MAX_CHUNKS = 65535 / 13 - 1;
+
+  // The locals of a chunk method: its parameters, the state word being built, and then the cached nets
+  private static final int VALUES = 0;
+  private static final int NEXT = 1;
+  private static final int INPUTS = 2;
+  private static final int CLOCKS = 3;
+  private static final int TIME = 4;
+  private static final int WORD = 6;
+  private static final int FIRST_NET_LOCAL = 8;
+
+  private static final int MAX_STACK = 8;
+
+  // The few opcodes used
+  private static final int ICONST_0 = 0x03;
+  private static final int ICONST_1 = 0x04;
+  private static final int BIPUSH = 0x10;
+  private static final int SIPUSH = 0x11;
+  private static final int LDC_W = 0x13;
+  private static final int ILOAD = 0x15;
+  private static final int LLOAD = 0x16;
+  private static final int ALOAD = 0x19;
+  private static final int ALOAD_0 = 0x2a;
+  private static final int LALOAD = 0x2f;
+  private static final int AALOAD = 0x32;
+  private static final int ISTORE = 0x36;
+  private static final int LSTORE = 0x37;
+  private static final int LASTORE = 0x50;
+  private static final int DUP = 0x59;
+  private static final int LSHL = 0x79;
+  private static final int LUSHR = 0x7d;
+  private static final int IAND = 0x7e;
+  private static final int IOR = 0x80;
+  private static final int LOR = 0x81;
+  private static final int IXOR = 0x82;
+  private static final int I2L = 0x85;
+  private static final int L2I = 0x88;
+  private static final int RETURN = 0xb1;
+  private static final int INVOKEVIRTUAL = 0xb6;
+  private static final int INVOKESPECIAL = 0xb7;
+  private static final int INVOKESTATIC = 0xb8;
+  private static final int WIDE = 0xc4;
+
+  private static final int ACC_PUBLIC = 0x0001;
+  private static final int ACC_PRIVATE = 0x0002;
+  private static final int ACC_STATIC = 0x0008;
+  private static final int ACC_FINAL = 0x0010;
+  private static final int ACC_SUPER = 0x0020;
+
+  private final Netlist netlist;
+  private final String className = CLASS_NAME_PREFIX + NEXT_CLASS_NUMBER.getAndIncrement();
+  private final ConstantPool pool = new ConstantPool();
+  private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+  private int numMethods = 0;
+
+  // The state of the chunk being compiled
+  private Code code;
+  private int[] netLocal;
+  private int[] netLocalChunk;
+  private int numLocals;
+  private int chunk = -1;
+  private int currentWord = -1;
+
+  // The last state word stored by any chunk so far; a chunk starting part way through it must keep its lower bits
+  private int lastStoredWord = -1;
+
+  private BytecodeCompiler(Netlist netlist) {
+    this.netlist = netlist;
+  }
+
+  /**
+   * Compile {@code netlist} and define it as a hidden class, or an ordinary one before Java 15.
+   * @throws IllegalArgumentException If the netlist can't be compiled, because it isn't flat, or it's too large to
+   * fit in one class.
+   */
+  static Evaluator compile(Netlist netlist) {
+    if (!netlist.isFlat()) {
+      throw new IllegalArgumentException("Only netlists without user gates or lookup tables can be compiled");
+    }
+    byte[] classFile = new BytecodeCompiler(netlist).classFile();
+    try {
+      MethodHandles.Lookup lookup = define(classFile);
+      return (Evaluator) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+    } catch (Throwable e) {
+      // the class file is generated by this class, so it's a bug if it can't be loaded
+      throw new IllegalStateException("Could not define compiled netlist", e);
+    }
+  }
+
+  private static Method findDefineHiddenClass() {
+    try {
+      Class<?> classOption = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+      return MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class,
+          Array.newInstance(classOption, 0).getClass());
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  // Define the class in this package, returning a lookup with full access to it
+  private static MethodHandles.Lookup define(byte[] classFile) throws ReflectiveOperationException {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    if (DEFINE_HIDDEN_CLASS == null) {
+      return MethodHandles.privateLookupIn(lookup.defineClass(classFile), lookup);
+    }
+    Object noOptions = Array.newInstance(DEFINE_HIDDEN_CLASS.getParameterTypes()[2].getComponentType(), 0);
+    return (MethodHandles.Lookup) DEFINE_HIDDEN_CLASS.invoke(lookup, classFile, true, noOptions);
+  }
+
+  private byte[] classFile() {
+    netLocal = new int[netlist.numNets];
+    netLocalChunk = new int[netlist.numNets];
+    Arrays.fill(netLocalChunk, -1);
+
+    // Split the components into chunk methods as the code for each grows
+    List<Integer> chunkMethods = new ArrayList<>();
+    int n = netlist.getNumComponents();
+    for (int c = 0; c < n; c++) {
+      if (code == null) {
+        startChunk();
+      }
+      compileComponent(c);
+      if (code.size() >= MAX_CHUNK_CODE || c == n - 1) {
+        chunkMethods.add(finishChunk());
+      }
+    }
+    if (chunkMethods.size() > MAX_CHUNKS) {
+      throw new IllegalArgumentException("Netlist is too large to compile: " + n + " components");
+    }
+
+    // public CompiledNetlist() { super(); }
+    Code init = new Code();
+    init.op(ALOAD_0);
+    init.op(INVOKESPECIAL);
+    init.u2(pool.methodRef("java/lang/Object", "<init>", "()V"));
+    init.op(RETURN);
+    addMethod(ACC_PUBLIC, "<init>", "()V", init, 1);
+
+    // public void evaluate(...) { chunk0(...); chunk1(...); ... }
+    Code evaluate = new Code();
+    for (int methodRef : chunkMethods) {
+      evaluate.local(ALOAD, VALUES + 1);
+      evaluate.local(ALOAD, NEXT + 1);
+      evaluate.local(ALOAD, INPUTS + 1);
+      evaluate.local(ALOAD, CLOCKS + 1);
+      evaluate.local(LLOAD, TIME + 1);
+      evaluate.op(INVOKESTATIC);
+      evaluate.u2(methodRef);
+    }
+    evaluate.op(RETURN);
+    addMethod(ACC_PUBLIC, "evaluate", EVALUATE_DESCRIPTOR, evaluate, TIME + 3);
+
+    int thisClass = pool.classRef(className);
+    int superClass = pool.classRef("java/lang/Object");
+    int evaluatorClass = pool.classRef(Evaluator.class.getName().replace('.', '/'));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0); // minor version
+      out.writeShort(52); // Java 8: without branches, no stack map frames are needed
+      pool.write(out);
+      out.writeShort(ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(1);
+      out.writeShort(evaluatorClass);
+      out.writeShort(0); // fields
+      out.writeShort(numMethods);
+      methods.writeTo(out);
+      out.writeShort(0); // attributes
+    } catch (IOException e) {
+      // a ByteArrayOutputStream never throws
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private void startChunk() {
+    code = new Code();
+    chunk++;
+    numLocals = FIRST_NET_LOCAL;
+    currentWord = -1;
+  }
+
+  // Store the last word, and add the chunk's method, returning a reference to it
+  private int finishChunk() {
+    if (currentWord >= 0) {
+      storeWord();
+    }
+    code.op(RETURN);
+    String name = "chunk" + chunk;
+    addMethod(ACC_PRIVATE | ACC_STATIC, name, EVALUATE_DESCRIPTOR, code, numLocals);
+    code = null;
+    return pool.methodRef(className, name, EVALUATE_DESCRIPTOR);
+  }
+
+  private void compileComponent(int c) {
+    if (netlist.numOutputNets[c] == 0) return;
+    int net = netlist.outputNet[c];
+    boolean newWord = net >>> 6 != currentWord;
+    if (newWord && currentWord >= 0) {
+      storeWord();
+    }
+
+    int from = netlist.fanInStart[c];
+    int to = netlist.fanInStart[c + 1];
+    int opcode = netlist.opcodes[c];
+
+    // Leave the component's value on the stack as an int which is 0 or 1
+    switch (opcode) {
+      case Netlist.OP_INPUT:
+        bitOf(INPUTS, netlist.aux[c]);
+        break;
+      case Netlist.OP_CONST_0:
+        code.op(ICONST_0);
+        break;
+      case Netlist.OP_CONST_1:
+        code.op(ICONST_1);
+        break;
+      case Netlist.OP_CLOCK:
+        code.local(ALOAD, CLOCKS);
+        code.pushInt(netlist.aux[c]);
+        code.op(AALOAD);
+        code.local(LLOAD, TIME);
+        code.op(INVOKEVIRTUAL);
+        code.u2(pool.methodRef(Clock.class.getName().replace('.', '/'), "getValueAt", "(J)Z"));
+        break;
+      case Netlist.OP_BUF:
+        loadNet(netlist.fanIn[from]);
+        break;
+      case Netlist.OP_NOT:
+        loadNet(netlist.fanIn[from]);
+        invert();
+        break;
+      case Netlist.OP_AND:
+      case Netlist.OP_NAND:
+        fold(from, to, IAND);
+        if (opcode == Netlist.OP_NAND) invert();
+        break;
+      case Netlist.OP_OR:
+      case Netlist.OP_NOR:
+        fold(from, to, IOR);
+        if (opcode == Netlist.OP_NOR) invert();
+        break;
+      case Netlist.OP_XOR:
+      case Netlist.OP_XNOR:
+        fold(from, to, IXOR);
+        if (opcode == Netlist.OP_XNOR) invert();
+        break;
+      default:
+        throw new IllegalStateException("Cannot compile opcode " + opcode);
+    }
+
+    storeNet(net, newWord);
+  }
+
+  private void fold(int from, int to, int operation) {
+    loadNet(netlist.fanIn[from]);
+    for (int i = from + 1; i < to; i++) {
+      loadNet(netlist.fanIn[i]);
+      code.op(operation);
+    }
+  }
+
+  private void invert() {
+    code.op(ICONST_1);
+    code.op(IXOR);
+  }
+
+  // Push bit index of the long[] in local array, as an int
+  private void bitOf(int array, int index) {
+    code.local(ALOAD, array);
+    code.pushInt(index >>> 6);
+    code.op(LALOAD);
+    if ((index & 63) != 0) {
+      code.pushInt(index & 63);
+      code.op(LUSHR);
+    }
+    code.op(L2I);
+    code.op(ICONST_1);
+    code.op(IAND);
+  }
+
+  // Push the value of net from the previous state, loading it into a local the first time the chunk reads it
+  private void loadNet(int net) {
+    if (netLocalChunk[net] == chunk) {
+      code.local(ILOAD, netLocal[net]);
+      return;
+    }
+    bitOf(VALUES, net);
+    code.op(DUP);
+    netLocal[net] = numLocals++;
+    netLocalChunk[net] = chunk;
+    code.local(ISTORE, netLocal[net]);
+  }
+
+  // Pop a value into net's bit of the state word being built, which starts with it if it's the first net of a word
+  private void storeNet(int net, boolean newWord) {
+    int word = net >>> 6;
+    code.op(I2L);
+    if ((net & 63) != 0) {
+      code.pushInt(net & 63);
+      code.op(LSHL);
+    }
+
+    if (!newWord) {
+      code.local(LLOAD, WORD);
+      code.op(LOR);
+    } else if (word == lastStoredWord) {
+      // an earlier chunk stored the lower bits of this word
+      code.local(ALOAD, NEXT);
+      code.pushInt(word);
+      code.op(LALOAD);
+      code.op(LOR);
+    }
+    currentWord = word;
+    code.local(LSTORE, WORD);
+  }
+
+  private void storeWord() {
+    code.local(ALOAD, NEXT);
+    code.pushInt(currentWord);
+    code.local(LLOAD, WORD);
+    code.op(LASTORE);
+    lastStoredWord = currentWord;
+  }
+
+  private void addMethod(int access, String name, String descriptor, Code body, int maxLocals) {
+    DataOutputStream out = new DataOutputStream(methods);
+    try {
+      out.writeShort(access);
+      out.writeShort(pool.utf8(name));
+      out.writeShort(pool.utf8(descriptor));
+      out.writeShort(1); // attributes: just the code
+      out.writeShort(pool.utf8("Code"));
+      out.writeInt(12 + body.size());
+      out.writeShort(MAX_STACK);
+      out.writeShort(maxLocals);
+      out.writeInt(body.size());
+      body.writeTo(out);
+      out.writeShort(0); // exception table
+      out.writeShort(0); // attributes
+    } catch (IOException e) {
+      // a ByteArrayOutputStream never throws
+      throw new IllegalStateException(e);
+    }
+    numMethods++;
+  }
+
+  /** The bytecode of one method, with helpers for the few instructions that take operands. */
+  private final class Code extends ByteArrayOutputStream {
+
+    void op(int opcode) {
+      write(opcode);
+    }
+
+    void u2(int value) {
+      write(value >>> 8);
+      write(value);
+    }
+
+    void local(int opcode, int index) {
+      if (index > 255) {
+        write(WIDE);
+        write(opcode);
+        u2(index);
+      } else {
+        write(opcode);
+        write(index);
+      }
+    }
+
+    void pushInt(int value) {
+      if (value >= 0 && value <= 5) {
+        write(ICONST_0 + value);
+      } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+        write(BIPUSH);
+        write(value);
+      } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+        write(SIPUSH);
+        u2(value);
+      } else {
+        write(LDC_W);
+        u2(pool.integer(value));
+      }
+    }
+
+  }
+
+  /** The constant pool of the class, with each constant added once. */
+  private static final class ConstantPool {
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(entries);
+    private final Map<String, Integer> indices = new HashMap<>();
+    private int count = 0;
+
+    int utf8(String value) {
+      return add("U" + value, () -> {
+        out.writeByte(CONSTANT_UTF8);
+        out.writeUTF(value);
+      });
+    }
+
+    int integer(int value) {
+      return add("I" + value, () -> {
+        out.writeByte(CONSTANT_INTEGER);
+        out.writeInt(value);
+      });
+    }
+
+    int classRef(String name) {
+      int nameIndex = utf8(name);
+      return add("C" + name, () -> {
+        out.writeByte(CONSTANT_CLASS);
+        out.writeShort(nameIndex);
+      });
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+      int classIndex = classRef(owner);
+      int nameIndex = utf8(name);
+      int descriptorIndex = utf8(descriptor);
+      int nameAndType = add("N" + name + " " + descriptor, () -> {
+        out.writeByte(CONSTANT_NAME_AND_TYPE);
+        out.writeShort(nameIndex);
+        out.writeShort(descriptorIndex);
+      });
+      return add("M" + owner + "." + name + descriptor, () -> {
+        out.writeByte(CONSTANT_METHODREF);
+        out.writeShort(classIndex);
+        out.writeShort(nameAndType);
+      });
+    }
+
+    private int add(String key, Entry entry) {
+      Integer index = indices.get(key);
+      if (index != null) return index;
+      if (count == 65534) {
+        throw new IllegalArgumentException("Netlist is too large to compile: too many constants");
+      }
+      try {
+        entry.write();
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      indices.put(key, ++count);
+      return count;
+    }
+
+    void write(DataOutputStream classFile) throws IOException {
+      classFile.writeShort(count + 1);
+      entries.writeTo(classFile);
+    }
+
+    private interface Entry {
+      void write() throws IOException;
+    }
+
+  }
+
+}
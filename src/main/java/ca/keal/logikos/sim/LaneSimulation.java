@@ -0,0 +1,260 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.logic.Clock;
+
+import java.util.Arrays;
+
+/**
+ * {@value #LANES} independent runs of a {@link Netlist} at once, for running the same sequential design against many
+ * independent stimulus streams without ticking a copy of the field for each. Each net holds a {@code long} instead of
+ * a single bit, and bit {@code lane} of it is the net's value in run {@code lane}. Every lane has its own input values
+ * and its own state, and one tick advances all of the runs, with each gate a single bitwise operation.
+ *
+ * <p>Each lane behaves exactly like a {@link Simulation} which isn't event-driven, given the same inputs: every
+ * component is evaluated on every tick from the values of the previous tick. The clocks are a function of the time,
+ * so they tick in step in every lane. The user gates of netlists compiled with {@link Netlist.Flattening#NONE} have
+ * nested lane simulations of their own, and lookup tables are read one lane at a time.</p>
+ */
+public final class LaneSimulation {
+
+  /** The number of independent runs, one per bit of a {@code long}. */
+  public static final int LANES = 64;
+
+  private final Netlist netlist;
+
+  private long[] values;
+  private long[] nextValues;
+
+  /** The lanes of each of the netlist's input slots. */
+  private final long[] inputValues;
+
+  /** The number of ticks since the simulation was created or reset. The clocks are a function of it. */
+  private long time = 0;
+
+  private final LaneSimulation[] userGates;
+
+  public LaneSimulation(Netlist netlist) {
+    if (netlist == null) {
+      throw new NullPointerException("Cannot simulate a null netlist");
+    }
+    this.netlist = netlist;
+    values = new long[netlist.numNets];
+    nextValues = new long[netlist.numNets];
+    inputValues = new long[netlist.getNumInputs()];
+    userGates = new LaneSimulation[netlist.userGates.length];
+    for (int i = 0; i < userGates.length; i++) {
+      userGates[i] = new LaneSimulation(netlist.userGates[i]);
+    }
+  }
+
+  public Netlist getNetlist() {
+    return netlist;
+  }
+
+  /**
+   * Reset every net and input slot to false in every lane, as if the simulation had just been created.
+   */
+  public void reset() {
+    Arrays.fill(values, 0L);
+    Arrays.fill(nextValues, 0L);
+    Arrays.fill(inputValues, 0L);
+    time = 0;
+    for (LaneSimulation userGate : userGates) {
+      userGate.reset();
+    }
+  }
+
+  /**
+   * Set the value of the {@code slot}th input slot in every lane at once.
+   * @param lanes The value of the input in each run: bit {@code lane} for run {@code lane}.
+   */
+  public void setInput(int slot, long lanes) {
+    inputValues[slot] = lanes;
+  }
+
+  /**
+   * Set the value of the {@code slot}th input slot in run {@code lane} only.
+   */
+  public void setInput(int slot, int lane, boolean value) {
+    inputValues[slot] = value ? inputValues[slot] | (1L << lane) : inputValues[slot] & ~(1L << lane);
+  }
+
+  /**
+   * @return The value of the {@code slot}th input slot in each lane.
+   */
+  public long getInput(int slot) {
+    return inputValues[slot];
+  }
+
+  /**
+   * @return The current value of net {@code net} in each lane.
+   */
+  public long getNetValue(int net) {
+    return values[net];
+  }
+
+  /**
+   * @return The current value of the {@code index}th output of the compiled field in each lane.
+   */
+  public long getOutput(int index) {
+    return values[netlist.outputFCNets[index]];
+  }
+
+  /**
+   * @return The current value of the {@code index}th output of the compiled field in run {@code lane}.
+   */
+  public boolean getOutput(int index, int lane) {
+    return (getOutput(index) & (1L << lane)) != 0;
+  }
+
+  /**
+   * @return The number of ticks since the simulation was created or last reset.
+   */
+  public long getTime() {
+    return time;
+  }
+
+  /**
+   * Advance every run by one tick.
+   */
+  public void tick() {
+    time++;
+    final long[] values = this.values;
+    final long[] next = nextValues;
+    for (int c = 0; c < netlist.opcodes.length; c++) {
+      evaluate(c, values, next);
+    }
+    nextValues = values;
+    this.values = next;
+  }
+
+  /**
+   * Advance every run by {@code ticks} ticks.
+   * @throws IllegalArgumentException If {@code ticks} is negative.
+   */
+  public void run(long ticks) {
+    if (ticks < 0) {
+      throw new IllegalArgumentException("Cannot run for a negative number of ticks: " + ticks);
+    }
+    for (long i = 0; i < ticks; i++) {
+      tick();
+    }
+  }
+
+  // Evaluate component c in every lane from the values of the previous tick, writing its outputs into next
+  private void evaluate(int c, long[] values, long[] next) {
+    final int[] fanInStart = netlist.fanInStart;
+    final int[] fanIn = netlist.fanIn;
+
+    long word;
+    switch (netlist.opcodes[c]) {
+      case Netlist.OP_INPUT:
+        word = inputValues[netlist.aux[c]];
+        break;
+      case Netlist.OP_CONST_0:
+        word = 0L;
+        break;
+      case Netlist.OP_CONST_1:
+        word = -1L;
+        break;
+      case Netlist.OP_CLOCK:
+        Clock clock = netlist.clocks[netlist.aux[c]];
+        word = clock.getValueAt(time) ? -1L : 0L;
+        break;
+      case Netlist.OP_BUF:
+        word = values[fanIn[fanInStart[c]]];
+        break;
+      case Netlist.OP_NOT:
+        word = ~values[fanIn[fanInStart[c]]];
+        break;
+      case Netlist.OP_AND:
+        word = and(values, fanIn, fanInStart[c], fanInStart[c + 1]);
+        break;
+      case Netlist.OP_OR:
+        word = or(values, fanIn, fanInStart[c], fanInStart[c + 1]);
+        break;
+      case Netlist.OP_NAND:
+        word = ~and(values, fanIn, fanInStart[c], fanInStart[c + 1]);
+        break;
+      case Netlist.OP_NOR:
+        word = ~or(values, fanIn, fanInStart[c], fanInStart[c + 1]);
+        break;
+      case Netlist.OP_XOR:
+        word = xor(values, fanIn, fanInStart[c], fanInStart[c + 1]);
+        break;
+      case Netlist.OP_XNOR:
+        word = ~xor(values, fanIn, fanInStart[c], fanInStart[c + 1]);
+        break;
+      case Netlist.OP_USER:
+        tickUserGate(c, values, next);
+        return;
+      case Netlist.OP_LUT:
+        lookUp(c, values, next);
+        return;
+      default:
+        throw new IllegalStateException("Unknown opcode " + netlist.opcodes[c]);
+    }
+    next[netlist.outputNet[c]] = word;
+  }
+
+  private static long and(long[] values, int[] fanIn, int from, int to) {
+    long word = -1L;
+    for (int i = from; i < to; i++) {
+      word &= values[fanIn[i]];
+    }
+    return word;
+  }
+
+  private static long or(long[] values, int[] fanIn, int from, int to) {
+    long word = 0L;
+    for (int i = from; i < to; i++) {
+      word |= values[fanIn[i]];
+    }
+    return word;
+  }
+
+  private static long xor(long[] values, int[] fanIn, int from, int to) {
+    long word = 0L;
+    for (int i = from; i < to; i++) {
+      word ^= values[fanIn[i]];
+    }
+    return word;
+  }
+
+  // A lookup table is addressed by a different row in each lane, so it has to be read one lane at a time
+  private void lookUp(int c, long[] values, long[] next) {
+    TruthTable table = netlist.lookupTables[netlist.aux[c]];
+    int start = netlist.fanInStart[c];
+    int numInputs = netlist.fanInStart[c + 1] - start;
+    int firstNet = netlist.outputNet[c];
+    Arrays.fill(next, firstNet, firstNet + netlist.numOutputNets[c], 0L);
+
+    for (int lane = 0; lane < LANES; lane++) {
+      int row = 0;
+      for (int i = 0; i < numInputs; i++) {
+        row |= (int) ((values[netlist.fanIn[start + i]] >>> lane) & 1L) << i;
+      }
+      for (int i = 0; i < netlist.numOutputNets[c]; i++) {
+        next[firstNet + i] |= ((table.getColumn(i)[row >>> 6] >>> row) & 1L) << lane;
+      }
+    }
+  }
+
+  // Feed the inputs of every lane to the user gate's simulation, tick it once, and read its outputs
+  private void tickUserGate(int c, long[] values, long[] next) {
+    LaneSimulation inner = userGates[netlist.aux[c]];
+    int start = netlist.fanInStart[c];
+    int end = netlist.fanInStart[c + 1];
+    for (int i = start; i < end; i++) {
+      inner.setInput(i - start, values[netlist.fanIn[i]]);
+    }
+
+    inner.tick();
+
+    int firstNet = netlist.outputNet[c];
+    for (int i = 0; i < netlist.numOutputNets[c]; i++) {
+      next[firstNet + i] = inner.getOutput(i);
+    }
+  }
+
+}
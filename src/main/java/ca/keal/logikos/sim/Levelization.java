@@ -0,0 +1,142 @@
+package ca.keal.logikos.sim;
+
+import java.util.Arrays;
+
+/**
+ * The components of a {@link Netlist} sorted into levels for {@link Simulation#settle}: each group is either a single
+ * component outside of any feedback loop, or all of the components of one feedback loop (a strongly connected
+ * component of the netlist), and every group comes after the groups driving its inputs.
+ */
+final class Levelization {
+
+  /** The components in group order: group {@code g} is {@code order[groupStart[g]]} up to {@code groupStart[g + 1]}. */
+  final int[] order;
+  final int[] groupStart;
+
+  /** Whether each group is a feedback loop, which must be evaluated until it stops changing. */
+  final boolean[] cyclic;
+
+  private Levelization(int[] order, int[] groupStart, boolean[] cyclic) {
+    this.order = order;
+    this.groupStart = groupStart;
+    this.cyclic = cyclic;
+  }
+
+  /**
+   * Find the strongly connected components of {@code netlist} with Tarjan's algorithm, written iteratively so that
+   * long chains of components don't overflow the stack.
+   */
+  static Levelization of(Netlist netlist) {
+    int n = netlist.getNumComponents();
+    int[] index = new int[n];
+    int[] lowLink = new int[n];
+    boolean[] onStack = new boolean[n];
+    Arrays.fill(index, -1);
+
+    int[] stack = new int[n];
+    int stackSize = 0;
+
+    // The depth-first search: the component at each depth, and how far through its fan-out it has got
+    int[] callStack = new int[n];
+    int[] edgeNet = new int[n];
+    int[] edge = new int[n];
+
+    // Tarjan's algorithm finds the groups sinks first, so fill the order in from the end
+    int[] order = new int[n];
+    int orderStart = n;
+    int[] groupSizes = new int[n];
+    boolean[] groupCyclic = new boolean[n];
+    int numGroups = 0;
+
+    int nextIndex = 0;
+    for (int root = 0; root < n; root++) {
+      if (index[root] >= 0) continue;
+
+      int depth = 0;
+      callStack[0] = root;
+      edgeNet[0] = netlist.outputNet[root];
+      edge[0] = netlist.fanOutStart[edgeNet[0]];
+      index[root] = lowLink[root] = nextIndex++;
+      stack[stackSize++] = root;
+      onStack[root] = true;
+
+      while (depth >= 0) {
+        int c = callStack[depth];
+        int lastNet = netlist.outputNet[c] + netlist.numOutputNets[c];
+
+        // Find the next reader of one of c's nets that hasn't been visited yet
+        int next = -1;
+        while (edgeNet[depth] < lastNet) {
+          if (edge[depth] >= netlist.fanOutStart[edgeNet[depth] + 1]) {
+            edgeNet[depth]++;
+            if (edgeNet[depth] < lastNet) {
+              edge[depth] = netlist.fanOutStart[edgeNet[depth]];
+            }
+            continue;
+          }
+          int reader = netlist.fanOut[edge[depth]++];
+          if (index[reader] < 0) {
+            next = reader;
+            break;
+          } else if (onStack[reader]) {
+            lowLink[c] = Math.min(lowLink[c], index[reader]);
+          }
+        }
+
+        if (next >= 0) {
+          depth++;
+          callStack[depth] = next;
+          edgeNet[depth] = netlist.outputNet[next];
+          edge[depth] = netlist.fanOutStart[edgeNet[depth]];
+          index[next] = lowLink[next] = nextIndex++;
+          stack[stackSize++] = next;
+          onStack[next] = true;
+          continue;
+        }
+
+        // c is done: if it's the root of a group, pop the group off the stack
+        if (lowLink[c] == index[c]) {
+          int size = 0;
+          int member;
+          do {
+            member = stack[--stackSize];
+            onStack[member] = false;
+            order[--orderStart] = member;
+            size++;
+          } while (member != c);
+          groupSizes[numGroups] = size;
+          groupCyclic[numGroups] = size > 1 || readsItself(netlist, c);
+          numGroups++;
+        }
+        depth--;
+        if (depth >= 0) {
+          int parent = callStack[depth];
+          lowLink[parent] = Math.min(lowLink[parent], lowLink[c]);
+        }
+      }
+    }
+
+    // The groups were found in reverse, so number them from the end
+    int[] groupStart = new int[numGroups + 1];
+    boolean[] cyclic = new boolean[numGroups];
+    int start = 0;
+    for (int g = 0; g < numGroups; g++) {
+      int found = numGroups - 1 - g;
+      groupStart[g] = start;
+      cyclic[g] = groupCyclic[found];
+      start += groupSizes[found];
+    }
+    groupStart[numGroups] = n;
+
+    return new Levelization(order, groupStart, cyclic);
+  }
+
+  private static boolean readsItself(Netlist netlist, int c) {
+    for (int i = netlist.fanInStart[c]; i < netlist.fanInStart[c + 1]; i++) {
+      int net = netlist.fanIn[i];
+      if (net >= netlist.outputNet[c] && net < netlist.outputNet[c] + netlist.numOutputNets[c]) return true;
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,170 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.logic.UserGate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Finds the lookup tables which replace combinational {@link UserGate}s under {@link Netlist.Flattening#LOOKUP_TABLE}.
+ * A gate's table is its {@link TruthTable}, which is kept in a sidecar file next to the gate's {@code .lgk} file
+ * ({@code adder.lut} for {@code adder.lgk}), so that it is computed only the first time the gate is ever compiled.
+ *
+ * <p>The sidecar is keyed by a SHA-256 hash of the gate's logic: the field is compiled with every user gate inside it
+ * inlined, and the hash is taken over the resulting netlist. A sidecar with a different hash, which is left behind
+ * when the gate or any gate nested inside it is edited, is ignored and replaced. Since only the logic is hashed,
+ * moving components around or re-saving the file leaves the sidecar valid.</p>
+ */
+final class LookupTableCache {
+
+  /** The most inputs a user gate may have to be replaced by a lookup table; its table then holds 64K rows. */
+  static final int MAX_INPUTS = 16;
+
+  private static final int MAGIC = 0x4C4B4C54; // "LKLT"
+  private static final int VERSION = 1;
+  private static final String EXTENSION = ".lut";
+
+  private LookupTableCache() {}
+
+  /**
+   * Get the lookup table of the gate defined by {@code field}, reading it from the field's sidecar if there is a valid
+   * one, and computing it and writing the sidecar otherwise. Fields without a filename are computed every time.
+   * @return The truth table of {@code field}, or {@code null} if it can't be replaced by a lookup table: it has more
+   * than {@link #MAX_INPUTS} inputs, or it isn't combinational.
+   */
+  static TruthTable get(Field field) {
+    int numInputs = field.getInputFCs().size();
+    if (numInputs > MAX_INPUTS) return null;
+
+    Netlist netlist;
+    try {
+      netlist = Netlist.compile(field, Netlist.Flattening.ZERO_DELAY);
+    } catch (IllegalStateException e) {
+      // a field which can't be inlined can't be tabulated either; it will be reported when it's compiled for real
+      return null;
+    }
+    // Inputs outside of InputFCs aren't ports of the gate, so the gate's outputs don't depend on its inputs alone
+    if (netlist.getNumInputs() != numInputs || !netlist.isCombinational()) return null;
+
+    byte[] hash = hash(netlist);
+    Path sidecar = sidecarOf(field.getFilename());
+    if (sidecar != null) {
+      TruthTable cached = read(sidecar, hash);
+      if (cached != null) return cached;
+    }
+
+    TruthTable table = TruthTable.of(netlist);
+    if (sidecar != null) {
+      write(sidecar, hash, table);
+    }
+    return table;
+  }
+
+  /**
+   * @return The sidecar file which holds the lookup table of the field file {@code filename}, or {@code null} if there
+   * is no file.
+   */
+  static Path sidecarOf(String filename) {
+    if (filename == null) return null;
+    String name = filename.endsWith(".lgk") ? filename.substring(0, filename.length() - 4) : filename;
+    return Paths.get(name + EXTENSION);
+  }
+
+  // The hash of everything that determines the netlist's outputs
+  private static byte[] hash(Netlist netlist) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform has SHA-256
+      throw new RuntimeException(e);
+    }
+
+    int[][] arrays = {
+        {netlist.numNets, netlist.getNumInputs(), netlist.getNumOutputs()},
+        netlist.opcodes, netlist.aux, netlist.fanInStart, netlist.fanIn, netlist.outputNet, netlist.numOutputNets,
+        netlist.outputFCNets
+    };
+    for (int[] array : arrays) {
+      update(digest, array.length);
+      for (int value : array) {
+        update(digest, value);
+      }
+    }
+    return digest.digest();
+  }
+
+  private static void update(MessageDigest digest, int value) {
+    digest.update((byte) (value >>> 24));
+    digest.update((byte) (value >>> 16));
+    digest.update((byte) (value >>> 8));
+    digest.update((byte) value);
+  }
+
+  // Read the table from the sidecar, or return null if there is no sidecar or it's for different logic
+  private static TruthTable read(Path sidecar, byte[] hash) {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+      byte[] storedHash = new byte[hash.length];
+      in.readFully(storedHash);
+      if (!Arrays.equals(hash, storedHash)) return null;
+
+      int numInputs = in.readInt();
+      int numOutputs = in.readInt();
+      if (numInputs < 0 || numInputs > MAX_INPUTS || numOutputs < 0) return null;
+      int numWords = numInputs <= 6 ? 1 : 1 << (numInputs - 6);
+      long[][] columns = new long[numOutputs][numWords];
+      for (long[] column : columns) {
+        for (int word = 0; word < numWords; word++) {
+          column[word] = in.readLong();
+        }
+      }
+      return new TruthTable(numInputs, columns);
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      // a truncated or unreadable sidecar is as good as none; it will be rewritten
+      return null;
+    }
+  }
+
+  // Write the table to the sidecar; if that fails, the table is just computed again next time
+  private static void write(Path sidecar, byte[] hash, TruthTable table) {
+    Path temp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(hash);
+        out.writeInt(table.getNumInputs());
+        out.writeInt(table.getNumOutputs());
+        for (int output = 0; output < table.getNumOutputs(); output++) {
+          for (long word : table.getColumn(output)) {
+            out.writeLong(word);
+          }
+        }
+      }
+      // so that nobody ever reads a half-written sidecar
+      Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      try {
+        Files.deleteIfExists(temp);
+      } catch (IOException ignored) {
+        // nothing more to be done
+      }
+    }
+  }
+
+}
@@ -0,0 +1,369 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.InputFC;
+import ca.keal.logikos.field.OutputFC;
+import ca.keal.logikos.logic.Clock;
+import ca.keal.logikos.logic.Input;
+import ca.keal.logikos.logic.LogicComponent;
+import ca.keal.logikos.logic.Output;
+import ca.keal.logikos.logic.UserGate;
+
+import java.util.Arrays;
+
+/**
+ * A {@link Field} compiled down to a dense, integer-indexed netlist. Every {@link LogicComponent} in the field becomes
+ * an index into a set of parallel arrays holding its opcode and the IDs of the nets it reads, and every output port
+ * becomes a net whose value is a single bit in a {@link Simulation}'s state vector. {@link Output}s also drive a net,
+ * which holds the value they mirror. {@link UserGate}s are either nested netlists or inlined, depending on the
+ * {@link Flattening} used.
+ *
+ * <p>A {@code Netlist} is immutable and holds no simulation state, so one may be shared by any number of
+ * {@link Simulation}s. It is a snapshot of the field's topology at the time of {@link #compile(Field)}; later changes
+ * to the field are not reflected.</p>
+ */
+public final class Netlist {
+
+  static final int OP_INPUT = 0;
+  static final int OP_CONST_0 = 1;
+  static final int OP_CONST_1 = 2;
+  static final int OP_CLOCK = 3;
+  static final int OP_BUF = 4;
+  static final int OP_NOT = 5;
+  static final int OP_AND = 6;
+  static final int OP_OR = 7;
+  static final int OP_NAND = 8;
+  static final int OP_USER = 9;
+  static final int OP_NOR = 10;
+  static final int OP_XOR = 11;
+  static final int OP_XNOR = 12;
+  static final int OP_LUT = 13;
+
+  final LogicComponent[] components;
+  final int[] opcodes;
+
+  /** Component {@code c} reads the nets {@code fanIn[fanInStart[c]]} up to {@code fanIn[fanInStart[c + 1]]}. */
+  final int[] fanInStart;
+  final int[] fanIn;
+
+  /** Component {@code c} drives the nets starting at {@code outputNet[c]}, one per output. */
+  final int[] outputNet;
+  final int[] numOutputNets;
+
+  /** The input slot, clock number, user gate number or lookup table number of each component, by its opcode. */
+  final int[] aux;
+
+  final int numNets;
+
+  /** The component driving each net. */
+  final int[] netDriver;
+
+  /** Net {@code n} is read by the components {@code fanOut[fanOutStart[n]]} up to {@code fanOut[fanOutStart[n + 1]]}. */
+  final int[] fanOutStart;
+  final int[] fanOut;
+
+  /** The {@link Input} read by each input slot. The first slots belong to the {@link Field}'s {@link InputFC}s. */
+  final Input[] inputs;
+
+  /** The component reading each input slot. */
+  final int[] inputComponents;
+
+  /** The net mirrored by each of the {@link Field}'s {@link OutputFC}s. */
+  final int[] outputFCNets;
+
+  final Clock[] clocks;
+  final Netlist[] userGates;
+
+  /** The truth tables of the user gates replaced by lookup tables; see {@link Flattening#LOOKUP_TABLE}. */
+  final TruthTable[] lookupTables;
+
+  /**
+   * The components of the field itself, which are what {@link ca.keal.logikos.logic.EvaluationListener}s are told
+   * about. When user gates are inlined, many components belong to one of these.
+   */
+  final LogicComponent[] eventComponents;
+
+  /** The index into {@link #eventComponents} of the field component each component belongs to. */
+  final int[] eventOwner;
+
+  /** The nets read and driven by each of the {@link #eventComponents}, in the same layout as the fan-in arrays. */
+  final int[] eventInputStart;
+  final int[] eventInputs;
+  final int[] eventOutputStart;
+  final int[] eventOutputs;
+
+  // Computed the first time the netlist is settled; computing it twice in a race is harmless
+  private volatile Levelization levelization = null;
+
+  // Generated the first time a simulation of the netlist is compiled; generating it twice in a race is harmless
+  private volatile BytecodeCompiler.Evaluator evaluator = null;
+
+  Netlist(LogicComponent[] components, int[] opcodes, int[] fanInStart, int[] fanIn, int[] outputNet,
+          int[] numOutputNets, int[] aux, int numNets, Input[] inputs, int[] outputFCNets, Clock[] clocks,
+          Netlist[] userGates, TruthTable[] lookupTables, LogicComponent[] eventComponents, int[] eventOwner,
+          int[] eventInputStart, int[] eventInputs, int[] eventOutputStart, int[] eventOutputs) {
+    this.components = components;
+    this.opcodes = opcodes;
+    this.fanInStart = fanInStart;
+    this.fanIn = fanIn;
+    this.outputNet = outputNet;
+    this.numOutputNets = numOutputNets;
+    this.aux = aux;
+    this.numNets = numNets;
+    this.inputs = inputs;
+    this.outputFCNets = outputFCNets;
+    this.clocks = clocks;
+    this.userGates = userGates;
+    this.lookupTables = lookupTables;
+    this.eventComponents = eventComponents;
+    this.eventOwner = eventOwner;
+    this.eventInputStart = eventInputStart;
+    this.eventInputs = eventInputs;
+    this.eventOutputStart = eventOutputStart;
+    this.eventOutputs = eventOutputs;
+
+    inputComponents = new int[inputs.length];
+    for (int c = 0; c < components.length; c++) {
+      if (opcodes[c] == OP_INPUT) {
+        inputComponents[aux[c]] = c;
+      }
+    }
+
+    netDriver = new int[numNets];
+    for (int c = 0; c < components.length; c++) {
+      for (int i = 0; i < numOutputNets[c]; i++) {
+        netDriver[outputNet[c] + i] = c;
+      }
+    }
+
+    // Invert the fan-in arrays by counting the readers of each net, then filling them in
+    fanOutStart = new int[numNets + 1];
+    for (int net : fanIn) {
+      fanOutStart[net + 1]++;
+    }
+    for (int net = 0; net < numNets; net++) {
+      fanOutStart[net + 1] += fanOutStart[net];
+    }
+    fanOut = new int[fanIn.length];
+    int[] filled = new int[numNets];
+    for (int c = 0; c < components.length; c++) {
+      for (int i = fanInStart[c]; i < fanInStart[c + 1]; i++) {
+        int net = fanIn[i];
+        fanOut[fanOutStart[net] + filled[net]++] = c;
+      }
+    }
+  }
+
+  public int getNumComponents() {
+    return components.length;
+  }
+
+  public LogicComponent getComponent(int index) {
+    return components[index];
+  }
+
+  public int getNumNets() {
+    return numNets;
+  }
+
+  public int getNumInputs() {
+    return inputs.length;
+  }
+
+  public int getNumOutputs() {
+    return outputFCNets.length;
+  }
+
+  /**
+   * @return The ID of the net mirrored by the {@code index}th {@link OutputFC} of the compiled {@link Field}.
+   */
+  public int getOutputNet(int index) {
+    return outputFCNets[index];
+  }
+
+  /**
+   * @return Whether the netlist is flat: it has no nested user gates and no lookup tables, as when it's compiled with
+   * {@link Flattening#PER_LEVEL_TIMING} or {@link Flattening#ZERO_DELAY}. Only flat netlists can be
+   * {@link Simulation#setCompiled(boolean) compiled into bytecode}.
+   */
+  public boolean isFlat() {
+    return userGates.length == 0 && lookupTables.length == 0;
+  }
+
+  /**
+   * @return Whether the compiled field is purely combinational: it has no clocks and no feedback loops, and all of its
+   * user gates are combinational too. The outputs of a combinational field settle to a function of its inputs alone.
+   */
+  public boolean isCombinational() {
+    if (clocks.length > 0 || topologicalOrder() == null) return false;
+    for (Netlist userGate : userGates) {
+      if (!userGate.isCombinational()) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Order the components so that each comes after every component driving one of its inputs.
+   * @return The component indices in topological order, or {@code null} if the netlist contains a feedback loop.
+   */
+  int[] topologicalOrder() {
+    int n = components.length;
+    int[] unresolvedInputs = new int[n];
+    int[] order = new int[n];
+    int size = 0;
+    for (int c = 0; c < n; c++) {
+      unresolvedInputs[c] = fanInStart[c + 1] - fanInStart[c];
+      if (unresolvedInputs[c] == 0) {
+        order[size++] = c;
+      }
+    }
+
+    // order doubles as the work queue: everything before size is resolved, everything before head is processed
+    for (int head = 0; head < size; head++) {
+      int c = order[head];
+      for (int net = outputNet[c]; net < outputNet[c] + numOutputNets[c]; net++) {
+        for (int i = fanOutStart[net]; i < fanOutStart[net + 1]; i++) {
+          if (--unresolvedInputs[fanOut[i]] == 0) {
+            order[size++] = fanOut[i];
+          }
+        }
+      }
+    }
+
+    return size == n ? order : null;
+  }
+
+  /**
+   * @return The components sorted into levels and feedback loops, for {@link Simulation#settle}.
+   */
+  Levelization levelization() {
+    Levelization levelization = this.levelization;
+    if (levelization == null) {
+      levelization = Levelization.of(this);
+      this.levelization = levelization;
+    }
+    return levelization;
+  }
+
+  /**
+   * @return The netlist compiled into bytecode, for {@link Simulation#setCompiled(boolean)}.
+   * @throws IllegalArgumentException If the netlist isn't {@link #isFlat() flat}, or is too large to compile.
+   */
+  BytecodeCompiler.Evaluator evaluator() {
+    BytecodeCompiler.Evaluator evaluator = this.evaluator;
+    if (evaluator == null) {
+      evaluator = BytecodeCompiler.compile(this);
+      this.evaluator = evaluator;
+    }
+    return evaluator;
+  }
+
+  /**
+   * @return An estimate of the heap taken by the netlist's own arrays and lookup tables, not counting the components
+   * it refers to or the netlists of its user gates.
+   */
+  long estimateHeapBytes() {
+    int[][] intArrays = {
+        opcodes, fanInStart, fanIn, outputNet, numOutputNets, aux, netDriver, fanOutStart, fanOut, inputComponents,
+        outputFCNets, eventOwner, eventInputStart, eventInputs, eventOutputStart, eventOutputs
+    };
+    long bytes = 0;
+    for (int[] array : intArrays) {
+      bytes += 16 + 4L * array.length;
+    }
+    Object[][] referenceArrays = {components, inputs, clocks, userGates, lookupTables, eventComponents};
+    for (Object[] array : referenceArrays) {
+      bytes += 16 + 4L * array.length;
+    }
+    for (TruthTable table : lookupTables) {
+      for (int output = 0; output < table.getNumOutputs(); output++) {
+        bytes += 16 + 8L * table.getColumn(output).length;
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Split the components into contiguous chunks which can be evaluated in parallel. Each chunk has at least
+   * {@code minChunkSize} components, except perhaps the last, and no two chunks drive nets in the same word of a state
+   * vector, so that threads evaluating different chunks never write to the same {@code long}.
+   * @return The first component of each chunk, followed by the number of components.
+   */
+  int[] parallelChunks(int minChunkSize) {
+    int n = components.length;
+
+    // firstWord[c] is the lowest state word written by any component from c onwards
+    int[] firstWord = new int[n + 1];
+    firstWord[n] = Integer.MAX_VALUE;
+    for (int c = n - 1; c >= 0; c--) {
+      int word = numOutputNets[c] > 0 ? outputNet[c] >>> 6 : Integer.MAX_VALUE;
+      firstWord[c] = Math.min(word, firstWord[c + 1]);
+    }
+
+    int[] starts = new int[n / Math.max(minChunkSize, 1) + 2];
+    int numChunks = 0;
+    int lastWord = -1; // the highest state word written by any component before c
+    int chunkStart = 0;
+    for (int c = 0; c < n; c++) {
+      if (c - chunkStart >= minChunkSize && firstWord[c] > lastWord) {
+        starts[numChunks++] = chunkStart;
+        chunkStart = c;
+      }
+      if (numOutputNets[c] > 0) {
+        lastWord = Math.max(lastWord, (outputNet[c] + numOutputNets[c] - 1) >>> 6);
+      }
+    }
+    starts[numChunks++] = chunkStart;
+    starts[numChunks] = n;
+    return Arrays.copyOf(starts, numChunks + 1);
+  }
+
+  /**
+   * Compile {@code field} into a {@link Netlist}, keeping each {@link UserGate} as a nested netlist of its own.
+   * @throws IllegalStateException If an input port is unconnected or connected to a component outside the field.
+   */
+  public static Netlist compile(Field field) {
+    return compile(field, Flattening.NONE);
+  }
+
+  /**
+   * Compile {@code field} into a {@link Netlist}, treating {@link UserGate}s as {@code flattening} says.
+   * @throws IllegalStateException If an input port is unconnected or connected to a component outside the field, or
+   * if flattening leaves a loop of wires with nothing driving it.
+   */
+  public static Netlist compile(Field field, Flattening flattening) {
+    return new NetlistCompiler(flattening).compile(field);
+  }
+
+  /**
+   * How {@link Netlist#compile(Field, Flattening)} treats {@link UserGate}s.
+   */
+  public enum Flattening {
+    
+    /** Compile each user gate into a nested netlist, which is ticked once per tick of the netlist containing it. */
+    NONE,
+    
+    /**
+     * Inline the contents of every user gate, however deeply nested, into one flat netlist. Each user gate's inputs
+     * become buffers and its outputs become wires, which keeps exactly the timing of nested netlists.
+     */
+    PER_LEVEL_TIMING,
+    
+    /**
+     * Inline the contents of every user gate into one flat netlist as if they had been placed directly in the field:
+     * the inputs and outputs of user gates become plain wires and add no delay.
+     */
+    ZERO_DELAY,
+    
+    /**
+     * Replace every user gate which is combinational and has at most {@link LookupTableCache#MAX_INPUTS} inputs with
+     * a lookup table of its settled outputs, so that it costs one table lookup per tick however large it is inside.
+     * This changes the timing: a tabulated gate's outputs settle in a single tick, like a primitive gate's, rather
+     * than after one tick per level inside it. Every other user gate is inlined as with {@link #PER_LEVEL_TIMING}.
+     * The tables are kept in a file next to each gate's {@code .lgk} file, so each is computed only once.
+     */
+    LOOKUP_TABLE
+    
+  }
+
+}
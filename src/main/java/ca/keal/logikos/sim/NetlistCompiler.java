@@ -0,0 +1,428 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.FieldComponent;
+import ca.keal.logikos.field.InputFC;
+import ca.keal.logikos.field.OutputFC;
+import ca.keal.logikos.logic.AndGate;
+import ca.keal.logikos.logic.BufGate;
+import ca.keal.logikos.logic.Clock;
+import ca.keal.logikos.logic.Connection;
+import ca.keal.logikos.logic.Constant;
+import ca.keal.logikos.logic.Input;
+import ca.keal.logikos.logic.LogicComponent;
+import ca.keal.logikos.logic.NandGate;
+import ca.keal.logikos.logic.NorGate;
+import ca.keal.logikos.logic.NotGate;
+import ca.keal.logikos.logic.OrGate;
+import ca.keal.logikos.logic.Output;
+import ca.keal.logikos.logic.Port;
+import ca.keal.logikos.logic.UserGate;
+import ca.keal.logikos.logic.XnorGate;
+import ca.keal.logikos.logic.XorGate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles a {@link Field} into a {@link Netlist}. This is done in two passes, so that connections may point forwards
+ * as well as backwards: the first pass walks the field (and the fields of any inlined {@link UserGate}s) to number
+ * the components and their nets, and the second resolves each input port to the net it reads.
+ *
+ * <p>When inlining, a user gate's boundary components may become wires rather than components. Their nets are then
+ * recorded as aliases of the nets they're wired to, and are removed when the netlist is built.</p>
+ */
+final class NetlistCompiler {
+
+  private final Netlist.Flattening flattening;
+
+  private final List<Node> nodes = new ArrayList<>();
+  private final List<Integer> aliasOf = new ArrayList<>(); // per net; -1 if the net is driven by a component
+
+  private final List<Input> inputs = new ArrayList<>();
+  private final Map<LogicComponent, Integer> inputSlots = new IdentityHashMap<>();
+  private final List<Clock> clocks = new ArrayList<>();
+  private final List<Netlist> userGates = new ArrayList<>();
+  private final List<TruthTable> lookupTables = new ArrayList<>();
+
+  // The lookup table of each user gate field looked at so far under LOOKUP_TABLE, or null if it can't have one
+  private final Map<Field, TruthTable> lookupTablesByField = new IdentityHashMap<>();
+
+  // The nested netlist of each user gate field compiled so far, so that instances of the same gate share one
+  private final Map<Field, Netlist> userGateNetlists;
+
+  // The field's own components, with the (possibly aliased) nets they read and drive
+  private LogicComponent[] eventComponents;
+  private int[][] eventInputs;
+  private int[][] eventOutputs;
+
+  NetlistCompiler(Netlist.Flattening flattening) {
+    this(flattening, new IdentityHashMap<>());
+  }
+
+  private NetlistCompiler(Netlist.Flattening flattening, Map<Field, Netlist> userGateNetlists) {
+    this.flattening = flattening;
+    this.userGateNetlists = userGateNetlists;
+  }
+
+  Netlist compile(Field field) {
+    // The field's InputFCs take the first input slots, in order, so that user gates can address them by port number
+    for (InputFC inputFC : field.getInputFCs()) {
+      inputSlots.put(inputFC.getLogicComponent(), inputs.size());
+      inputs.add(inputFC.getLogicComponent());
+    }
+
+    int numComponents = field.getFieldComponents().size();
+    eventComponents = new LogicComponent[numComponents];
+    eventInputs = new int[numComponents][];
+    eventOutputs = new int[numComponents][];
+
+    Scope top = allocate(field, null, -1);
+    connect(top, null);
+    return build(top);
+  }
+
+  /**
+   * A component of the netlist being built.
+   */
+  private static final class Node {
+    final LogicComponent component;
+    final int owner;
+    int opcode;
+    int aux;
+    int outputNet;
+    int numOutputNets;
+    int[] fanIn = new int[0];
+    boolean isWire = false; // if so, this node is removed and its net aliases another
+
+    Node(LogicComponent component, int owner) {
+      this.component = component;
+      this.owner = owner;
+    }
+  }
+
+  /**
+   * One field being compiled: either the top-level field, or the field of an inlined user gate.
+   */
+  private static final class Scope {
+    final Field field;
+    final Scope parent;
+    // Indexed by each component's index in the field
+    final int[] nodes; // -1 for inlined user gates
+    final Scope[] userGates; // null for everything else
+    final int[] boundaryInputs; // the gate's input port which each of an inlined gate's inputs is, or -1
+    final boolean[] boundaryOutputs;
+    int[] outputNets;
+
+    Scope(Field field, Scope parent) {
+      this.field = field;
+      this.parent = parent;
+      int numComponents = field.getFieldComponents().size();
+      nodes = new int[numComponents];
+      userGates = new Scope[numComponents];
+      boundaryInputs = new int[numComponents];
+      boundaryOutputs = new boolean[numComponents];
+      Arrays.fill(nodes, -1);
+      Arrays.fill(boundaryInputs, -1);
+    }
+
+    boolean isTop() {
+      return parent == null;
+    }
+
+    // The index of lc in the field, or -1 if it isn't in the field
+    int indexOf(LogicComponent lc) {
+      List<FieldComponent> fcs = field.getFieldComponents();
+      int index = lc.getIndex();
+      if (index >= 0 && index < fcs.size() && fcs.get(index).getLogicComponent() == lc) return index;
+      // a component added to more than one field only knows its index in the last one
+      for (int i = 0; i < fcs.size(); i++) {
+        if (fcs.get(i).getLogicComponent() == lc) return i;
+      }
+      return -1;
+    }
+  }
+
+  // First pass: number the components and nets of the field and of every user gate to be inlined
+  private Scope allocate(Field field, Scope parent, int owner) {
+    Scope scope = new Scope(field, parent);
+    if (!scope.isTop()) {
+      List<InputFC> inputFCs = field.getInputFCs();
+      for (int i = 0; i < inputFCs.size(); i++) {
+        scope.boundaryInputs[scope.indexOf(inputFCs.get(i).getLogicComponent())] = i;
+      }
+      for (OutputFC outputFC : field.getOutputFCs()) {
+        scope.boundaryOutputs[scope.indexOf(outputFC.getLogicComponent())] = true;
+      }
+    }
+
+    List<FieldComponent> fcs = field.getFieldComponents();
+    for (int i = 0; i < fcs.size(); i++) {
+      LogicComponent lc = fcs.get(i).getLogicComponent();
+      int componentOwner = scope.isTop() ? i : owner;
+      if (lc instanceof UserGate && flattening != Netlist.Flattening.NONE && lookupTable((UserGate) lc) == null) {
+        scope.userGates[i] = allocate(((UserGate) lc).getField(), scope, componentOwner);
+      } else {
+        scope.nodes[i] = addNode(scope, i, lc, componentOwner);
+      }
+    }
+
+    List<OutputFC> outputFCs = field.getOutputFCs();
+    scope.outputNets = new int[outputFCs.size()];
+    for (int i = 0; i < outputFCs.size(); i++) {
+      scope.outputNets[i] = nodes.get(scope.nodes[scope.indexOf(outputFCs.get(i).getLogicComponent())]).outputNet;
+    }
+
+    return scope;
+  }
+
+  private int addNode(Scope scope, int index, LogicComponent lc, int owner) {
+    Node node = new Node(lc, owner);
+    node.opcode = opcodeOf(lc);
+    node.numOutputNets = lc instanceof Output ? 1 : lc.getNumOutputs();
+    node.outputNet = aliasOf.size();
+    for (int i = 0; i < node.numOutputNets; i++) {
+      aliasOf.add(-1);
+    }
+
+    switch (node.opcode) {
+      case Netlist.OP_INPUT:
+        if (scope.boundaryInputs[index] >= 0) {
+          // an inlined user gate's input: a buffer or a wire from the parent field, set up in the second pass
+          node.opcode = Netlist.OP_BUF;
+        } else {
+          Integer slot = inputSlots.get(lc);
+          if (slot == null) {
+            slot = inputs.size();
+            inputSlots.put(lc, slot);
+            inputs.add((Input) lc);
+          }
+          node.aux = slot;
+        }
+        break;
+      case Netlist.OP_CLOCK:
+        node.aux = clocks.size();
+        clocks.add((Clock) lc);
+        break;
+      case Netlist.OP_USER:
+        TruthTable lookupTable = lookupTable((UserGate) lc);
+        if (lookupTable != null) {
+          node.opcode = Netlist.OP_LUT;
+          node.aux = lookupTables.size();
+          lookupTables.add(lookupTable);
+          break;
+        }
+        Field userGateField = ((UserGate) lc).getField();
+        Netlist userGate = userGateNetlists.get(userGateField);
+        if (userGate == null) {
+          userGate = new NetlistCompiler(flattening, userGateNetlists).compile(userGateField);
+          userGateNetlists.put(userGateField, userGate);
+        }
+        node.aux = userGates.size();
+        userGates.add(userGate);
+        break;
+    }
+
+    nodes.add(node);
+    return nodes.size() - 1;
+  }
+
+  // The lookup table to replace userGate with, or null if it is to be nested or inlined instead
+  private TruthTable lookupTable(UserGate userGate) {
+    if (flattening != Netlist.Flattening.LOOKUP_TABLE) return null;
+    Field field = userGate.getField();
+    if (!lookupTablesByField.containsKey(field)) {
+      lookupTablesByField.put(field, LookupTableCache.get(field));
+    }
+    return lookupTablesByField.get(field);
+  }
+
+  // Second pass: resolve the nets read by each component, given the nets feeding the scope's inputs if it's inlined
+  private void connect(Scope scope, int[] boundaryNets) {
+    List<FieldComponent> fcs = scope.field.getFieldComponents();
+    for (int i = 0; i < fcs.size(); i++) {
+      LogicComponent lc = fcs.get(i).getLogicComponent();
+      int[] fanIn = resolveInputs(scope, lc);
+
+      Scope userGate = scope.userGates[i];
+      if (userGate != null) {
+        connect(userGate, fanIn);
+        if (scope.isTop()) {
+          recordEvent(i, lc, fanIn, userGate.outputNets.clone());
+        }
+        continue;
+      }
+
+      Node node = nodes.get(scope.nodes[i]);
+      int boundaryInput = scope.boundaryInputs[i];
+      if (boundaryInput >= 0) {
+        if (flattening == Netlist.Flattening.ZERO_DELAY) {
+          makeWire(node, boundaryNets[boundaryInput]);
+        } else {
+          node.fanIn = new int[] {boundaryNets[boundaryInput]};
+        }
+      } else if (scope.boundaryOutputs[i] && flattening == Netlist.Flattening.ZERO_DELAY) {
+        makeWire(node, fanIn[0]);
+      } else {
+        node.fanIn = fanIn;
+      }
+
+      if (scope.isTop()) {
+        int[] outputs = new int[node.numOutputNets];
+        for (int j = 0; j < outputs.length; j++) {
+          outputs[j] = node.outputNet + j;
+        }
+        recordEvent(i, lc, fanIn, outputs);
+      }
+    }
+  }
+
+  private int[] resolveInputs(Scope scope, LogicComponent lc) {
+    int[] fanIn = new int[lc.getNumInputs()];
+    for (int i = 0; i < fanIn.length; i++) {
+      Port.Input port = lc.getInput(i);
+      Connection connection = port.getConnection();
+      if (connection == null) {
+        throw new IllegalStateException("Cannot compile field: input port " + port + " is not connected");
+      }
+
+      Port.Output from = connection.getOutput();
+      int fromIndex = scope.indexOf(from.getComponent());
+      if (fromIndex >= 0 && scope.userGates[fromIndex] != null) {
+        fanIn[i] = scope.userGates[fromIndex].outputNets[from.getPortNumber()];
+      } else if (fromIndex >= 0) {
+        fanIn[i] = nodes.get(scope.nodes[fromIndex]).outputNet + from.getPortNumber();
+      } else {
+        throw new IllegalStateException("Cannot compile field: input port " + port
+            + " is connected to a component outside the field");
+      }
+    }
+    return fanIn;
+  }
+
+  private void makeWire(Node node, int net) {
+    node.isWire = true;
+    aliasOf.set(node.outputNet, net);
+  }
+
+  private void recordEvent(int index, LogicComponent lc, int[] inputs, int[] outputs) {
+    eventComponents[index] = lc;
+    eventInputs[index] = inputs;
+    eventOutputs[index] = outputs;
+  }
+
+  // Drop the wires, renumber the remaining nets contiguously, and lay everything out in arrays
+  private Netlist build(Scope top) {
+    int numAllocatedNets = aliasOf.size();
+
+    // Give each driven net its final number, in component order
+    int[] renumbered = new int[numAllocatedNets];
+    Arrays.fill(renumbered, -1);
+    int numNets = 0;
+    int numComponents = 0;
+    int numFanIn = 0;
+    for (Node node : nodes) {
+      if (node.isWire) continue;
+      for (int i = 0; i < node.numOutputNets; i++) {
+        renumbered[node.outputNet + i] = numNets++;
+      }
+      numComponents++;
+      numFanIn += node.fanIn.length;
+    }
+
+    // Then point every wire's net at the driven net at the end of its chain of wires
+    for (int net = 0; net < numAllocatedNets; net++) {
+      int target = net;
+      for (int steps = 0; aliasOf.get(target) >= 0; steps++) {
+        if (steps > numAllocatedNets) {
+          throw new IllegalStateException("Cannot compile field: user gate inputs and outputs form a loop of wires "
+              + "with nothing driving it");
+        }
+        target = aliasOf.get(target);
+      }
+      renumbered[net] = renumbered[target];
+    }
+
+    LogicComponent[] components = new LogicComponent[numComponents];
+    int[] opcodes = new int[numComponents];
+    int[] aux = new int[numComponents];
+    int[] outputNet = new int[numComponents];
+    int[] numOutputNets = new int[numComponents];
+    int[] eventOwner = new int[numComponents];
+    int[] fanInStart = new int[numComponents + 1];
+    int[] fanIn = new int[numFanIn];
+
+    int c = 0;
+    numFanIn = 0;
+    for (Node node : nodes) {
+      if (node.isWire) continue;
+      components[c] = node.component;
+      opcodes[c] = node.opcode;
+      aux[c] = node.aux;
+      outputNet[c] = node.numOutputNets > 0 ? renumbered[node.outputNet] : 0;
+      numOutputNets[c] = node.numOutputNets;
+      eventOwner[c] = node.owner;
+      fanInStart[c] = numFanIn;
+      for (int net : node.fanIn) {
+        fanIn[numFanIn++] = renumbered[net];
+      }
+      c++;
+    }
+    fanInStart[numComponents] = numFanIn;
+
+    List<OutputFC> outputFCs = top.field.getOutputFCs();
+    int[] outputFCNets = new int[outputFCs.size()];
+    for (int i = 0; i < outputFCNets.length; i++) {
+      outputFCNets[i] = renumbered[top.outputNets[i]];
+    }
+
+    int[] eventInputStart = new int[eventComponents.length + 1];
+    int[] eventOutputStart = new int[eventComponents.length + 1];
+    int[] flatEventInputs = flattenRenumbered(eventInputs, eventInputStart, renumbered);
+    int[] flatEventOutputs = flattenRenumbered(eventOutputs, eventOutputStart, renumbered);
+
+    return new Netlist(components, opcodes, fanInStart, fanIn, outputNet, numOutputNets, aux, numNets,
+        inputs.toArray(new Input[0]), outputFCNets, clocks.toArray(new Clock[0]), userGates.toArray(new Netlist[0]),
+        lookupTables.toArray(new TruthTable[0]), eventComponents, eventOwner, eventInputStart, flatEventInputs,
+        eventOutputStart, flatEventOutputs);
+  }
+
+  // Lay out jagged arrays of nets in the same way as the fan-in arrays, renumbering each net
+  private static int[] flattenRenumbered(int[][] nets, int[] start, int[] renumbered) {
+    int size = 0;
+    for (int i = 0; i < nets.length; i++) {
+      start[i] = size;
+      size += nets[i].length;
+    }
+    start[nets.length] = size;
+
+    int[] flat = new int[size];
+    for (int i = 0; i < nets.length; i++) {
+      for (int j = 0; j < nets[i].length; j++) {
+        flat[start[i] + j] = renumbered[nets[i][j]];
+      }
+    }
+    return flat;
+  }
+
+  private static int opcodeOf(LogicComponent lc) {
+    if (lc instanceof Input) return Netlist.OP_INPUT;
+    if (lc instanceof Constant) return ((Constant) lc).getValue() ? Netlist.OP_CONST_1 : Netlist.OP_CONST_0;
+    if (lc instanceof Clock) return Netlist.OP_CLOCK;
+    if (lc instanceof Output) return Netlist.OP_BUF;
+    if (lc instanceof NotGate) return Netlist.OP_NOT;
+    if (lc instanceof AndGate) return Netlist.OP_AND;
+    if (lc instanceof OrGate) return Netlist.OP_OR;
+    if (lc instanceof NandGate) return Netlist.OP_NAND;
+    if (lc instanceof NorGate) return Netlist.OP_NOR;
+    if (lc instanceof XorGate) return Netlist.OP_XOR;
+    if (lc instanceof XnorGate) return Netlist.OP_XNOR;
+    if (lc instanceof BufGate) return Netlist.OP_BUF;
+    if (lc instanceof UserGate) return Netlist.OP_USER;
+    throw new IllegalStateException("Cannot compile unknown logic component " + lc);
+  }
+
+}
@@ -0,0 +1,342 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.logic.Clock;
+import ca.keal.logikos.logic.LogicComponent;
+import ca.keal.logikos.util.DeserializationException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A flat {@link Netlist} kept outside of the Java heap, for designs with so many components that the heap can't hold
+ * their {@link LogicComponent}s, or that full garbage collections of them would stall the simulation. Its arrays are
+ * held in direct buffers or mapped straight from a file, and an {@link OffHeapSimulation} runs over them without
+ * creating any objects per component, so the heap it needs doesn't grow with the design.
+ *
+ * <p>A netlist is either copied {@link #of(Netlist) from a compiled netlist}, after which the field and the netlist
+ * can be dropped, or {@link #map(Path) mapped} from a file written by {@link #write(Path)}. Generators of very large
+ * designs can write such a file themselves without building a field at all. Component {@code c} drives net {@code c},
+ * and the file holds, in little-endian order:</p>
+ * <ul>
+ *   <li>the magic number {@code 0x4C4B4E4C}, the version 1, and the numbers of components, input slots, outputs,
+ *   clocks and fan-in entries, as {@code int}s;</li>
+ *   <li>for each component and then once more, the start of its fan-in, as an {@code int}: component {@code c} reads
+ *   the nets in fan-in entries {@code fanInStart[c]} up to {@code fanInStart[c + 1]};</li>
+ *   <li>the fan-in entries, as {@code int}s;</li>
+ *   <li>for each component, its input slot if it's an input or its clock number if it's a clock, as an
+ *   {@code int};</li>
+ *   <li>the net of each output, as an {@code int};</li>
+ *   <li>the period, high ticks and phase of each clock, as {@code int}s; see {@link Clock};</li>
+ *   <li>the opcode of each component, as a byte: 0 for an input, 1 and 2 for the constants 0 and 1, 3 for a clock,
+ *   4 for a buffer, 5 for NOT, 6 for AND, 7 for OR, 8 for NAND, 10 for NOR, 11 for XOR and 12 for XNOR. Inputs,
+ *   constants and clocks read no nets, buffers and NOT gates read one, and the other gates read up to 64.</li>
+ * </ul>
+ */
+public final class OffHeapNetlist {
+
+  private static final int MAGIC = 0x4C4B4E4C; // "LKNL"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 7 * Integer.BYTES;
+
+  private static final int MAX_FAN_IN = 64;
+
+  private final int numComponents;
+  private final int numInputs;
+  private final int numOutputs;
+  private final int numClocks;
+  private final int fanInLength;
+
+  // One buffer per section of the file, in the same order
+  private final ByteBuffer[] sections;
+  private final ByteBuffer fanInStart;
+  private final ByteBuffer fanIn;
+  private final ByteBuffer aux;
+  private final ByteBuffer outputNets;
+  private final ByteBuffer clocks;
+  private final ByteBuffer opcodes;
+
+  private OffHeapNetlist(int numComponents, int numInputs, int numOutputs, int numClocks, int fanInLength,
+                         ByteBuffer[] sections) {
+    this.numComponents = numComponents;
+    this.numInputs = numInputs;
+    this.numOutputs = numOutputs;
+    this.numClocks = numClocks;
+    this.fanInLength = fanInLength;
+    this.sections = sections;
+    fanInStart = sections[0];
+    fanIn = sections[1];
+    aux = sections[2];
+    outputNets = sections[3];
+    clocks = sections[4];
+    opcodes = sections[5];
+  }
+
+  /**
+   * Copy {@code netlist} into direct buffers.
+   * @throws IllegalArgumentException If {@code netlist} isn't {@link Netlist#isFlat() flat}, or is too large to copy.
+   */
+  public static OffHeapNetlist of(Netlist netlist) {
+    if (!netlist.isFlat()) {
+      throw new IllegalArgumentException("Only flat netlists can be kept off the heap");
+    }
+
+    int numComponents = netlist.getNumComponents();
+    long[] sizes = sectionSizes(numComponents, netlist.getNumOutputs(), netlist.clocks.length, netlist.fanIn.length);
+    ByteBuffer[] sections = new ByteBuffer[sizes.length];
+    for (int i = 0; i < sections.length; i++) {
+      if (sizes[i] > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Netlist is too large to copy off the heap");
+      }
+      sections[i] = ByteBuffer.allocateDirect((int) sizes[i]).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    OffHeapNetlist offHeap = new OffHeapNetlist(numComponents, netlist.getNumInputs(), netlist.getNumOutputs(),
+        netlist.clocks.length, netlist.fanIn.length, sections);
+
+    for (int c = 0; c < numComponents; c++) {
+      // nets are numbered in component order, and every component of a flat netlist drives exactly one
+      if (netlist.outputNet[c] != c) {
+        throw new IllegalArgumentException("Component " + c + " of the netlist doesn't drive net " + c);
+      }
+      offHeap.fanInStart.putInt(c * Integer.BYTES, netlist.fanInStart[c]);
+      offHeap.aux.putInt(c * Integer.BYTES, netlist.aux[c]);
+      offHeap.opcodes.put(c, (byte) netlist.opcodes[c]);
+    }
+    offHeap.fanInStart.putInt(numComponents * Integer.BYTES, netlist.fanInStart[numComponents]);
+    for (int i = 0; i < netlist.fanIn.length; i++) {
+      offHeap.fanIn.putInt(i * Integer.BYTES, netlist.fanIn[i]);
+    }
+    for (int i = 0; i < netlist.getNumOutputs(); i++) {
+      offHeap.outputNets.putInt(i * Integer.BYTES, netlist.getOutputNet(i));
+    }
+    for (int i = 0; i < netlist.clocks.length; i++) {
+      Clock clock = netlist.clocks[i];
+      offHeap.clocks.putInt(i * 3 * Integer.BYTES, clock.getPeriod());
+      offHeap.clocks.putInt((i * 3 + 1) * Integer.BYTES, clock.getHighTicks());
+      offHeap.clocks.putInt((i * 3 + 2) * Integer.BYTES, clock.getPhase());
+    }
+    return offHeap;
+  }
+
+  /**
+   * Map a netlist file written by {@link #write(Path)}. Its sections are mapped into memory rather than read, so they
+   * are only paged in as the simulation touches them.
+   * @throws DeserializationException If the file isn't a netlist file, or it describes an invalid netlist.
+   */
+  public static OffHeapNetlist map(Path path) throws IOException, DeserializationException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      while (header.hasRemaining()) {
+        if (channel.read(header) < 0) {
+          throw new DeserializationException("Not a netlist file: " + path);
+        }
+      }
+      if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+        throw new DeserializationException("Not a netlist file: " + path);
+      }
+      int numComponents = header.getInt(8);
+      int numInputs = header.getInt(12);
+      int numOutputs = header.getInt(16);
+      int numClocks = header.getInt(20);
+      int fanInLength = header.getInt(24);
+      if (numComponents < 0 || numInputs < 0 || numOutputs < 0 || numClocks < 0 || fanInLength < 0) {
+        throw new DeserializationException("Invalid netlist header in " + path);
+      }
+
+      long[] sizes = sectionSizes(numComponents, numOutputs, numClocks, fanInLength);
+      long position = HEADER_BYTES;
+      for (long size : sizes) {
+        position += size;
+      }
+      if (channel.size() != position) {
+        throw new DeserializationException("Netlist file " + path + " should be " + position + " bytes, but is "
+            + channel.size());
+      }
+
+      ByteBuffer[] sections = new ByteBuffer[sizes.length];
+      position = HEADER_BYTES;
+      for (int i = 0; i < sections.length; i++) {
+        if (sizes[i] > Integer.MAX_VALUE) {
+          throw new DeserializationException("Netlist in " + path + " is too large to map");
+        }
+        // the mappings stay valid after the channel is closed
+        sections[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, sizes[i]).order(ByteOrder.LITTLE_ENDIAN);
+        position += sizes[i];
+      }
+
+      OffHeapNetlist netlist = new OffHeapNetlist(numComponents, numInputs, numOutputs, numClocks, fanInLength,
+          sections);
+      netlist.validate();
+      return netlist;
+    }
+  }
+
+  /**
+   * Write the netlist to {@code path} in the format read by {@link #map(Path)}.
+   */
+  public void write(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).putInt(numComponents).putInt(numInputs).putInt(numOutputs)
+          .putInt(numClocks).putInt(fanInLength).flip();
+      writeFully(channel, header);
+      for (ByteBuffer section : sections) {
+        writeFully(channel, section.duplicate().clear());
+      }
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  // The size in bytes of each section, in the order of the file
+  private static long[] sectionSizes(int numComponents, int numOutputs, int numClocks, int fanInLength) {
+    return new long[] {
+        (numComponents + 1L) * Integer.BYTES,
+        (long) fanInLength * Integer.BYTES,
+        (long) numComponents * Integer.BYTES,
+        (long) numOutputs * Integer.BYTES,
+        numClocks * 3L * Integer.BYTES,
+        numComponents
+    };
+  }
+
+  // Check everything the simulation relies on, so that a bad file is rejected here rather than partway through a tick
+  private void validate() throws DeserializationException {
+    if (fanInStart(0) != 0 || fanInStart(numComponents) != fanInLength) {
+      throw new DeserializationException("The fan-in of the netlist doesn't start at 0 and end at " + fanInLength);
+    }
+
+    for (int c = 0; c < numComponents; c++) {
+      int from = fanInStart(c);
+      int to = fanInStart(c + 1);
+      if (to < from || to > fanInLength) {
+        throw new DeserializationException("Component " + c + " has invalid fan-in bounds " + from + " to " + to);
+      }
+
+      int opcode = opcode(c);
+      int minFanIn;
+      int maxFanIn;
+      switch (opcode) {
+        case Netlist.OP_INPUT:
+          checkAux(c, numInputs, "input slot");
+          minFanIn = maxFanIn = 0;
+          break;
+        case Netlist.OP_CLOCK:
+          checkAux(c, numClocks, "clock");
+          minFanIn = maxFanIn = 0;
+          break;
+        case Netlist.OP_CONST_0:
+        case Netlist.OP_CONST_1:
+          minFanIn = maxFanIn = 0;
+          break;
+        case Netlist.OP_BUF:
+        case Netlist.OP_NOT:
+          minFanIn = maxFanIn = 1;
+          break;
+        case Netlist.OP_AND:
+        case Netlist.OP_OR:
+        case Netlist.OP_NAND:
+        case Netlist.OP_NOR:
+        case Netlist.OP_XOR:
+        case Netlist.OP_XNOR:
+          minFanIn = 1;
+          maxFanIn = MAX_FAN_IN;
+          break;
+        default:
+          throw new DeserializationException("Component " + c + " has unknown opcode " + opcode);
+      }
+      if (to - from < minFanIn || to - from > maxFanIn) {
+        throw new DeserializationException("Component " + c + " reads " + (to - from) + " nets");
+      }
+
+      for (int i = from; i < to; i++) {
+        checkNet(fanIn(i), "Component " + c);
+      }
+    }
+
+    for (int i = 0; i < numOutputs; i++) {
+      checkNet(outputNet(i), "Output " + i);
+    }
+    for (int i = 0; i < numClocks; i++) {
+      try {
+        createClock(i);
+      } catch (IllegalArgumentException e) {
+        throw new DeserializationException("Invalid clock " + i + ": " + e.getMessage(), e);
+      }
+    }
+  }
+
+  private void checkAux(int c, int bound, String what) throws DeserializationException {
+    if (aux(c) < 0 || aux(c) >= bound) {
+      throw new DeserializationException("Component " + c + " has invalid " + what + " " + aux(c));
+    }
+  }
+
+  private void checkNet(int net, String reader) throws DeserializationException {
+    if (net < 0 || net >= numComponents) {
+      throw new DeserializationException(reader + " reads nonexistent net " + net);
+    }
+  }
+
+  /** The number of components, which is also the number of nets. */
+  public int getNumComponents() {
+    return numComponents;
+  }
+
+  public int getNumInputs() {
+    return numInputs;
+  }
+
+  public int getNumOutputs() {
+    return numOutputs;
+  }
+
+  /**
+   * @return The number of bytes taken up by the netlist outside of the heap.
+   */
+  public long getSizeInBytes() {
+    long size = 0;
+    for (ByteBuffer section : sections) {
+      size += section.capacity();
+    }
+    return size;
+  }
+
+  int opcode(int c) {
+    return opcodes.get(c);
+  }
+
+  int fanInStart(int c) {
+    return fanInStart.getInt(c * Integer.BYTES);
+  }
+
+  int fanIn(int i) {
+    return fanIn.getInt(i * Integer.BYTES);
+  }
+
+  int aux(int c) {
+    return aux.getInt(c * Integer.BYTES);
+  }
+
+  int outputNet(int index) {
+    return outputNets.getInt(index * Integer.BYTES);
+  }
+
+  int getNumClocks() {
+    return numClocks;
+  }
+
+  Clock createClock(int index) {
+    return new Clock(clocks.getInt(index * 3 * Integer.BYTES), clocks.getInt((index * 3 + 1) * Integer.BYTES),
+        clocks.getInt((index * 3 + 2) * Integer.BYTES));
+  }
+
+}
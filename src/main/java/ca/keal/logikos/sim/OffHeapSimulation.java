@@ -0,0 +1,183 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.logic.Clock;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The state of a running {@link OffHeapNetlist}, kept outside of the heap along with it. As in a {@link Simulation},
+ * the value of every net is a single bit in a packed state vector, new values are written to a second state vector,
+ * and the two are swapped at the end of each tick; here, both are direct buffers. Every component is evaluated on
+ * every tick, and apart from one {@link Clock} per clock, nothing is allocated on the heap per component, so the
+ * results are the same as those of a {@link Simulation} which isn't event-driven.
+ */
+public final class OffHeapSimulation {
+
+  private final OffHeapNetlist netlist;
+  private final Clock[] clocks;
+
+  private ByteBuffer values;
+  private ByteBuffer nextValues;
+
+  /** The value of each of the netlist's input slots. */
+  private final ByteBuffer inputValues;
+
+  /** The number of ticks since the simulation was created or reset. The clocks are a function of it. */
+  private long time = 0;
+
+  public OffHeapSimulation(OffHeapNetlist netlist) {
+    if (netlist == null) {
+      throw new NullPointerException("Cannot simulate a null netlist");
+    }
+    this.netlist = netlist;
+    clocks = new Clock[netlist.getNumClocks()];
+    for (int i = 0; i < clocks.length; i++) {
+      clocks[i] = netlist.createClock(i);
+    }
+    values = allocate(netlist.getNumComponents());
+    nextValues = allocate(netlist.getNumComponents());
+    inputValues = allocate(netlist.getNumInputs());
+  }
+
+  // A zeroed direct buffer of enough longs to hold numBits bits
+  private static ByteBuffer allocate(int numBits) {
+    return ByteBuffer.allocateDirect(Bits.words(numBits) * Long.BYTES).order(ByteOrder.nativeOrder());
+  }
+
+  public OffHeapNetlist getNetlist() {
+    return netlist;
+  }
+
+  /**
+   * Reset every net and input slot to false, as if the simulation had just been created.
+   */
+  public void reset() {
+    Bits.clear(values);
+    Bits.clear(nextValues);
+    Bits.clear(inputValues);
+    time = 0;
+  }
+
+  /**
+   * Set the value of the {@code slot}th input slot. This is read by the corresponding input on the next tick.
+   */
+  public void setInput(int slot, boolean value) {
+    Bits.set(inputValues, slot, value);
+  }
+
+  public boolean getInput(int slot) {
+    return Bits.get(inputValues, slot);
+  }
+
+  /**
+   * @return The current value of net {@code net}, which is driven by component {@code net}.
+   */
+  public boolean getNetValue(int net) {
+    return Bits.get(values, net);
+  }
+
+  /**
+   * @return The current value of the netlist's {@code index}th output.
+   */
+  public boolean getOutput(int index) {
+    return Bits.get(values, netlist.outputNet(index));
+  }
+
+  /**
+   * @return The number of ticks since the simulation was created or last reset.
+   */
+  public long getTime() {
+    return time;
+  }
+
+  /**
+   * Advance the simulation by one tick.
+   */
+  public void tick() {
+    time++;
+    final ByteBuffer values = this.values;
+    final ByteBuffer next = nextValues;
+
+    // component c drives net c, so each word of the next state is built up in a register and written once
+    int numComponents = netlist.getNumComponents();
+    for (int w = 0; w < Bits.words(numComponents); w++) {
+      long word = 0L;
+      int end = Math.min(numComponents, (w + 1) << 6);
+      for (int c = w << 6; c < end; c++) {
+        if (evaluate(c, values)) {
+          word |= 1L << c;
+        }
+      }
+      next.putLong(w << 3, word);
+    }
+
+    nextValues = values;
+    this.values = next;
+  }
+
+  /**
+   * Advance the simulation by {@code ticks} ticks.
+   * @throws IllegalArgumentException If {@code ticks} is negative.
+   */
+  public void run(long ticks) {
+    if (ticks < 0) {
+      throw new IllegalArgumentException("Cannot run for a negative number of ticks: " + ticks);
+    }
+    for (long i = 0; i < ticks; i++) {
+      tick();
+    }
+  }
+
+  // The value of component c given the values of the previous tick
+  private boolean evaluate(int c, ByteBuffer values) {
+    final OffHeapNetlist netlist = this.netlist;
+    int from = netlist.fanInStart(c);
+    int to = netlist.fanInStart(c + 1);
+
+    switch (netlist.opcode(c)) {
+      case Netlist.OP_INPUT:
+        return Bits.get(inputValues, netlist.aux(c));
+      case Netlist.OP_CONST_0:
+        return false;
+      case Netlist.OP_CONST_1:
+        return true;
+      case Netlist.OP_CLOCK:
+        return clocks[netlist.aux(c)].getValueAt(time);
+      case Netlist.OP_BUF:
+        return Bits.get(values, netlist.fanIn(from));
+      case Netlist.OP_NOT:
+        return !Bits.get(values, netlist.fanIn(from));
+      case Netlist.OP_AND:
+        return gather(values, from, to) == allOnes(to - from);
+      case Netlist.OP_OR:
+        return gather(values, from, to) != 0;
+      case Netlist.OP_NAND:
+        return gather(values, from, to) != allOnes(to - from);
+      case Netlist.OP_NOR:
+        return gather(values, from, to) == 0;
+      case Netlist.OP_XOR:
+        return (Long.bitCount(gather(values, from, to)) & 1) != 0;
+      case Netlist.OP_XNOR:
+        return (Long.bitCount(gather(values, from, to)) & 1) == 0;
+      default:
+        throw new IllegalStateException("Unknown opcode " + netlist.opcode(c));
+    }
+  }
+
+  // Pack the values of the nets in fan-in entries from up to to into one word
+  private long gather(ByteBuffer values, int from, int to) {
+    long word = 0L;
+    for (int i = from; i < to; i++) {
+      if (Bits.get(values, netlist.fanIn(i))) {
+        word |= 1L << (i - from);
+      }
+    }
+    return word;
+  }
+
+  private static long allOnes(int numInputs) {
+    return -1L >>> (64 - numInputs);
+  }
+
+}
@@ -0,0 +1,1023 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.logic.Clock;
+import ca.keal.logikos.logic.EvaluationListener;
+import ca.keal.logikos.logic.Input;
+import ca.keal.logikos.logic.LogicComponent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The mutable state of a running {@link Netlist}. The value of every net is kept as a single bit in a packed state
+ * vector, and {@link #tick(EvaluationListener)} evaluates the components in one tight loop over the netlist's arrays.
+ *
+ * <p>The semantics are exactly those of ticking each {@link LogicComponent} directly: every component reads the
+ * values its inputs had at the end of the previous tick, so a signal advances by one component per tick. To get that
+ * without three passes, new values are written to a second state vector which is swapped in at the end of the
+ * tick.</p>
+ *
+ * <p>By default every component is evaluated on every tick. In {@link #setEventDriven(boolean) event-driven} mode,
+ * only the components whose inputs changed on the previous tick are evaluated, along with any user gates which are
+ * still settling inside, and the clocks on the ticks they toggle. Since every other component would produce the same
+ * value it already has, the results are identical, but a mostly quiet field costs next to nothing to tick.</p>
+ *
+ * <p>The value of a {@link Clock} is a function of the time, so clocks keep no state of their own. In event-driven
+ * mode, the next edge of each clock is kept in a calendar queue: a ring of buckets, one per tick, as many as the
+ * longest clock period. Each tick only looks at its own bucket, which holds exactly the clocks toggling on it, so the
+ * cost of a tick doesn't depend on how many clocks there are, however many different periods and phases they have.
+ * </p>
+ *
+ * <p>Event-driven simulations can also {@link #run(long, EvaluationListener) run} for many ticks at once. Whenever
+ * nothing is waiting to be evaluated but the clocks, the simulation is quiescent until the next clock edge, so the
+ * time up to that edge is skipped over rather than ticked through.</p>
+ *
+ * <p>Otherwise, the simulation may be {@link #setParallel(ForkJoinPool) ticked in parallel}. Since every component
+ * only reads the previous tick's state vector, the components are split into chunks which are evaluated on a
+ * {@link ForkJoinPool} at the same time, and the state vectors are swapped once all of them are done. The results are
+ * bit-for-bit the same as ticking on one thread.</p>
+ *
+ * <p>A simulation of a flat netlist may also be {@link #setCompiled(boolean) compiled}: the netlist is turned into
+ * a class of its own at run time, in which each gate is a few straight-line instructions, and that class does the
+ * work of a tick which evaluates every component. The results are again bit-for-bit the same.</p>
+ *
+ * <p>The whole state of a simulation, including that of its user gates, can be captured in a
+ * {@link #snapshot() snapshot} and {@link #restore(Snapshot) restored} later, to rewind it or to run different
+ * stimulus from the same starting point.</p>
+ *
+ * <p>Instead of ticking, the simulation may be {@link #settle(EvaluationListener) settled}, which evaluates the
+ * components as if they had no delay at all: every change is propagated through the netlist, level by level, until
+ * nothing changes any more. Feedback loops are evaluated over and over until they stop changing, and if they never
+ * do, they are reported as oscillating.</p>
+ */
+public final class Simulation {
+
+  private final Netlist netlist;
+
+  private long[] values;
+  private long[] nextValues;
+
+  /** The value of each of the netlist's input slots. */
+  private final long[] inputValues;
+
+  /** The number of ticks since the simulation was created or reset. The clocks are a function of it. */
+  private long time = 0;
+
+  /** The component of each clock. */
+  private final int[] clockComponents;
+
+  private final Simulation[] userGates;
+
+  private boolean eventDriven = false;
+
+  /** Netlists with fewer components than this are always ticked on one thread. */
+  static final int MIN_PARALLEL_CHUNK = 4096;
+
+  // The pool to evaluate chunks of components on, or null to tick on the calling thread
+  private ForkJoinPool pool = null;
+  private int[] chunks;
+
+  // The netlist compiled into bytecode, or null to interpret it
+  private BytecodeCompiler.Evaluator evaluator = null;
+
+  // The components to evaluate on the next tick in event-driven mode; queued[c] is whether c is already in the list
+  private int[] pending;
+  private int numPending;
+  private boolean[] queued;
+
+  // The components being evaluated on the current tick in event-driven mode
+  private int[] active;
+
+  // The calendar queue of clock edges in event-driven mode. Clock i's next edge is on tick edgeTime[i], or -1 if it
+  // isn't queued; queued clocks are kept in the list of bucket (edgeTime[i] & (bucketHead.length - 1)), linked by
+  // nextInBucket.
+  private int[] bucketHead;
+  private int[] nextInBucket;
+  private long[] edgeTime;
+
+  /** The most buckets in the calendar queue; clocks with longer periods share buckets with later edges. */
+  static final int MAX_CALENDAR_BUCKETS = 1 << 16;
+
+  // Which of the netlist's event components have been reported to the listener this tick, in event-driven mode
+  private boolean[] reported;
+
+  // The components whose inputs have changed since the last call to settle(). Only valid if dirtyValid; ticking
+  // changes the nets without keeping track.
+  private boolean[] dirty;
+  private boolean dirtyValid = false;
+  private boolean settling = false;
+  private final List<LogicComponent> oscillating = new ArrayList<>();
+
+  // Where the work done is counted, or null if it isn't. Only the top-level simulation counts the ticks themselves.
+  private SimulationMetrics metrics = null;
+  private boolean countTicks = false;
+  // The number of components with each opcode, for counting a tick in which every component is evaluated
+  private long[] opcodeCounts;
+  // The number of components with each opcode evaluated so far in an event-driven tick, added to the metrics at its end
+  private long[] activeOpcodeCounts;
+
+  public Simulation(Netlist netlist) {
+    this.netlist = netlist;
+    values = new long[Bits.words(netlist.numNets)];
+    nextValues = new long[values.length];
+    inputValues = new long[Bits.words(netlist.inputs.length)];
+    clockComponents = new int[netlist.clocks.length];
+    for (int c = 0; c < netlist.getNumComponents(); c++) {
+      if (netlist.opcodes[c] == Netlist.OP_CLOCK) {
+        clockComponents[netlist.aux[c]] = c;
+      }
+    }
+    userGates = new Simulation[netlist.userGates.length];
+    for (int i = 0; i < userGates.length; i++) {
+      userGates[i] = new Simulation(netlist.userGates[i]);
+    }
+  }
+
+  public Netlist getNetlist() {
+    return netlist;
+  }
+
+  public boolean isEventDriven() {
+    return eventDriven;
+  }
+
+  /**
+   * Choose whether to evaluate only the components whose inputs have changed (event-driven), or every component on
+   * every tick. This applies to the simulations of user gates, too.
+   */
+  public void setEventDriven(boolean eventDriven) {
+    if (eventDriven && !this.eventDriven) {
+      int n = netlist.getNumComponents();
+      pending = new int[n];
+      active = new int[n];
+      queued = new boolean[n];
+      reported = new boolean[netlist.eventComponents.length];
+      createCalendar();
+      scheduleAll();
+    } else if (!eventDriven) {
+      pending = active = null;
+      queued = reported = null;
+      bucketHead = nextInBucket = null;
+      edgeTime = null;
+    }
+    this.eventDriven = eventDriven;
+    for (Simulation userGate : userGates) {
+      userGate.setEventDriven(eventDriven);
+    }
+  }
+
+  public boolean isCompiled() {
+    return evaluator != null;
+  }
+
+  /**
+   * Choose whether to tick by running bytecode generated from the netlist, or by interpreting the netlist's arrays.
+   * The bytecode is generated the first time any simulation of the netlist is compiled, and takes the place of
+   * evaluating every component when the simulation is not event-driven; event-driven ticks, which only evaluate a
+   * few components, still interpret them. Only {@link Netlist#isFlat() flat} netlists can be compiled.
+   * @throws IllegalArgumentException If {@code compiled} is true and the netlist isn't flat, or is too large to
+   * compile.
+   */
+  public void setCompiled(boolean compiled) {
+    evaluator = compiled ? netlist.evaluator() : null;
+  }
+
+  public SimulationMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Count the ticks simulated, the components evaluated and the nets toggled from now on in {@code metrics}, or pass
+   * {@code null} to stop counting. The work done by the simulations of user gates is counted too.
+   */
+  public void setMetrics(SimulationMetrics metrics) {
+    setMetrics(metrics, true);
+    if (metrics != null) {
+      metrics.attach(this);
+    }
+  }
+
+  private void setMetrics(SimulationMetrics metrics, boolean countTicks) {
+    this.metrics = metrics;
+    this.countTicks = countTicks;
+    opcodeCounts = null;
+    activeOpcodeCounts = null;
+    if (metrics != null) {
+      activeOpcodeCounts = new long[SimulationMetrics.NUM_OPCODES];
+      opcodeCounts = new long[SimulationMetrics.NUM_OPCODES];
+      for (int opcode : netlist.opcodes) {
+        opcodeCounts[opcode]++;
+      }
+    }
+    for (Simulation userGate : userGates) {
+      userGate.setMetrics(metrics, false);
+    }
+  }
+
+  // An estimate of the heap taken by this simulation, its user gates and their netlists, counting each netlist once
+  long estimateHeapBytes(Map<Netlist, Boolean> counted) {
+    long bytes = 16 + 8 * (2L * values.length + inputValues.length) + 4L * clockComponents.length
+        + 4L * userGates.length;
+    if (eventDriven) {
+      bytes += 9L * netlist.getNumComponents() + 12L * clockComponents.length + 4L * bucketHead.length;
+    }
+    if (counted.put(netlist, Boolean.TRUE) == null) {
+      bytes += netlist.estimateHeapBytes();
+    }
+    for (Simulation userGate : userGates) {
+      bytes += userGate.estimateHeapBytes(counted);
+    }
+    return bytes;
+  }
+
+  public ForkJoinPool getParallel() {
+    return pool;
+  }
+
+  /**
+   * Evaluate the components on {@code pool} rather than on the calling thread, or pass {@code null} to go back to
+   * ticking on the calling thread. This only applies when the simulation is not event-driven, and only to netlists
+   * large enough to be worth splitting up; the simulations of user gates are still ticked by whichever thread
+   * evaluates them.
+   */
+  public void setParallel(ForkJoinPool pool) {
+    setParallel(pool, MIN_PARALLEL_CHUNK);
+  }
+
+  void setParallel(ForkJoinPool pool, int minChunkSize) {
+    this.pool = pool;
+    chunks = pool == null ? null : netlist.parallelChunks(minChunkSize);
+  }
+
+  /**
+   * Reset every net, input slot and clock to false, as if the simulation had just been created.
+   */
+  public void reset() {
+    Arrays.fill(values, 0L);
+    Arrays.fill(nextValues, 0L);
+    Arrays.fill(inputValues, 0L);
+    time = 0;
+    for (Simulation userGate : userGates) {
+      userGate.reset();
+    }
+    dirtyValid = false;
+    oscillating.clear();
+    if (eventDriven) {
+      scheduleAll();
+    }
+  }
+
+  /**
+   * Capture the state of the simulation: the time, the value of every net and input slot, and the state of every
+   * nested user gate. It is copied into one packed array in a single pass.
+   */
+  public Snapshot snapshot() {
+    long[] words = new long[stateSize()];
+    writeState(words, 0);
+    return new Snapshot(netlist, words);
+  }
+
+  /**
+   * Put the simulation back into the state captured by {@code snapshot}, in time proportional to the size of the
+   * state. Nothing else about the simulation, such as whether it's event-driven, is changed.
+   * @throws IllegalArgumentException If the snapshot was taken of a simulation of a different netlist.
+   */
+  public void restore(Snapshot snapshot) {
+    if (snapshot.netlist != netlist) {
+      throw new IllegalArgumentException("Cannot restore a snapshot of a different netlist");
+    }
+    readState(snapshot.words, 0);
+  }
+
+  // The number of words taken by the state of this simulation and its user gates
+  private int stateSize() {
+    int size = 1 + values.length + inputValues.length;
+    for (Simulation userGate : userGates) {
+      size += userGate.stateSize();
+    }
+    return size;
+  }
+
+  // Write the state into words starting at from, returning where it ends
+  private int writeState(long[] words, int from) {
+    words[from++] = time;
+    System.arraycopy(values, 0, words, from, values.length);
+    from += values.length;
+    System.arraycopy(inputValues, 0, words, from, inputValues.length);
+    from += inputValues.length;
+    for (Simulation userGate : userGates) {
+      from = userGate.writeState(words, from);
+    }
+    return from;
+  }
+
+  private int readState(long[] words, int from) {
+    time = words[from++];
+    System.arraycopy(words, from, values, 0, values.length);
+    from += values.length;
+    System.arraycopy(words, from, inputValues, 0, inputValues.length);
+    from += inputValues.length;
+    for (Simulation userGate : userGates) {
+      from = userGate.readState(words, from);
+    }
+
+    // What was pending or dirty belongs to the state that was replaced, so start over with everything
+    dirtyValid = false;
+    oscillating.clear();
+    if (eventDriven) {
+      scheduleAll();
+    }
+    return from;
+  }
+
+  /**
+   * Set the value of the {@code slot}th input slot. This is read by the corresponding {@link Input} on the next tick.
+   */
+  public void setInput(int slot, boolean value) {
+    if (Bits.get(inputValues, slot) == value) return;
+    Bits.set(inputValues, slot, value);
+    if (eventDriven) {
+      schedule(netlist.inputComponents[slot]);
+    }
+    if (dirty != null) {
+      dirty[netlist.inputComponents[slot]] = true;
+    }
+  }
+
+  public boolean getInput(int slot) {
+    return Bits.get(inputValues, slot);
+  }
+
+  /**
+   * Copy the current value of each of the netlist's {@link Input}s into its input slot.
+   */
+  public void pullInputs() {
+    Input[] inputs = netlist.inputs;
+    for (int slot = 0; slot < inputs.length; slot++) {
+      setInput(slot, inputs[slot].getValue());
+    }
+  }
+
+  public boolean getNetValue(int net) {
+    return Bits.get(values, net);
+  }
+
+  /**
+   * @return The current value of the {@code index}th output of the compiled field.
+   */
+  public boolean getOutput(int index) {
+    return Bits.get(values, netlist.outputFCNets[index]);
+  }
+
+  /**
+   * @return Whether there are components waiting to be evaluated in event-driven mode, now or on a clock edge. If not,
+   * the simulation is settled, and ticking it will change nothing until an input is changed.
+   */
+  public boolean hasPendingActivity() {
+    return !eventDriven || numPending > 0 || netlist.clocks.length > 0;
+  }
+
+  /**
+   * @return The number of ticks since the simulation was created or last reset.
+   */
+  public long getTime() {
+    return time;
+  }
+
+  /**
+   * Advance the simulation by one tick.
+   * @param listener An {@link EvaluationListener} to be told of each component's evaluation. May be {@code null}.
+   */
+  public void tick(EvaluationListener listener) {
+    dirtyValid = false;
+    time++;
+    if (eventDriven) {
+      tickEventDriven(listener);
+      return;
+    }
+
+    final long[] values = this.values;
+    final long[] next = nextValues;
+    if (evaluator != null) {
+      evaluator.evaluate(values, next, inputValues, netlist.clocks, time);
+    } else if (pool != null && chunks.length > 2) {
+      pool.invoke(new EvaluateChunks(0, chunks.length - 1, values, next));
+    } else {
+      evaluate(0, netlist.opcodes.length, values, next);
+    }
+
+    if (listener != null) {
+      for (int e = 0; e < netlist.eventComponents.length; e++) {
+        fireEvent(listener, e, values, next);
+      }
+    }
+    if (metrics != null) {
+      countFullTick(values, next);
+    }
+
+    nextValues = values;
+    this.values = next;
+  }
+
+  // Count a tick in which every component was evaluated
+  private void countFullTick(long[] values, long[] next) {
+    long toggles = 0;
+    for (int w = 0; w < values.length; w++) {
+      toggles += Long.bitCount(values[w] ^ next[w]);
+    }
+    metrics.countTick(countTicks, netlist.getNumComponents(), opcodeCounts, toggles);
+  }
+
+  /**
+   * Advance the simulation by {@code ticks} ticks, with the same result as calling {@link #tick(EvaluationListener)}
+   * that many times. In event-driven mode, stretches of ticks in which nothing happens but the clocks counting towards
+   * their next edge are skipped in one step, so a settled sequential design costs about the same to run for a whole
+   * clock period as for one tick. The listener is not told of the skipped ticks, since nothing changes in them.
+   *
+   * <p>Clocks inside nested user gates (see {@link Netlist.Flattening#NONE}) keep their user gates busy, so designs
+   * compiled that way are only skipped ahead when the user gates have no clocks.</p>
+   * @param listener An {@link EvaluationListener} to be told of each component's evaluation. May be {@code null}.
+   * @throws IllegalArgumentException If {@code ticks} is negative.
+   */
+  public void run(long ticks, EvaluationListener listener) {
+    if (ticks < 0) {
+      throw new IllegalArgumentException("Cannot run for a negative number of ticks: " + ticks);
+    }
+
+    while (ticks > 0) {
+      long quiet = quietTicks();
+      if (quiet > 0) {
+        long skipped = Math.min(quiet, ticks);
+        time += skipped;
+        if (metrics != null && countTicks) {
+          metrics.countSkippedTicks(skipped);
+        }
+        dirtyValid = false;
+        ticks -= skipped;
+      } else {
+        tick(listener);
+        ticks--;
+      }
+    }
+  }
+
+  /**
+   * Run a block of input vectors back to back. For each vector in turn, the input slots are set from the vector, the
+   * simulation is {@link #run(long, EvaluationListener) run} for {@code ticksPerVector} ticks, and the outputs are
+   * written to {@code results}. This is the same as calling {@link #setInput(int, boolean)}, {@link #run} and
+   * {@link #getOutput(int)} for every bit, without the overhead of the calls.
+   *
+   * <p>Vectors are packed 64 bits to a {@code long}. Each input vector is {@code (numInputs + 63) / 64} words of
+   * {@code stimulus}, with input slot {@code i} in bit {@code i % 64} of word {@code i / 64}, where {@code numInputs}
+   * is the netlist's {@link Netlist#getNumInputs() number of inputs}. Each result is {@code (numOutputs + 63) / 64}
+   * words of {@code results}, laid out in the same way.</p>
+   * @param stimulus The input vectors, starting at {@code stimulusOffset}.
+   * @param numVectors The number of vectors to run.
+   * @param ticksPerVector The number of ticks to run each vector for; at least 1.
+   * @param results Filled with the outputs after the last tick of each vector, starting at {@code resultsOffset}.
+   * @throws IllegalArgumentException If {@code ticksPerVector} is less than 1, or either array is too short.
+   */
+  public void runVectors(long[] stimulus, int stimulusOffset, int numVectors, int ticksPerVector, long[] results,
+                         int resultsOffset) {
+    int inputWords = Bits.words(netlist.getNumInputs());
+    int outputWords = Bits.words(netlist.getNumOutputs());
+    if (ticksPerVector < 1) {
+      throw new IllegalArgumentException("There must be at least one tick per vector, not " + ticksPerVector);
+    }
+    if (numVectors < 0 || stimulusOffset < 0 || resultsOffset < 0
+        || stimulus.length - stimulusOffset < (long) numVectors * inputWords
+        || results.length - resultsOffset < (long) numVectors * outputWords) {
+      throw new IllegalArgumentException("Stimulus and results too short for " + numVectors + " vectors of "
+          + inputWords + " and " + outputWords + " words");
+    }
+
+    for (int vector = 0; vector < numVectors; vector++) {
+      setInputs(stimulus, stimulusOffset + vector * inputWords);
+      run(ticksPerVector, null);
+      getOutputs(results, resultsOffset + vector * outputWords);
+    }
+  }
+
+  // Set every input slot from the packed words starting at stimulus[from], waking up only the inputs that changed
+  private void setInputs(long[] stimulus, int from) {
+    int numInputs = netlist.getNumInputs();
+    for (int w = 0; w < inputValues.length; w++) {
+      long word = stimulus[from + w];
+      if (w == inputValues.length - 1 && (numInputs & 63) != 0) {
+        word &= (1L << numInputs) - 1;
+      }
+
+      long changed = inputValues[w] ^ word;
+      inputValues[w] = word;
+      while (changed != 0) {
+        int component = netlist.inputComponents[(w << 6) + Long.numberOfTrailingZeros(changed)];
+        changed &= changed - 1;
+        if (eventDriven) {
+          schedule(component);
+        }
+        if (dirty != null) {
+          dirty[component] = true;
+        }
+      }
+    }
+  }
+
+  // Pack the outputs into the words starting at results[from]
+  private void getOutputs(long[] results, int from) {
+    int[] outputFCNets = netlist.outputFCNets;
+    for (int w = 0; w < Bits.words(outputFCNets.length); w++) {
+      long word = 0L;
+      int end = Math.min(outputFCNets.length, (w + 1) << 6);
+      for (int i = w << 6; i < end; i++) {
+        int net = outputFCNets[i];
+        word |= ((values[net >>> 6] >>> net) & 1L) << i;
+      }
+      results[from + w] = word;
+    }
+  }
+
+  // The number of ticks, starting with the next one, in which nothing would be evaluated because nothing is waiting
+  // but the clocks, and none of them toggle
+  long quietTicks() {
+    if (!eventDriven || numPending > 0) return 0;
+    long nextEdge = nextEdgeTime();
+    return nextEdge == Long.MAX_VALUE ? Long.MAX_VALUE : nextEdge - time - 1;
+  }
+
+  private void createCalendar() {
+    int maxPeriod = 1;
+    for (Clock clock : netlist.clocks) {
+      maxPeriod = Math.max(maxPeriod, Math.min(clock.getPeriod(), MAX_CALENDAR_BUCKETS));
+    }
+    // enough buckets that every edge is due within one turn of the calendar, if possible
+    int numBuckets = Integer.highestOneBit(maxPeriod * 2 - 1);
+    bucketHead = new int[numBuckets];
+    nextInBucket = new int[netlist.clocks.length];
+    edgeTime = new long[netlist.clocks.length];
+    clearCalendar();
+  }
+
+  private void clearCalendar() {
+    Arrays.fill(bucketHead, -1);
+    Arrays.fill(edgeTime, -1L);
+  }
+
+  private void queueEdge(int clock, long tick) {
+    int bucket = (int) tick & (bucketHead.length - 1);
+    edgeTime[clock] = tick;
+    nextInBucket[clock] = bucketHead[bucket];
+    bucketHead[bucket] = clock;
+  }
+
+  // Move the clocks toggling on this tick from the calendar to the work list
+  private void releaseEdges() {
+    int bucket = (int) time & (bucketHead.length - 1);
+    int previous = -1;
+    int clock = bucketHead[bucket];
+    while (clock >= 0) {
+      int next = nextInBucket[clock];
+      if (edgeTime[clock] == time) {
+        if (previous < 0) {
+          bucketHead[bucket] = next;
+        } else {
+          nextInBucket[previous] = next;
+        }
+        edgeTime[clock] = -1L;
+        schedule(clockComponents[clock]);
+      } else {
+        previous = clock; // a later edge of a clock with a period longer than the calendar
+      }
+      clock = next;
+    }
+  }
+
+  // The tick of the earliest queued clock edge, or Long.MAX_VALUE if there are none
+  private long nextEdgeTime() {
+    if (netlist.clocks.length == 0) return Long.MAX_VALUE;
+
+    // Edges are usually within one turn of the calendar, so look through the buckets in order first
+    for (long tick = time + 1; tick <= time + bucketHead.length; tick++) {
+      for (int clock = bucketHead[(int) tick & (bucketHead.length - 1)]; clock >= 0; clock = nextInBucket[clock]) {
+        if (edgeTime[clock] == tick) return tick;
+      }
+    }
+    long earliest = Long.MAX_VALUE;
+    for (long tick : edgeTime) {
+      if (tick >= 0) {
+        earliest = Math.min(earliest, tick);
+      }
+    }
+    return earliest;
+  }
+
+  private void tickEventDriven(EvaluationListener listener) {
+    final long[] values = this.values;
+    final long[] next = nextValues;
+    final int[] outputNet = netlist.outputNet;
+    final int[] numOutputNets = netlist.numOutputNets;
+    final int[] fanOutStart = netlist.fanOutStart;
+    final int[] fanOut = netlist.fanOut;
+
+    // Anything not evaluated keeps its value
+    System.arraycopy(values, 0, next, 0, values.length);
+    releaseEdges();
+
+    // Take this tick's work list, leaving the pending list empty to be filled for the next tick
+    int[] active = pending;
+    int numActive = numPending;
+    pending = this.active;
+    this.active = active;
+    numPending = 0;
+    for (int i = 0; i < numActive; i++) {
+      queued[active[i]] = false;
+    }
+
+    // Counted as the components are evaluated, since a second pass over them would cost more than the counting
+    final long[] evaluationsByOpcode = activeOpcodeCounts;
+    int toggles = 0;
+    for (int i = 0; i < numActive; i++) {
+      int c = active[i];
+      evaluate(c, values, next);
+
+      // Wake up the readers of every net that changed
+      for (int net = outputNet[c]; net < outputNet[c] + numOutputNets[c]; net++) {
+        if (Bits.get(values, net) != Bits.get(next, net)) {
+          toggles++;
+          for (int j = fanOutStart[net]; j < fanOutStart[net + 1]; j++) {
+            schedule(fanOut[j]);
+          }
+        }
+      }
+
+      // Clocks wait in the calendar for their next edge, and user gates may still be settling even when their inputs
+      // are stable
+      int opcode = netlist.opcodes[c];
+      if (evaluationsByOpcode != null) {
+        evaluationsByOpcode[opcode]++;
+      }
+      if (opcode == Netlist.OP_CLOCK) {
+        int clock = netlist.aux[c];
+        queueEdge(clock, netlist.clocks[clock].getNextEdgeAfter(time));
+      } else if (opcode == Netlist.OP_USER && userGates[netlist.aux[c]].hasPendingActivity()) {
+        schedule(c);
+      }
+    }
+
+    if (listener != null) {
+      // Report each field component once, even if several of the components inlined from it were evaluated
+      for (int i = 0; i < numActive; i++) {
+        int e = netlist.eventOwner[active[i]];
+        if (!reported[e]) {
+          reported[e] = true;
+          fireEvent(listener, e, values, next);
+        }
+      }
+      for (int i = 0; i < numActive; i++) {
+        reported[netlist.eventOwner[active[i]]] = false;
+      }
+    }
+    if (metrics != null) {
+      metrics.countTick(countTicks, numActive, evaluationsByOpcode, toggles);
+      Arrays.fill(evaluationsByOpcode, 0L);
+    }
+
+    nextValues = values;
+    this.values = next;
+  }
+
+  /**
+   * Evaluate the components with no delay until the netlist reaches a stable state, so that changes to the inputs
+   * propagate all the way through in one call, however many components they pass through. The components are
+   * evaluated level by level, so outside of feedback loops, each is evaluated at most once. Each call counts as one
+   * tick for the clocks.
+   * @param listener An {@link EvaluationListener} to be told of each field component's value once the netlist has
+   * settled. May be {@code null}.
+   * @return Whether the netlist settled. If not, some feedback loops never stopped changing; they are left in whatever
+   * state they were in when they were given up on, and their components are returned by {@link #getOscillating()}.
+   */
+  public boolean settle(EvaluationListener listener) {
+    final int n = netlist.getNumComponents();
+    final long[] values = this.values;
+    final long[] scratch = nextValues;
+    final int[] opcodes = netlist.opcodes;
+    long[] before = listener == null ? null : values.clone();
+    time++;
+
+    if (dirty == null) {
+      dirty = new boolean[n];
+    }
+    if (!dirtyValid) {
+      Arrays.fill(dirty, true);
+    }
+    // Each call moves the clocks on by a tick, and user gates may have clocks inside
+    for (int c = 0; c < n; c++) {
+      if (opcodes[c] == Netlist.OP_CLOCK || opcodes[c] == Netlist.OP_USER) {
+        dirty[c] = true;
+      }
+    }
+    oscillating.clear();
+
+    settling = true;
+    try {
+      Levelization levels = netlist.levelization();
+      int[] order = levels.order;
+      for (int g = 0; g < levels.cyclic.length; g++) {
+        int from = levels.groupStart[g];
+        int to = levels.groupStart[g + 1];
+        if (!levels.cyclic[g]) {
+          if (dirty[order[from]]) {
+            settleComponent(order[from], values, scratch);
+          }
+          continue;
+        }
+
+        // A feedback loop: evaluate its dirty components until there are none left, or give up
+        int maxPasses = 2 * (to - from) + 2;
+        boolean anyDirty = true;
+        for (int pass = 0; anyDirty && pass < maxPasses; pass++) {
+          for (int i = from; i < to; i++) {
+            if (dirty[order[i]]) {
+              settleComponent(order[i], values, scratch);
+            }
+          }
+          anyDirty = false;
+          for (int i = from; i < to; i++) {
+            anyDirty |= dirty[order[i]];
+          }
+        }
+        if (anyDirty) {
+          for (int i = from; i < to; i++) {
+            if (dirty[order[i]]) {
+              dirty[order[i]] = false;
+              addOscillating(order[i]);
+            }
+          }
+        }
+      }
+    } finally {
+      settling = false;
+    }
+
+    dirtyValid = true;
+    if (eventDriven) {
+      // the work list knows nothing of what settling changed
+      scheduleAll();
+    }
+
+    if (listener != null) {
+      for (int e = 0; e < netlist.eventComponents.length; e++) {
+        fireEvent(listener, e, before, values);
+      }
+    }
+    return oscillating.isEmpty();
+  }
+
+  /**
+   * @return The field components in feedback loops which were still changing when the last call to
+   * {@link #settle(EvaluationListener)} gave up on them, or an empty list if it settled.
+   */
+  public List<LogicComponent> getOscillating() {
+    return Collections.unmodifiableList(oscillating);
+  }
+
+  // Evaluate component c in place, and mark the readers of any net it changes as dirty
+  private void settleComponent(int c, long[] values, long[] scratch) {
+    dirty[c] = false;
+    evaluate(c, values, scratch);
+
+    int firstNet = netlist.outputNet[c];
+    for (int net = firstNet; net < firstNet + netlist.numOutputNets[c]; net++) {
+      boolean value = Bits.get(scratch, net);
+      if (value != Bits.get(values, net)) {
+        Bits.set(values, net, value);
+        for (int i = netlist.fanOutStart[net]; i < netlist.fanOutStart[net + 1]; i++) {
+          dirty[netlist.fanOut[i]] = true;
+        }
+      }
+    }
+  }
+
+  private void addOscillating(int c) {
+    LogicComponent owner = netlist.eventComponents[netlist.eventOwner[c]];
+    if (!oscillating.contains(owner)) {
+      oscillating.add(owner);
+    }
+  }
+
+  private void schedule(int c) {
+    if (!queued[c]) {
+      queued[c] = true;
+      pending[numPending++] = c;
+    }
+  }
+
+  // Queue every component for the next tick, including the clocks, which are taken out of the calendar until then
+  private void scheduleAll() {
+    clearCalendar();
+    numPending = 0;
+    for (int c = 0; c < netlist.getNumComponents(); c++) {
+      queued[c] = true;
+      pending[numPending++] = c;
+    }
+  }
+
+  // Evaluate components from up to to, in order
+  private void evaluate(int from, int to, long[] values, long[] next) {
+    for (int c = from; c < to; c++) {
+      evaluate(c, values, next);
+    }
+  }
+
+  /**
+   * The state of a {@link Simulation} at one moment, taken by {@link #snapshot()}. Snapshots are immutable, and may be
+   * restored into any simulation of the same {@link Netlist}, any number of times.
+   */
+  public static final class Snapshot {
+
+    private final Netlist netlist;
+    private final long[] words;
+
+    private Snapshot(Netlist netlist, long[] words) {
+      this.netlist = netlist;
+      this.words = words;
+    }
+
+    public Netlist getNetlist() {
+      return netlist;
+    }
+
+    /**
+     * @return The time at which the snapshot was taken, as given by {@link Simulation#getTime()}.
+     */
+    public long getTime() {
+      return words[0];
+    }
+
+    /**
+     * @return The size of the snapshot's packed state in bytes.
+     */
+    public long getSizeInBytes() {
+      return words.length * 8L;
+    }
+
+  }
+
+  /**
+   * Evaluates a range of chunks, splitting it in half and forking until there is only one chunk left.
+   */
+  private final class EvaluateChunks extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int fromChunk;
+    private final int toChunk;
+    private final long[] values;
+    private final long[] next;
+
+    EvaluateChunks(int fromChunk, int toChunk, long[] values, long[] next) {
+      this.fromChunk = fromChunk;
+      this.toChunk = toChunk;
+      this.values = values;
+      this.next = next;
+    }
+
+    @Override
+    protected void compute() {
+      if (toChunk - fromChunk == 1) {
+        evaluate(chunks[fromChunk], chunks[toChunk], values, next);
+      } else {
+        int mid = (fromChunk + toChunk) >>> 1;
+        invokeAll(new EvaluateChunks(fromChunk, mid, values, next), new EvaluateChunks(mid, toChunk, values, next));
+      }
+    }
+
+  }
+
+  // Evaluate component c from the values of the previous tick, writing its outputs into next
+  private void evaluate(int c, long[] values, long[] next) {
+    final int[] fanInStart = netlist.fanInStart;
+    final int[] fanIn = netlist.fanIn;
+
+    boolean value;
+    switch (netlist.opcodes[c]) {
+      case Netlist.OP_INPUT:
+        value = Bits.get(inputValues, netlist.aux[c]);
+        break;
+      case Netlist.OP_CONST_0:
+        value = false;
+        break;
+      case Netlist.OP_CONST_1:
+        value = true;
+        break;
+      case Netlist.OP_CLOCK:
+        value = netlist.clocks[netlist.aux[c]].getValueAt(time);
+        break;
+      case Netlist.OP_BUF:
+        value = Bits.get(values, fanIn[fanInStart[c]]);
+        break;
+      case Netlist.OP_NOT:
+        value = !Bits.get(values, fanIn[fanInStart[c]]);
+        break;
+      case Netlist.OP_AND:
+        value = gather(values, fanIn, fanInStart[c], fanInStart[c + 1]) == allOnes(fanInStart[c], fanInStart[c + 1]);
+        break;
+      case Netlist.OP_OR:
+        value = gather(values, fanIn, fanInStart[c], fanInStart[c + 1]) != 0;
+        break;
+      case Netlist.OP_NAND:
+        value = gather(values, fanIn, fanInStart[c], fanInStart[c + 1]) != allOnes(fanInStart[c], fanInStart[c + 1]);
+        break;
+      case Netlist.OP_NOR:
+        value = gather(values, fanIn, fanInStart[c], fanInStart[c + 1]) == 0;
+        break;
+      case Netlist.OP_XOR:
+        value = (Long.bitCount(gather(values, fanIn, fanInStart[c], fanInStart[c + 1])) & 1) != 0;
+        break;
+      case Netlist.OP_XNOR:
+        value = (Long.bitCount(gather(values, fanIn, fanInStart[c], fanInStart[c + 1])) & 1) == 0;
+        break;
+      case Netlist.OP_USER:
+        tickUserGate(c, values, next);
+        return;
+      case Netlist.OP_LUT:
+        lookUp(c, values, next);
+        return;
+      default:
+        throw new IllegalStateException("Unknown opcode " + netlist.opcodes[c]);
+    }
+    Bits.set(next, netlist.outputNet[c], value);
+  }
+
+  // Pack the values of the nets fanIn[from] up to fanIn[to] into one word, so that a gate of up to 64 inputs is a
+  // single word operation
+  private static long gather(long[] values, int[] fanIn, int from, int to) {
+    long word = 0L;
+    for (int i = from; i < to; i++) {
+      int net = fanIn[i];
+      word |= ((values[net >>> 6] >>> net) & 1L) << (i - from);
+    }
+    return word;
+  }
+
+  private static long allOnes(int from, int to) {
+    return -1L >>> (64 - (to - from));
+  }
+
+  // Read the outputs of a tabulated user gate from the row of its lookup table given by its inputs
+  private void lookUp(int c, long[] values, long[] next) {
+    TruthTable table = netlist.lookupTables[netlist.aux[c]];
+    int row = (int) gather(values, netlist.fanIn, netlist.fanInStart[c], netlist.fanInStart[c + 1]);
+    int firstNet = netlist.outputNet[c];
+    for (int i = 0; i < netlist.numOutputNets[c]; i++) {
+      long word = table.getColumn(i)[row >>> 6];
+      Bits.set(next, firstNet + i, (word & (1L << row)) != 0);
+    }
+  }
+
+  // Mirrors UserGate.logicalEval(): feed the inputs to the inner simulation, tick (or settle) it once, and read its
+  // outputs
+  private void tickUserGate(int c, long[] values, long[] next) {
+    Simulation inner = userGates[netlist.aux[c]];
+    int start = netlist.fanInStart[c];
+    int end = netlist.fanInStart[c + 1];
+    for (int i = start; i < end; i++) {
+      inner.setInput(i - start, Bits.get(values, netlist.fanIn[i]));
+    }
+
+    if (settling) {
+      if (!inner.settle(null)) {
+        addOscillating(c);
+      }
+    } else {
+      inner.tick(null);
+    }
+
+    int firstNet = netlist.outputNet[c];
+    for (int i = 0; i < netlist.numOutputNets[c]; i++) {
+      Bits.set(next, firstNet + i, inner.getOutput(i));
+    }
+  }
+
+  // Build an event for the e'th field component from the values before and after the tick
+  private void fireEvent(EvaluationListener listener, int e, long[] before, long[] after) {
+    int inputStart = netlist.eventInputStart[e];
+    boolean[] inputs = new boolean[netlist.eventInputStart[e + 1] - inputStart];
+    for (int i = 0; i < inputs.length; i++) {
+      inputs[i] = Bits.get(before, netlist.eventInputs[inputStart + i]);
+    }
+
+    int outputStart = netlist.eventOutputStart[e];
+    boolean[] outputs = new boolean[netlist.eventOutputStart[e + 1] - outputStart];
+    for (int i = 0; i < outputs.length; i++) {
+      outputs[i] = Bits.get(after, netlist.eventOutputs[outputStart + i]);
+    }
+
+    listener.onEvaluation(new EvaluationListener.Event(netlist.eventComponents[e], inputs, outputs));
+  }
+
+}
@@ -0,0 +1,245 @@
+package ca.keal.logikos.sim;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the work done by a {@link Simulation} and its user gates, and publishes it over JMX once
+ * {@link #register(String) registered}. Attach it with {@link Simulation#setMetrics(SimulationMetrics)}, or
+ * {@link ca.keal.logikos.field.Field#setMetrics(SimulationMetrics)} to also time each tick of a field.
+ *
+ * <p>The same metrics are shared by a simulation and the simulations of all of its user gates, which a
+ * {@link Simulation#setParallel parallel} simulation ticks from several threads at once, so the counts are kept in
+ * {@link LongAdder}s. Each simulation adds to them once per tick rather than once per component, so that collecting
+ * them costs next to nothing. Only one tick in every {@value #LATENCY_SAMPLE_INTERVAL} is timed, by the thread
+ * ticking the top-level simulation. Since the counts are read by JMX while the simulation runs, they may lag a little
+ * behind it. Only ticking is counted, not {@link Simulation#settle settling}.</p>
+ */
+public class SimulationMetrics implements SimulationMetricsMXBean {
+
+  /** One tick in this many is timed for the latency percentiles. */
+  public static final int LATENCY_SAMPLE_INTERVAL = 64;
+
+  private static final String[] OPCODE_NAMES = {
+      "INPUT", "CONST_0", "CONST_1", "CLOCK", "BUF", "NOT", "AND", "OR", "NAND", "USER", "NOR", "XOR", "XNOR", "LUT"
+  };
+
+  static final int NUM_OPCODES = OPCODE_NAMES.length;
+
+  // Latencies are kept in a log-linear histogram: 8 buckets for each power of two, so each is within 12.5%
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  // Added to by the simulation and its user gates as they tick, possibly from several threads
+  private final LongAdder ticks = new LongAdder();
+  private final LongAdder evaluations = new LongAdder();
+  private final LongAdder toggles = new LongAdder();
+  private final LongAdder[] evaluationsByOpcode = new LongAdder[NUM_OPCODES];
+
+  // Written only by the thread ticking the top-level simulation; the first sample is a full interval in, so that it
+  // isn't always the first, slowest tick
+  private final long[] latencyBuckets = new long[64 * SUB_BUCKETS];
+  private int untilNextSample = LATENCY_SAMPLE_INTERVAL;
+  private long startNanos = System.nanoTime();
+
+  // The top-level simulation being counted
+  private volatile Simulation simulation = null;
+  private volatile int numNets = 0;
+
+  private ObjectName objectName = null;
+
+  public SimulationMetrics() {
+    for (int opcode = 0; opcode < NUM_OPCODES; opcode++) {
+      evaluationsByOpcode[opcode] = new LongAdder();
+    }
+  }
+
+  // Called by Simulation.setMetrics() for the top-level simulation
+  void attach(Simulation simulation) {
+    this.simulation = simulation;
+    numNets = countNets(simulation.getNetlist());
+  }
+
+  private static int countNets(Netlist netlist) {
+    // user gates each have their own simulation, so a netlist used by two of them is counted twice
+    int nets = netlist.numNets;
+    for (Netlist userGate : netlist.userGates) {
+      nets += countNets(userGate);
+    }
+    return nets;
+  }
+
+  /**
+   * Count one tick of a simulation, in which {@code numEvaluated} components were evaluated,
+   * {@code numEvaluatedByOpcode[op]} of them with opcode {@code op}, and {@code numToggled} nets changed.
+   * @param countTick Whether to count the tick itself; the ticks of user gates aren't, as they happen within a tick of
+   *  the top-level simulation.
+   */
+  void countTick(boolean countTick, long numEvaluated, long[] numEvaluatedByOpcode, long numToggled) {
+    if (countTick) {
+      ticks.increment();
+    }
+    evaluations.add(numEvaluated);
+    for (int opcode = 0; opcode < NUM_OPCODES; opcode++) {
+      if (numEvaluatedByOpcode[opcode] != 0) {
+        evaluationsByOpcode[opcode].add(numEvaluatedByOpcode[opcode]);
+      }
+    }
+    toggles.add(numToggled);
+  }
+
+  /**
+   * Count {@code numTicks} ticks which were skipped over because nothing happened in them.
+   */
+  void countSkippedTicks(long numTicks) {
+    ticks.add(numTicks);
+  }
+
+  /**
+   * @return Whether the tick about to happen should be timed and passed to {@link #recordTickLatency(long)}. This is
+   * true once every {@link #LATENCY_SAMPLE_INTERVAL} calls.
+   */
+  public boolean sampleTick() {
+    if (--untilNextSample > 0) return false;
+    untilNextSample = LATENCY_SAMPLE_INTERVAL;
+    return true;
+  }
+
+  /**
+   * Record the time taken by a tick chosen by {@link #sampleTick()}.
+   */
+  public void recordTickLatency(long nanos) {
+    latencyBuckets[bucketOf(Math.max(0, nanos))]++;
+  }
+
+  private static int bucketOf(long nanos) {
+    if (nanos < SUB_BUCKETS) return (int) nanos;
+    int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  private static long lowestInBucket(int bucket) {
+    if (bucket < SUB_BUCKETS) return bucket;
+    int shift = bucket / SUB_BUCKETS - 1;
+    return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+  }
+
+  private long latencyPercentile(double percentile) {
+    long total = 0;
+    for (long count : latencyBuckets) {
+      total += count;
+    }
+    if (total == 0) return 0;
+
+    long rank = (long) Math.ceil(percentile / 100 * total);
+    long seen = 0;
+    for (int bucket = 0; bucket < latencyBuckets.length; bucket++) {
+      seen += latencyBuckets[bucket];
+      if (seen >= rank) return lowestInBucket(bucket);
+    }
+    return lowestInBucket(latencyBuckets.length - 1);
+  }
+
+  @Override
+  public long getTicks() {
+    return ticks.sum();
+  }
+
+  @Override
+  public double getTicksPerSecond() {
+    long elapsed = System.nanoTime() - startNanos;
+    return elapsed <= 0 ? 0 : ticks.sum() * 1e9 / elapsed;
+  }
+
+  @Override
+  public long getTickLatencyP50Nanos() {
+    return latencyPercentile(50);
+  }
+
+  @Override
+  public long getTickLatencyP99Nanos() {
+    return latencyPercentile(99);
+  }
+
+  @Override
+  public double getComponentsEvaluatedPerTick() {
+    long ticks = this.ticks.sum();
+    return ticks == 0 ? 0 : (double) evaluations.sum() / ticks;
+  }
+
+  @Override
+  public Map<String, Long> getEvaluationsByGateType() {
+    Map<String, Long> counts = new LinkedHashMap<>();
+    for (int opcode = 0; opcode < NUM_OPCODES; opcode++) {
+      counts.merge(OPCODE_NAMES[opcode], evaluationsByOpcode[opcode].sum(), Long::sum);
+    }
+    return counts;
+  }
+
+  @Override
+  public double getNetTogglesPerTick() {
+    long ticks = this.ticks.sum();
+    return ticks == 0 ? 0 : (double) toggles.sum() / ticks;
+  }
+
+  @Override
+  public double getNetToggleRate() {
+    int numNets = this.numNets;
+    return numNets == 0 ? 0 : getNetTogglesPerTick() / numNets;
+  }
+
+  @Override
+  public long getEstimatedHeapBytes() {
+    Simulation simulation = this.simulation;
+    return simulation == null ? 0 : simulation.estimateHeapBytes(new IdentityHashMap<>());
+  }
+
+  @Override
+  public void reset() {
+    ticks.reset();
+    evaluations.reset();
+    toggles.reset();
+    for (LongAdder adder : evaluationsByOpcode) {
+      adder.reset();
+    }
+    Arrays.fill(latencyBuckets, 0);
+    startNanos = System.nanoTime();
+  }
+
+  /**
+   * Publish the metrics on the platform MBean server, as {@code ca.keal.logikos:type=Simulation,name=<name>}. The name
+   * is quoted, so it may be any string, such as a file path containing {@code :}, {@code ,}, {@code =} or {@code *}.
+   * @throws JMException If the metrics can't be registered, e.g. because other metrics were already registered under
+   * the same name.
+   * @throws IllegalStateException If these metrics are already registered.
+   */
+  public synchronized ObjectName register(String name) throws JMException {
+    if (objectName != null) {
+      throw new IllegalStateException("Metrics are already registered as " + objectName);
+    }
+    ObjectName objectName = new ObjectName("ca.keal.logikos:type=Simulation,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    this.objectName = objectName;
+    return objectName;
+  }
+
+  /**
+   * Remove the metrics from the platform MBean server, if they are registered.
+   */
+  public synchronized void unregister() throws JMException {
+    if (objectName == null) return;
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    if (server.isRegistered(objectName)) {
+      server.unregisterMBean(objectName);
+    }
+    objectName = null;
+  }
+
+}
@@ -0,0 +1,65 @@
+package ca.keal.logikos.sim;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link SimulationMetrics}, through which the metrics are read over JMX.
+ */
+public interface SimulationMetricsMXBean {
+
+  /**
+   * @return The number of ticks simulated since the metrics were created or reset, including ticks skipped over by
+   * {@link Simulation#run(long, ca.keal.logikos.logic.EvaluationListener)}.
+   */
+  long getTicks();
+
+  /**
+   * @return The number of ticks simulated per second of wall-clock time since the metrics were created or reset.
+   */
+  double getTicksPerSecond();
+
+  /**
+   * @return The median time taken by {@link ca.keal.logikos.field.Field#tick(ca.keal.logikos.logic.EvaluationListener,
+   * boolean[]) Field.tick}, in nanoseconds, or 0 if no ticks have been timed.
+   */
+  long getTickLatencyP50Nanos();
+
+  /**
+   * @return The 99th percentile of the time taken by {@link ca.keal.logikos.field.Field#tick(
+   * ca.keal.logikos.logic.EvaluationListener, boolean[]) Field.tick}, in nanoseconds, or 0 if no ticks have been
+   * timed.
+   */
+  long getTickLatencyP99Nanos();
+
+  /**
+   * @return The average number of components evaluated per tick, including those inside user gates.
+   */
+  double getComponentsEvaluatedPerTick();
+
+  /**
+   * @return The number of evaluations of each type of component, such as {@code AND} or {@code CLOCK}, by type.
+   */
+  Map<String, Long> getEvaluationsByGateType();
+
+  /**
+   * @return The average number of nets which changed value per tick.
+   */
+  double getNetTogglesPerTick();
+
+  /**
+   * @return The average fraction of the nets which changed value per tick, from 0 to 1.
+   */
+  double getNetToggleRate();
+
+  /**
+   * @return An estimate of the heap taken by the compiled netlists and simulation state of the field, including those
+   * of its user gates.
+   */
+  long getEstimatedHeapBytes();
+
+  /**
+   * Set every count back to zero and restart the clock for {@link #getTicksPerSecond()}.
+   */
+  void reset();
+
+}
@@ -0,0 +1,114 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.OutputFC;
+
+import java.util.Arrays;
+
+/**
+ * The complete truth table of a combinational {@link Field}. Row {@code r} of the table is the input vector in which
+ * input slot {@code i} is set to bit {@code i} of {@code r}, and each {@link OutputFC}'s column holds its settled
+ * value for every row as a packed bitset: row {@code r} is bit {@code r % 64} of word {@code r / 64}.
+ *
+ * <p>The table is computed 64 rows at a time, one row per bit of a {@code long}, so every gate is evaluated with a
+ * single bitwise operation per 64 rows. Where the Vector API is available, a whole vector register of words is
+ * evaluated at a time instead, e.g. 512 rows per operation with AVX-512; see {@link WordEvaluator}.</p>
+ */
+public final class TruthTable {
+  
+  /** The most inputs a truth table may have; any more and the columns no longer fit in an array. */
+  public static final int MAX_INPUTS = 36;
+  
+  /** The lanes of the first six inputs within each word; every input after that is constant within a word. */
+  private static final long[] LANE_PATTERNS = {
+      0xAAAAAAAAAAAAAAAAL,
+      0xCCCCCCCCCCCCCCCCL,
+      0xF0F0F0F0F0F0F0F0L,
+      0xFF00FF00FF00FF00L,
+      0xFFFF0000FFFF0000L,
+      0xFFFFFFFF00000000L
+  };
+  
+  private final int numInputs;
+  private final long[][] columns;
+  
+  TruthTable(int numInputs, long[][] columns) {
+    this.numInputs = numInputs;
+    this.columns = columns;
+  }
+  
+  public int getNumInputs() {
+    return numInputs;
+  }
+  
+  public int getNumOutputs() {
+    return columns.length;
+  }
+  
+  public long getNumRows() {
+    return 1L << numInputs;
+  }
+  
+  /**
+   * @return The packed column of the {@code output}th {@link OutputFC}. The returned array must not be modified.
+   */
+  public long[] getColumn(int output) {
+    return columns[output];
+  }
+  
+  public boolean getOutput(int output, long row) {
+    if (row < 0 || row >= getNumRows()) {
+      throw new IndexOutOfBoundsException("Row " + row + " is out of range for " + numInputs + " inputs");
+    }
+    return (columns[output][(int) (row >>> 6)] & (1L << row)) != 0;
+  }
+  
+  public static TruthTable of(Field field) {
+    return of(Netlist.compile(field));
+  }
+  
+  /**
+   * Compute the truth table of a netlist.
+   * @throws IllegalArgumentException If the netlist is not {@link Netlist#isCombinational() combinational} or has
+   * more than {@link #MAX_INPUTS} inputs.
+   */
+  public static TruthTable of(Netlist netlist) {
+    int numInputs = netlist.getNumInputs();
+    if (numInputs > MAX_INPUTS) {
+      throw new IllegalArgumentException("Cannot build a truth table for " + numInputs + " inputs; the maximum is "
+          + MAX_INPUTS);
+    }
+    
+    int numWords = numInputs <= 6 ? 1 : 1 << (numInputs - 6);
+    long validLanes = numInputs >= 6 ? -1L : (1L << (1 << numInputs)) - 1;
+    // evaluators are a power of two words wide, as is the table, so the blocks of words divide it evenly
+    WordEvaluator evaluator = WordEvaluator.create(netlist, numWords);
+    int width = evaluator.getWidth();
+    
+    long[][] columns = new long[netlist.getNumOutputs()][numWords];
+    long[] inputWords = new long[numInputs * width];
+    long[] outputWords = new long[columns.length * width];
+    for (int i = 0; i < Math.min(numInputs, 6); i++) {
+      Arrays.fill(inputWords, i * width, (i + 1) * width, LANE_PATTERNS[i]);
+    }
+    
+    for (int block = 0; block < numWords; block += width) {
+      for (int i = 6; i < numInputs; i++) {
+        for (int w = 0; w < width; w++) {
+          inputWords[i * width + w] = ((block + w) >>> (i - 6) & 1) != 0 ? -1L : 0L;
+        }
+      }
+      
+      evaluator.evaluate(inputWords, outputWords);
+      
+      for (int output = 0; output < columns.length; output++) {
+        for (int w = 0; w < width; w++) {
+          columns[output][block + w] = outputWords[output * width + w] & validLanes;
+        }
+      }
+    }
+    
+    return new TruthTable(numInputs, columns);
+  }
+  
+}
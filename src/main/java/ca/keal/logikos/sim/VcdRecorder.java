@@ -0,0 +1,239 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.InputFC;
+import ca.keal.logikos.field.OutputFC;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Records the {@link InputFC}s and {@link OutputFC}s of a {@link Field} as it's simulated, writing them to a Value
+ * Change Dump (VCD) file which can be opened in a waveform viewer such as GTKWave. Each signal is named after its
+ * component's label, or {@code in0}, {@code out0}, etc. if it has none, and each tick is one nanosecond.
+ *
+ * <p>The field is ticked as usual, and {@link #sample()} is called after each tick; only the signals which changed
+ * since the last sample are written. Everything is written through a fixed-size buffer straight to the channel, so
+ * the recorder's memory use doesn't grow however long the field runs.</p>
+ */
+public class VcdRecorder implements Closeable {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  // The identifier codes used by VCD are strings of the printable characters from '!' to '~'
+  private static final int FIRST_CODE_CHAR = '!';
+  private static final int NUM_CODE_CHARS = '~' - '!' + 1;
+
+  // The longest line written at once: a '#' and a long in decimal, or a value, the longest code and a newline
+  private static final int MAX_LINE = 21;
+
+  private final Field field;
+  private final WritableByteChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+  private final int numInputs;
+  private final byte[][] codes;
+  private final long[] lastValues;
+  private long lastTime = -1;
+
+  /**
+   * Start recording {@code field}, writing the VCD header to {@code channel}. The signals are those of the field's
+   * current {@link InputFC}s and {@link OutputFC}s.
+   * @throws IOException If the header can't be written.
+   */
+  public VcdRecorder(Field field, WritableByteChannel channel) throws IOException {
+    if (field == null) {
+      throw new NullPointerException("VcdRecorder cannot record a null Field");
+    }
+    if (channel == null) {
+      throw new NullPointerException("VcdRecorder cannot write to a null channel");
+    }
+    this.field = field;
+    this.channel = channel;
+
+    List<InputFC> inputFCs = field.getInputFCs();
+    List<OutputFC> outputFCs = field.getOutputFCs();
+    numInputs = inputFCs.size();
+    codes = new byte[numInputs + outputFCs.size()][];
+    lastValues = new long[Bits.words(codes.length)];
+
+    StringBuilder header = new StringBuilder();
+    header.append("$version Logikos $end\n");
+    header.append("$timescale 1ns $end\n");
+    header.append("$scope module ").append(signalName(field.getName(), "field")).append(" $end\n");
+    for (int signal = 0; signal < codes.length; signal++) {
+      codes[signal] = code(signal);
+      String name = signal < numInputs
+          ? signalName(inputFCs.get(signal).getLabel(), "in" + signal)
+          : signalName(outputFCs.get(signal - numInputs).getLabel(), "out" + (signal - numInputs));
+      header.append("$var wire 1 ").append(new String(codes[signal], StandardCharsets.US_ASCII)).append(' ')
+          .append(name).append(" $end\n");
+    }
+    header.append("$upscope $end\n");
+    header.append("$enddefinitions $end\n");
+
+    byte[] bytes = header.toString().getBytes(StandardCharsets.UTF_8);
+    for (int from = 0; from < bytes.length; from += BUFFER_SIZE) {
+      int length = Math.min(BUFFER_SIZE, bytes.length - from);
+      ensureRoom(length);
+      buffer.put(bytes, from, length);
+    }
+  }
+
+  /**
+   * Start recording {@code field} into the file {@code path}, creating or replacing it.
+   * @see #VcdRecorder(Field, WritableByteChannel)
+   */
+  public static VcdRecorder create(Field field, Path path) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      return new VcdRecorder(field, channel);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  // Labels may hold anything, but VCD names end at whitespace
+  private static String signalName(String label, String defaultName) {
+    if (label == null || label.trim().isEmpty()) return defaultName;
+    return label.trim().replaceAll("\\s+", "_");
+  }
+
+  // The shortest codes go to the first signals
+  private static byte[] code(int signal) {
+    int length = 1;
+    for (int limit = NUM_CODE_CHARS; signal >= limit; limit *= NUM_CODE_CHARS) {
+      signal -= limit;
+      length++;
+    }
+    byte[] code = new byte[length];
+    for (int i = length - 1; i >= 0; i--) {
+      code[i] = (byte) (FIRST_CODE_CHAR + signal % NUM_CODE_CHARS);
+      signal /= NUM_CODE_CHARS;
+    }
+    return code;
+  }
+
+  /**
+   * Record the value of every signal at the field's current {@link Simulation#getTime() time}. The first sample
+   * writes every signal; later ones write only those which changed, and nothing at all if none did.
+   * @throws IllegalStateException If the field's time is earlier than that of the last sample, as it is after the
+   *  field is reset or an earlier {@link Simulation.Snapshot} is restored.
+   * @throws IOException If the buffer fills up and can't be written out.
+   */
+  public void sample() throws IOException {
+    Simulation sim = field.getSimulation();
+    long time = sim.getTime();
+    if (time < lastTime) {
+      throw new IllegalStateException("Cannot record time " + time + " after time " + lastTime);
+    }
+
+    boolean first = lastTime < 0;
+    boolean timeWritten = false;
+    for (int signal = 0; signal < codes.length; signal++) {
+      boolean value = signal < numInputs ? sim.getInput(signal) : sim.getOutput(signal - numInputs);
+      if (!first && value == Bits.get(lastValues, signal)) continue;
+      Bits.set(lastValues, signal, value);
+
+      if (!timeWritten) {
+        writeTime(time);
+        timeWritten = true;
+      }
+      ensureRoom(MAX_LINE);
+      buffer.put((byte) (value ? '1' : '0'));
+      buffer.put(codes[signal]);
+      buffer.put((byte) '\n');
+    }
+    if (first && !timeWritten) {
+      // a field without signals still gets its start time
+      writeTime(time);
+    }
+    lastTime = time;
+  }
+
+  /**
+   * Run the field for {@code ticks} ticks with its inputs held at their current values, as in
+   * {@link Field#run(long, ca.keal.logikos.logic.EvaluationListener, boolean[])}, sampling after each tick. Stretches
+   * in which nothing but the clocks happens are still skipped, since no signal can change in them.
+   * @throws IllegalArgumentException If {@code ticks} is negative.
+   * @throws IOException If the buffer fills up and can't be written out.
+   */
+  public void run(long ticks) throws IOException {
+    if (ticks < 0) {
+      throw new IllegalArgumentException("Cannot run for a negative number of ticks: " + ticks);
+    }
+    Simulation sim = field.getSimulation();
+    sim.pullInputs();
+    while (ticks > 0) {
+      long skipped = Math.min(sim.quietTicks(), ticks);
+      if (skipped > 0) {
+        sim.run(skipped, null);
+        ticks -= skipped;
+      } else {
+        sim.tick(null);
+        ticks--;
+        sample();
+      }
+    }
+  }
+
+  private void writeTime(long time) throws IOException {
+    ensureRoom(MAX_LINE);
+    buffer.put((byte) '#');
+    // write the digits backwards, then reverse them in place
+    int start = buffer.position();
+    do {
+      buffer.put((byte) ('0' + time % 10));
+      time /= 10;
+    } while (time > 0);
+    for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+      byte digit = buffer.get(i);
+      buffer.put(i, buffer.get(j));
+      buffer.put(j, digit);
+    }
+    buffer.put((byte) '\n');
+  }
+
+  private void ensureRoom(int bytes) throws IOException {
+    if (buffer.remaining() < bytes) {
+      drain();
+    }
+  }
+
+  private void drain() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Write everything recorded so far out to the channel.
+   */
+  public void flush() throws IOException {
+    drain();
+  }
+
+  /**
+   * Write everything recorded so far out to the channel, and close it.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      drain();
+    } finally {
+      channel.close();
+    }
+  }
+
+}
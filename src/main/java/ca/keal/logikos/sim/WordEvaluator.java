@@ -0,0 +1,265 @@
+package ca.keal.logikos.sim;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+
+/**
+ * Evaluates a combinational {@link Netlist} 64 input vectors at a time. Each net holds a {@code long} whose bits are
+ * its values in 64 independent lanes, so every gate becomes a single bitwise operation. Components are evaluated once
+ * each in topological order, which gives the values the outputs would settle to if the field were ticked.
+ *
+ * <p>An evaluator may also be {@link #getWidth() wider}, holding several words per net so that each gate is applied
+ * to several words of lanes at once. {@link #create(Netlist, int)} picks the widest evaluator the JVM can run: when the
+ * {@code jdk.incubator.vector} module is available, a {@code VectorWordEvaluator} evaluates each gate over a whole
+ * vector register of words, e.g. 256 lanes with AVX2 or 512 with AVX-512; otherwise, it falls back to this one.</p>
+ */
+class WordEvaluator {
+
+  private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+  // The Vector API evaluator and its width, or null and 1 if the module isn't available
+  private static final Constructor<? extends WordEvaluator> VECTOR_EVALUATOR;
+  private static final int VECTOR_WIDTH;
+
+  static {
+    Constructor<? extends WordEvaluator> constructor = null;
+    int width = 1;
+    if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+      try {
+        // loaded by name, so that nothing refers to the module's classes unless it's there
+        Class<? extends WordEvaluator> type = Class.forName(WordEvaluator.class.getPackage().getName()
+            + ".VectorWordEvaluator").asSubclass(WordEvaluator.class);
+        width = (int) type.getDeclaredMethod("preferredWidth").invoke(null);
+        constructor = type.getDeclaredConstructor(Netlist.class);
+      } catch (ReflectiveOperationException | LinkageError e) {
+        constructor = null;
+        width = 1;
+      }
+    }
+    VECTOR_EVALUATOR = constructor;
+    VECTOR_WIDTH = width;
+  }
+
+  final Netlist netlist;
+  final int width;
+  private final int[] order;
+  final long[] netWords;
+  private final WordEvaluator[] userGates;
+
+  // Scratch space for passing words into and out of user gates
+  private final long[][] userGateInputs;
+  private final long[][] userGateOutputs;
+
+  /**
+   * @throws IllegalArgumentException If {@code netlist} is not {@link Netlist#isCombinational() combinational}.
+   */
+  WordEvaluator(Netlist netlist) {
+    this(netlist, 1);
+  }
+
+  /**
+   * @param width The number of words per net.
+   * @throws IllegalArgumentException If {@code netlist} is not {@link Netlist#isCombinational() combinational}.
+   */
+  WordEvaluator(Netlist netlist, int width) {
+    if (!netlist.isCombinational()) {
+      throw new IllegalArgumentException("Only combinational fields can be evaluated word by word");
+    }
+    this.netlist = netlist;
+    this.width = width;
+    order = netlist.topologicalOrder();
+    netWords = new long[netlist.numNets * width];
+
+    userGates = new WordEvaluator[netlist.userGates.length];
+    userGateInputs = new long[userGates.length][];
+    userGateOutputs = new long[userGates.length][];
+    for (int i = 0; i < userGates.length; i++) {
+      userGates[i] = nested(netlist.userGates[i]);
+      userGateInputs[i] = new long[netlist.userGates[i].getNumInputs() * width];
+      userGateOutputs[i] = new long[netlist.userGates[i].getNumOutputs() * width];
+    }
+  }
+
+  /**
+   * Create the widest evaluator of {@code netlist} which the JVM supports, but no wider than {@code maxWidth} words.
+   * @throws IllegalArgumentException If {@code netlist} is not {@link Netlist#isCombinational() combinational}.
+   */
+  static WordEvaluator create(Netlist netlist, int maxWidth) {
+    if (VECTOR_EVALUATOR != null && VECTOR_WIDTH <= maxWidth) {
+      try {
+        return VECTOR_EVALUATOR.newInstance(netlist);
+      } catch (InvocationTargetException e) {
+        if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+        throw new IllegalStateException(e.getCause());
+      } catch (ReflectiveOperationException e) {
+        // the constructor was found when the class was loaded, so it can be called
+        throw new IllegalStateException(e);
+      }
+    }
+    return new WordEvaluator(netlist);
+  }
+
+  // An evaluator of the same kind for a nested user gate
+  WordEvaluator nested(Netlist userGate) {
+    return new WordEvaluator(userGate, width);
+  }
+
+  /**
+   * @return The number of words per net, each holding 64 lanes.
+   */
+  int getWidth() {
+    return width;
+  }
+
+  /**
+   * Evaluate the netlist for {@code 64 * }{@link #getWidth()} input vectors at once.
+   * @param inputWords The lanes of each input slot: the words of slot {@code i} start at {@code i * getWidth()}.
+   * @param outputWords Filled with the settled lanes of each of the field's outputs, laid out like the inputs.
+   */
+  void evaluate(long[] inputWords, long[] outputWords) {
+    final int[] opcodes = netlist.opcodes;
+    final int[] fanInStart = netlist.fanInStart;
+    final int[] fanIn = netlist.fanIn;
+    final int[] outputNet = netlist.outputNet;
+    final int[] aux = netlist.aux;
+    final long[] words = netWords;
+    final int width = this.width;
+
+    for (int c : order) {
+      int out = outputNet[c] * width;
+      switch (opcodes[c]) {
+        case Netlist.OP_INPUT:
+          System.arraycopy(inputWords, aux[c] * width, words, out, width);
+          break;
+        case Netlist.OP_CONST_0:
+          Arrays.fill(words, out, out + width, 0L);
+          break;
+        case Netlist.OP_CONST_1:
+          Arrays.fill(words, out, out + width, -1L);
+          break;
+        case Netlist.OP_BUF:
+        case Netlist.OP_NOT:
+        case Netlist.OP_AND:
+        case Netlist.OP_OR:
+        case Netlist.OP_NAND:
+        case Netlist.OP_NOR:
+        case Netlist.OP_XOR:
+        case Netlist.OP_XNOR:
+          evaluateGate(opcodes[c], fanInStart[c], fanInStart[c + 1], out);
+          break;
+        case Netlist.OP_USER:
+          evaluateUserGate(c);
+          break;
+        case Netlist.OP_LUT:
+          evaluateLookupTable(c);
+          break;
+        default:
+          throw new IllegalStateException("Cannot evaluate opcode " + opcodes[c] + " word by word");
+      }
+    }
+
+    for (int i = 0; i < netlist.outputFCNets.length; i++) {
+      System.arraycopy(words, netlist.outputFCNets[i] * width, outputWords, i * width, width);
+    }
+  }
+
+  /**
+   * Evaluate the gate with the given opcode which reads the nets {@code fanIn[from]} up to {@code fanIn[to]}, writing
+   * its words to {@code netWords} from {@code out}.
+   */
+  void evaluateGate(int opcode, int from, int to, int out) {
+    final long[] words = netWords;
+    final int[] fanIn = netlist.fanIn;
+    for (int w = 0; w < width; w++) {
+      long word;
+      switch (opcode) {
+        case Netlist.OP_BUF:
+          word = words[fanIn[from] * width + w];
+          break;
+        case Netlist.OP_NOT:
+          word = ~words[fanIn[from] * width + w];
+          break;
+        case Netlist.OP_AND:
+          word = and(words, fanIn, from, to, w);
+          break;
+        case Netlist.OP_OR:
+          word = or(words, fanIn, from, to, w);
+          break;
+        case Netlist.OP_NAND:
+          word = ~and(words, fanIn, from, to, w);
+          break;
+        case Netlist.OP_NOR:
+          word = ~or(words, fanIn, from, to, w);
+          break;
+        case Netlist.OP_XOR:
+          word = xor(words, fanIn, from, to, w);
+          break;
+        default:
+          word = ~xor(words, fanIn, from, to, w);
+          break;
+      }
+      words[out + w] = word;
+    }
+  }
+
+  private long and(long[] words, int[] fanIn, int from, int to, int w) {
+    long word = -1L;
+    for (int i = from; i < to; i++) {
+      word &= words[fanIn[i] * width + w];
+    }
+    return word;
+  }
+
+  private long or(long[] words, int[] fanIn, int from, int to, int w) {
+    long word = 0L;
+    for (int i = from; i < to; i++) {
+      word |= words[fanIn[i] * width + w];
+    }
+    return word;
+  }
+
+  private long xor(long[] words, int[] fanIn, int from, int to, int w) {
+    long word = 0L;
+    for (int i = from; i < to; i++) {
+      word ^= words[fanIn[i] * width + w];
+    }
+    return word;
+  }
+
+  // A lookup table is addressed by a different row in each lane, so it has to be read one lane at a time
+  private void evaluateLookupTable(int c) {
+    TruthTable table = netlist.lookupTables[netlist.aux[c]];
+    int start = netlist.fanInStart[c];
+    int numInputs = netlist.fanInStart[c + 1] - start;
+    int firstNet = netlist.outputNet[c];
+    Arrays.fill(netWords, firstNet * width, (firstNet + netlist.numOutputNets[c]) * width, 0L);
+
+    for (int w = 0; w < width; w++) {
+      for (int lane = 0; lane < 64; lane++) {
+        int row = 0;
+        for (int i = 0; i < numInputs; i++) {
+          row |= (int) ((netWords[netlist.fanIn[start + i] * width + w] >>> lane) & 1L) << i;
+        }
+        for (int i = 0; i < netlist.numOutputNets[c]; i++) {
+          netWords[(firstNet + i) * width + w] |= ((table.getColumn(i)[row >>> 6] >>> row) & 1L) << lane;
+        }
+      }
+    }
+  }
+
+  private void evaluateUserGate(int c) {
+    int userGate = netlist.aux[c];
+    long[] inputs = userGateInputs[userGate];
+    long[] outputs = userGateOutputs[userGate];
+    int start = netlist.fanInStart[c];
+    for (int i = 0; i < inputs.length / width; i++) {
+      System.arraycopy(netWords, netlist.fanIn[start + i] * width, inputs, i * width, width);
+    }
+
+    userGates[userGate].evaluate(inputs, outputs);
+
+    System.arraycopy(outputs, 0, netWords, netlist.outputNet[c] * width, outputs.length);
+  }
+
+}
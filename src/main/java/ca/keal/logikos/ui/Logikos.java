@@ -4,13 +4,17 @@ import ca.keal.logikos.field.Field;
 import ca.keal.logikos.field.InputFC;
 import ca.keal.logikos.field.OutputFC;
 import ca.keal.logikos.logic.AndGate;
+import ca.keal.logikos.logic.BufGate;
 import ca.keal.logikos.logic.Clock;
 import ca.keal.logikos.logic.Constant;
 import ca.keal.logikos.logic.Input;
 import ca.keal.logikos.logic.NandGate;
+import ca.keal.logikos.logic.NorGate;
 import ca.keal.logikos.logic.NotGate;
 import ca.keal.logikos.logic.OrGate;
 import ca.keal.logikos.logic.Output;
+import ca.keal.logikos.logic.XnorGate;
+import ca.keal.logikos.logic.XorGate;
 import javafx.application.Application;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -52,10 +56,14 @@ public class Logikos extends Application {
           (fc, isGhost) -> new OutputUIC((OutputFC) fc, isGhost),
           OutputFC.Type.LAMP, OutputFC.Type.values()),
       new PlaceComponentTool("Clock", "Add a clock", Clock::new),
-      new PlaceComponentTool("AND", "Add an AND gate", AndGate::new),
-      new PlaceComponentTool("OR", "Add an OR gate", OrGate::new),
+      new PlaceWideGateTool("AND", "Add an AND gate (scroll to change the number of inputs)", AndGate::new),
+      new PlaceWideGateTool("OR", "Add an OR gate (scroll to change the number of inputs)", OrGate::new),
       new PlaceComponentTool("NOT", "Add a NOT gate", NotGate::new),
-      new PlaceComponentTool("NAND", "Add a NAND gate", NandGate::new),
+      new PlaceWideGateTool("NAND", "Add a NAND gate (scroll to change the number of inputs)", NandGate::new),
+      new PlaceWideGateTool("NOR", "Add a NOR gate (scroll to change the number of inputs)", NorGate::new),
+      new PlaceWideGateTool("XOR", "Add an XOR gate (scroll to change the number of inputs)", XorGate::new),
+      new PlaceWideGateTool("XNOR", "Add an XNOR gate (scroll to change the number of inputs)", XnorGate::new),
+      new PlaceComponentTool("BUF", "Add a buffer", BufGate::new),
       new PlaceComponentTool("0", "Add a constant 0", () -> new Constant(false)),
       new PlaceComponentTool("1", "Add a constant 1", () -> new Constant(true)),
       
@@ -76,6 +84,9 @@ public class Logikos extends Application {
   private Tool selectedTool = DEFAULT_TOOLS[0];
   private Field field = new Field();
   
+  // Whether the RunTool settles the field instead of ticking it
+  private boolean settling = false;
+  
   public Logikos() {
     super();
     // synchronizing in case multiple threads call this at the same time
@@ -141,6 +152,14 @@ public class Logikos extends Application {
     this.field = field;
   }
   
+  public boolean isSettling() {
+    return settling;
+  }
+  
+  public void setSettling(boolean settling) {
+    this.settling = settling;
+  }
+  
   public FieldPaneController getFieldPaneController() {
     return fieldPaneController;
   }
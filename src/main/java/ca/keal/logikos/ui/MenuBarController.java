@@ -5,6 +5,7 @@ import ca.keal.logikos.util.DeserializationException;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
+import javafx.scene.control.CheckMenuItem;
 
 import java.io.IOException;
 
@@ -63,4 +64,9 @@ public class MenuBarController {
     Logikos.getInstance().getToolPaneController().addTool(new PlaceUserGateTool(userField.getName(), filename));
   }
   
+  @FXML
+  private void onSettleItemPress(ActionEvent e) {
+    Logikos.getInstance().setSettling(((CheckMenuItem) e.getSource()).isSelected());
+  }
+  
 }
@@ -1,6 +1,7 @@
 package ca.keal.logikos.ui;
 
 import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.FieldDefinitionCache;
 import ca.keal.logikos.logic.UserGate;
 import ca.keal.logikos.util.DeserializationException;
 import javafx.scene.control.Alert;
@@ -8,17 +9,17 @@ import javafx.scene.control.Alert;
 import java.io.IOException;
 
 /**
- * A {@link Tool} which places a {@link UserGate}. It handles generating the {@link UserGate}'s field from disk
- * before placing each gate.
+ * A {@link Tool} which places a {@link UserGate}. It fetches the {@link UserGate}'s field from the
+ * {@link FieldDefinitionCache} before placing each gate, so the file is only re-read from disk if it has changed.
  */
 public class PlaceUserGateTool extends PlaceComponentTool {
   
   public PlaceUserGateTool(String name, String filename) {
     super(name, "Add a custom gate: " + name, () -> {
-      // regenerate the field
+      // fetch the field, reloading it if it has changed
       Field gateField;
       try {
-        gateField = Field.fromXml(filename);
+        gateField = FieldDefinitionCache.getInstance().getDefinition(filename);
       } catch (IOException | DeserializationException e) {
         Alert alert = new Alert(Alert.AlertType.ERROR, "Error loading gate: " + e.getMessage());
         alert.show();
@@ -0,0 +1,50 @@
+package ca.keal.logikos.ui;
+
+import ca.keal.logikos.field.FieldComponent;
+import ca.keal.logikos.field.Position;
+import ca.keal.logikos.logic.LogicComponent;
+import ca.keal.logikos.logic.WideGate;
+import javafx.scene.input.ScrollEvent;
+
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * A {@link PlaceComponentTool} which places {@link WideGate}s. The number of inputs of the gate to be placed starts at
+ * {@link WideGate#MIN_INPUTS} and is changed with the scroll wheel.
+ */
+public class PlaceWideGateTool extends PlaceComponentTool {
+  
+  private final IntFunction<LogicComponent> gateMaker;
+  private int numInputs = WideGate.MIN_INPUTS;
+  
+  /**
+   * Create a new {@link PlaceWideGateTool}.
+   *
+   * @param name The name of the tool.
+   * @param tooltip The tooltip to be shown when hovering.
+   * @param gateMaker A function which makes a gate with a given number of inputs, i.e. a gate's
+   * {@code (int numInputs)} constructor.
+   */
+  public PlaceWideGateTool(String name, String tooltip, IntFunction<LogicComponent> gateMaker) {
+    super(name, tooltip, () -> gateMaker.apply(WideGate.MIN_INPUTS));
+    this.gateMaker = gateMaker;
+  }
+  
+  @Override
+  public void onScroll(ScrollEvent e) {
+    // scrolling up adds an input, down removes one
+    int delta = e.getDeltaY() >= 0 ? 1 : -1;
+    int newNumInputs = Math.max(WideGate.MIN_INPUTS, Math.min(WideGate.MAX_INPUTS, numInputs + delta));
+    if (newNumInputs == numInputs) return;
+    
+    numInputs = newNumInputs;
+    setFieldComponentMaker(fcMaker(numInputs));
+    makeGhost();
+  }
+  
+  private Function<Position, FieldComponent> fcMaker(int numInputs) {
+    return position -> new FieldComponent(gateMaker.apply(numInputs), position);
+  }
+  
+}
\ No newline at end of file
@@ -8,6 +8,7 @@ import javafx.animation.Animation;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
 import javafx.scene.Node;
+import javafx.scene.control.Alert;
 import javafx.util.Duration;
 
 /**
@@ -25,6 +26,9 @@ public class RunTool extends Tool implements EvaluationListener {
   // for pressing/releasing pressable components
   private InputUIC pressedInputUIC;
   
+  // so that an oscillating field is only complained about once per run
+  private boolean warnedOscillating = false;
+  
   public RunTool() {
     super("Run", "Run the chip", Location.EVALUATION_BOX, true);
   }
@@ -80,6 +84,7 @@ public class RunTool extends Tool implements EvaluationListener {
     
     // Reset everything on the field
     Logikos.getInstance().getField().reset();
+    warnedOscillating = false;
     
     timer.setCycleCount(Animation.INDEFINITE);
     timer.play();
@@ -108,7 +113,19 @@ public class RunTool extends Tool implements EvaluationListener {
   
   private void evaluate() {
     Field field = Logikos.getInstance().getField();
-    boolean[] outputs = field.tick(this);
+    boolean[] outputs;
+    if (Logikos.getInstance().isSettling()) {
+      // propagate everything at once rather than one component per tick
+      outputs = new boolean[field.getOutputFCs().size()];
+      if (!field.settle(this, outputs) && !warnedOscillating) {
+        warnedOscillating = true;
+        Alert alert = new Alert(Alert.AlertType.WARNING, "The chip never settles: these components are in feedback "
+            + "loops which oscillate:\n" + field.getOscillatingComponents());
+        alert.show();
+      }
+    } else {
+      outputs = field.tick(this);
+    }
     
     // Set all OutputUICs' values
     for (Node node : Logikos.getInstance().getFieldPaneController().getFieldPane().getContentChildren()) {
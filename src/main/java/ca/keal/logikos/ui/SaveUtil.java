@@ -1,6 +1,7 @@
 package ca.keal.logikos.ui;
 
 import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.FieldDefinitionCache;
 import ca.keal.logikos.util.DeserializationException;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonBar;
@@ -108,6 +109,7 @@ final class SaveUtil {
     transformer.setOutputProperty(OutputKeys.INDENT, "yes"); // for now
     transformer.setOutputProperty(OutputKeys.ENCODING, "utf-8");
     transformer.transform(new DOMSource(doc), new StreamResult(new FileOutputStream(field.getFilename())));
+    FieldDefinitionCache.getInstance().invalidate(field.getFilename());
     
     // the field is no longer modified since it's been written to
     field.setModified(false);
@@ -253,6 +253,8 @@ public class UIConnection extends Group implements Selectable {
     }
     
     Logikos.getInstance().getFieldPaneController().getFieldPane().getContentChildren().remove(this);
+    Logikos.getInstance().getField().setModified(true);
+    Logikos.getInstance().getWindowTitleManager().update();
   }
   
   /**
@@ -0,0 +1,138 @@
+package ca.keal.logikos.cli;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.FieldComponent;
+import ca.keal.logikos.field.InputFC;
+import ca.keal.logikos.field.OutputFC;
+import ca.keal.logikos.field.Position;
+import ca.keal.logikos.logic.AndGate;
+import ca.keal.logikos.logic.Input;
+import ca.keal.logikos.logic.NotGate;
+import ca.keal.logikos.logic.Output;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BatchRunnerTest {
+  
+  // Two inputs ANDed together into one output
+  private static Field andField() {
+    Field field = new Field();
+    Position origin = new Position(0, 0);
+    InputFC a = new InputFC(new Input(), origin, InputFC.Type.SWITCH);
+    InputFC b = new InputFC(new Input(), origin, InputFC.Type.SWITCH);
+    AndGate and = new AndGate();
+    Output output = new Output();
+    field.addFieldComponent(a);
+    field.addFieldComponent(b);
+    field.addFieldComponent(new FieldComponent(and, origin));
+    field.addFieldComponent(new OutputFC(output, origin, OutputFC.Type.LAMP));
+    and.getInput(0).connectTo(a.getLogicComponent().getOutput(0));
+    and.getInput(1).connectTo(b.getLogicComponent().getOutput(0));
+    output.getInput(0).connectTo(and.getOutput(0));
+    return field;
+  }
+  
+  // One input NOTed into one output
+  private static Field notField() {
+    Field field = new Field();
+    field.setName("not");
+    Position origin = new Position(0, 0);
+    InputFC a = new InputFC(new Input(), origin, InputFC.Type.SWITCH);
+    NotGate not = new NotGate();
+    Output output = new Output();
+    field.addFieldComponent(a);
+    field.addFieldComponent(new FieldComponent(not, origin));
+    field.addFieldComponent(new OutputFC(output, origin, OutputFC.Type.LAMP));
+    not.getInput(0).connectTo(a.getLogicComponent().getOutput(0));
+    output.getInput(0).connectTo(not.getOutput(0));
+    return field;
+  }
+  
+  private static Document toDocument(Field field) throws Exception {
+    Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    doc.appendChild(field.toXml(doc));
+    return doc;
+  }
+  
+  private static void write(Document doc, Path file) throws Exception {
+    TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(file.toFile()));
+  }
+  
+  private static String run(BatchRunner runner, String vectors) throws Exception {
+    StringWriter out = new StringWriter();
+    runner.run(new BufferedReader(new StringReader(vectors)), out);
+    return out.toString();
+  }
+  
+  @Test
+  @DisplayName("A row is written after the last tick of each vector")
+  void lastTickOfEachVector() throws Exception {
+    String csv = run(new BatchRunner(andField(), 3, false), "1 1\n\n# a comment\n0,1 # another\n");
+    assertEquals("tick,in0,in1,out0\n3,1,1,1\n6,0,1,0\n", csv);
+  }
+  
+  @Test
+  @DisplayName("A row is written after every tick with allTicks")
+  void allTicks() throws Exception {
+    String csv = run(new BatchRunner(andField(), 3, true), "11\n");
+    assertEquals("tick,in0,in1,out0\n1,1,1,0\n2,1,1,0\n3,1,1,1\n", csv);
+  }
+  
+  @Test
+  @DisplayName("Without vectors, every input is false")
+  void noVectors() throws Exception {
+    StringWriter out = new StringWriter();
+    new BatchRunner(andField(), 2, false).run(out);
+    assertEquals("tick,in0,in1,out0\n2,0,0,0\n", out.toString());
+  }
+  
+  @Test
+  @DisplayName("A field given by a bare relative filename can use user gates")
+  void relativeFilenameWithUserGate() throws Exception {
+    // both files in the working directory, so that the field's filename has no parent
+    Path gate = Files.createTempFile(Paths.get(""), "gate", ".lgk");
+    Path top = Files.createTempFile(Paths.get(""), "top", ".lgk");
+    try {
+      write(toDocument(notField()), gate);
+      
+      // the same field, but with a user gate made of the NOT field in place of its NOT gate
+      Document doc = toDocument(notField());
+      Element not = (Element) doc.getElementsByTagName("logicComponent").item(1);
+      assertEquals("NOT", not.getAttribute("type"));
+      not.setAttribute("type", "USER");
+      not.setAttribute("filename", gate.toString());
+      write(doc, top);
+      
+      String csv = run(new BatchRunner(BatchRunner.load(top.toString()), 10, false), "0\n1\n");
+      assertEquals("tick,in0,out0\n10,0,1\n20,1,0\n", csv);
+    } finally {
+      Files.delete(gate);
+      Files.delete(top);
+    }
+  }
+  
+  @Test
+  @DisplayName("Malformed vectors are rejected")
+  void malformedVectors() {
+    assertThrows(IllegalArgumentException.class, () -> run(new BatchRunner(andField(), 1, false), "1\n"));
+    assertThrows(IllegalArgumentException.class, () -> run(new BatchRunner(andField(), 1, false), "101\n"));
+    assertThrows(IllegalArgumentException.class, () -> run(new BatchRunner(andField(), 1, false), "1x\n"));
+  }
+  
+}
@@ -0,0 +1,119 @@
+package ca.keal.logikos.field;
+
+import ca.keal.logikos.logic.Input;
+import ca.keal.logikos.logic.NotGate;
+import ca.keal.logikos.logic.Output;
+import ca.keal.logikos.logic.Port;
+import ca.keal.logikos.util.DeserializationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FieldDefinitionCacheTest {
+  
+  private final FieldDefinitionCache cache = new FieldDefinitionCache();
+  private Path dir;
+  
+  @BeforeEach
+  void createDirectory() throws Exception {
+    dir = Files.createTempDirectory("logikos");
+  }
+  
+  @AfterEach
+  void deleteDirectory() throws Exception {
+    for (File file : dir.toFile().listFiles()) {
+      Files.delete(file.toPath());
+    }
+    Files.delete(dir);
+  }
+  
+  // Write a field with one input, numNots NOT gates in a chain, and one output
+  private String writeField(String filename, int numNots) throws Exception {
+    Field field = new Field();
+    field.setName("gate");
+    Position origin = new Position(0, 0);
+    InputFC inputFC = new InputFC(new Input(), origin, InputFC.Type.SWITCH);
+    field.addFieldComponent(inputFC);
+    Output output = new Output();
+    field.addFieldComponent(new OutputFC(output, origin, OutputFC.Type.LAMP));
+    Port.Output last = inputFC.getLogicComponent().getOutput(0);
+    for (int i = 0; i < numNots; i++) {
+      NotGate not = new NotGate();
+      field.addFieldComponent(new FieldComponent(not, origin));
+      not.getInput(0).connectTo(last);
+      last = not.getOutput(0);
+    }
+    output.getInput(0).connectTo(last);
+    
+    Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    doc.appendChild(field.toXml(doc));
+    File file = dir.resolve(filename).toFile();
+    TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(file));
+    return file.getPath();
+  }
+  
+  @Test
+  @DisplayName("A file is only parsed once, even through different paths")
+  void parsesOnce() throws Exception {
+    String filename = writeField("gate.lgk", 1);
+    Field first = cache.getDefinition(filename);
+    Field second = cache.getDefinition(dir.resolve(".").resolve("gate.lgk").toString());
+    
+    assertEquals(1, cache.size());
+    assertSame(first, second);
+    assertEquals(3, first.getFieldComponents().size());
+    assertEquals(filename, first.getFilename());
+  }
+  
+  @Test
+  @DisplayName("A file is parsed again after it changes on disk")
+  void reparsesChangedFile() throws Exception {
+    String filename = writeField("gate.lgk", 1);
+    FileTime modified = Files.getLastModifiedTime(dir.resolve("gate.lgk"));
+    assertEquals(3, cache.getDefinition(filename).getFieldComponents().size());
+    
+    writeField("gate.lgk", 2);
+    Files.setLastModifiedTime(dir.resolve("gate.lgk"), FileTime.fromMillis(modified.toMillis() + 2000));
+    assertEquals(4, cache.getDefinition(filename).getFieldComponents().size());
+    assertEquals(1, cache.size());
+  }
+  
+  @Test
+  @DisplayName("An invalidated file is parsed again even if it looks unchanged")
+  void invalidate() throws Exception {
+    String filename = writeField("gate.lgk", 1);
+    FileTime modified = Files.getLastModifiedTime(dir.resolve("gate.lgk"));
+    Field old = cache.getDefinition(filename);
+    
+    // same size and modification time
+    writeField("gate.lgk", 1);
+    Files.setLastModifiedTime(dir.resolve("gate.lgk"), modified);
+    assertSame(old, cache.getDefinition(filename));
+    cache.invalidate(filename);
+    assertEquals(0, cache.size());
+    assertNotSame(old, cache.getDefinition(filename));
+  }
+  
+  @Test
+  @DisplayName("A missing file has no definition")
+  void missingFile() {
+    assertThrows(DeserializationException.class, () -> cache.getDefinition(dir.resolve("missing.lgk").toString()));
+  }
+  
+}
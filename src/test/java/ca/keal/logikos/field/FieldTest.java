@@ -1,5 +1,6 @@
 package ca.keal.logikos.field;
 
+import ca.keal.logikos.logic.NotGate;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -117,4 +118,22 @@ class FieldTest {
     assertTrue(outputFiltered.contains(outputFC2));
   }
   
-}
\ No newline at end of file
+  @Test
+  @DisplayName("Components are indexed densely by their position in the field, even after removals")
+  void componentsAreIndexedDensely() {
+    Field field = new Field();
+    FieldComponent[] fcs = new FieldComponent[5];
+    for (int i = 0; i < fcs.length; i++) {
+      fcs[i] = new FieldComponent(new NotGate(), new Position(i, 0));
+      field.addFieldComponent(fcs[i]);
+      assertEquals(i, fcs[i].getLogicComponent().getIndex());
+    }
+    
+    field.removeFieldComponent(fcs[1]);
+    assertEquals(-1, fcs[1].getLogicComponent().getIndex());
+    for (int i = 0; i < field.getFieldComponents().size(); i++) {
+      assertEquals(i, field.getFieldComponents().get(i).getLogicComponent().getIndex());
+    }
+  }
+  
+}
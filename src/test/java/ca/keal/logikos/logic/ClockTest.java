@@ -0,0 +1,93 @@
+package ca.keal.logikos.logic;
+
+import ca.keal.logikos.util.DeserializationException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClockTest {
+  
+  // Tick the clock on its own and return its output
+  private static boolean tick(Clock clock) {
+    clock.tick(null);
+    clock.updateOutputs();
+    return clock.getOutputValue(0);
+  }
+  
+  @DisplayName("A default clock is low for 200 ticks, then high for 200 ticks")
+  @Test
+  void defaultSchedule() {
+    Clock clock = new Clock();
+    for (int tick = 1; tick <= 1000; tick++) {
+      assertEquals((tick - 1) % 400 >= 200, tick(clock), "tick " + tick);
+    }
+  }
+  
+  @DisplayName("Period, high ticks and phase set the schedule, and edges are found where the value changes")
+  @Test
+  void customSchedule() {
+    Clock clock = new Clock(7, 2, 3);
+    boolean[] expected = {false, false, false, false, false, true, true}; // by position in the period
+    for (int tick = 1; tick <= 30; tick++) {
+      assertEquals(expected[(tick - 1 + 3) % 7], tick(clock), "tick " + tick);
+      
+      long edge = tick + 1;
+      while (clock.getValueAt(edge) == clock.getValueAt(tick)) {
+        edge++;
+      }
+      assertEquals(edge, clock.getNextEdgeAfter(tick), "tick " + tick);
+    }
+  }
+  
+  @DisplayName("Resetting a clock starts its schedule over")
+  @Test
+  void resetClearsCounter() {
+    Clock clock = new Clock(4, 1, 0);
+    for (int tick = 0; tick < 3; tick++) {
+      tick(clock);
+    }
+    clock.reset();
+    assertFalse(tick(clock));
+    assertFalse(tick(clock));
+    assertFalse(tick(clock));
+    assertTrue(tick(clock));
+  }
+  
+  @DisplayName("Clocks reject out-of-range schedules")
+  @Test
+  void rejectsBadSchedules() {
+    assertThrows(IllegalArgumentException.class, () -> new Clock(1, 1, 0));
+    assertThrows(IllegalArgumentException.class, () -> new Clock(10, 10, 0));
+    assertThrows(IllegalArgumentException.class, () -> new Clock(10, 0, 0));
+    assertThrows(IllegalArgumentException.class, () -> new Clock(10, 5, 10));
+  }
+  
+  @DisplayName("The schedule survives toXml() and fromXml(), and is left out for default clocks")
+  @Test
+  void xmlRoundTrip() throws Exception {
+    Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    
+    Element defaultElem = new Clock().toXml(doc);
+    assertFalse(defaultElem.hasAttribute("period"));
+    assertFalse(defaultElem.hasAttribute("high"));
+    assertFalse(defaultElem.hasAttribute("phase"));
+    
+    Clock read = (Clock) LogicComponent.fromXml(new Clock(12, 3, 5).toXml(doc), null);
+    assertEquals(12, read.getPeriod());
+    assertEquals(3, read.getHighTicks());
+    assertEquals(5, read.getPhase());
+    
+    Element bad = new Clock().toXml(doc);
+    bad.setAttribute("high", "400");
+    assertThrows(DeserializationException.class, () -> LogicComponent.fromXml(bad, null));
+  }
+  
+}
@@ -0,0 +1,120 @@
+package ca.keal.logikos.logic;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.FieldComponent;
+import ca.keal.logikos.field.InputFC;
+import ca.keal.logikos.field.OutputFC;
+import ca.keal.logikos.field.Position;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EvaluationAllocationTest {
+  
+  private static final int TICKS = 20_000;
+  
+  @Test
+  @DisplayName("Ticking each LogicComponent directly does not allocate")
+  void componentTickDoesNotAllocate() {
+    Field field = buildField();
+    LogicComponent[] components = field.getFieldComponents().stream()
+        .map(FieldComponent::getLogicComponent)
+        .toArray(LogicComponent[]::new);
+    InputFC input = field.getInputFCs().get(0);
+    
+    Runnable tick = () -> {
+      input.toggle();
+      for (LogicComponent lc : components) {
+        lc.updateInputs();
+      }
+      for (LogicComponent lc : components) {
+        lc.tick(null);
+      }
+      for (LogicComponent lc : components) {
+        lc.updateOutputs();
+      }
+    };
+    
+    assertNoAllocationPerTick(tick);
+  }
+  
+  @Test
+  @DisplayName("Field.tick() into a caller-owned buffer does not allocate")
+  void fieldTickDoesNotAllocate() {
+    for (boolean eventDriven : new boolean[] {false, true}) {
+      Field field = buildField();
+      field.setEventDriven(eventDriven);
+      boolean[] outputs = new boolean[field.getOutputFCs().size()];
+      InputFC input = field.getInputFCs().get(0);
+      
+      assertNoAllocationPerTick(() -> {
+        input.toggle();
+        field.tick(null, outputs);
+      });
+    }
+  }
+  
+  private static void assertNoAllocationPerTick(Runnable tick) {
+    // warm up so that the compilation of the field and the JIT don't count
+    for (int i = 0; i < TICKS; i++) {
+      tick.run();
+    }
+    
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < TICKS; i++) {
+      tick.run();
+    }
+    long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+    
+    // anything allocated on every tick would be at least 16 bytes per tick
+    assertTrue(allocated < TICKS, "Allocated " + allocated + " bytes in " + TICKS + " ticks");
+  }
+  
+  // An SR latch built from NANDs and a user gate, with a clock and a constant
+  private static Field buildField() {
+    Position origin = new Position(0, 0);
+    
+    Field inner = new Field();
+    inner.setName("NOT");
+    InputFC innerInput = new InputFC(new Input(), origin, InputFC.Type.SWITCH);
+    NotGate innerNot = new NotGate();
+    OutputFC innerOutput = new OutputFC(new Output(), origin, OutputFC.Type.LAMP);
+    inner.addFieldComponent(innerInput);
+    inner.addFieldComponent(new FieldComponent(innerNot, origin));
+    inner.addFieldComponent(innerOutput);
+    innerNot.getInput(0).connectTo(innerInput.getLogicComponent().getOutput(0));
+    innerOutput.getLogicComponent().getInput(0).connectTo(innerNot.getOutput(0));
+    
+    Field field = new Field();
+    field.setName("latch");
+    InputFC set = new InputFC(new Input(), origin, InputFC.Type.SWITCH);
+    Clock clock = new Clock();
+    Constant one = new Constant(true);
+    UserGate notSet = new UserGate(inner);
+    NandGate top = new NandGate();
+    NandGate bottom = new NandGate();
+    OutputFC output = new OutputFC(new Output(), origin, OutputFC.Type.LAMP);
+    field.addFieldComponent(set);
+    field.addFieldComponent(new FieldComponent(clock, origin));
+    field.addFieldComponent(new FieldComponent(one, origin));
+    field.addFieldComponent(new FieldComponent(notSet, origin));
+    field.addFieldComponent(new FieldComponent(top, origin));
+    field.addFieldComponent(new FieldComponent(bottom, origin));
+    field.addFieldComponent(output);
+    
+    notSet.getInput(0).connectTo(set.getLogicComponent().getOutput(0));
+    top.getInput(0).connectTo(notSet.getOutput(0));
+    top.getInput(1).connectTo(bottom.getOutput(0));
+    bottom.getInput(0).connectTo(top.getOutput(0));
+    bottom.getInput(1).connectTo(clock.getOutput(0));
+    output.getLogicComponent().getInput(0).connectTo(top.getOutput(0));
+    
+    return field;
+  }
+  
+}
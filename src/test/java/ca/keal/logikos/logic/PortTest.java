@@ -4,7 +4,9 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class PortTest {
@@ -78,4 +80,37 @@ class PortTest {
     assertTrue(outputPort2.getConnections().contains(inputPort2.getConnection()));
   }
   
-}
\ No newline at end of file
+  @DisplayName("Disconnecting from a port with a large fan-out leaves its other connections alone")
+  @Test
+  void removeFromLargeFanOut() {
+    Port.Output outputPort = new Port.Output(0, new Input());
+    Port.Input[] inputPorts = new Port.Input[1000];
+    for (int i = 0; i < inputPorts.length; i++) {
+      inputPorts[i] = new Port.Input(0, new Output());
+      inputPorts[i].connectTo(outputPort);
+    }
+    
+    for (int i = 0; i < inputPorts.length; i += 3) {
+      inputPorts[i].getConnection().destruct();
+    }
+    
+    assertEquals(666, outputPort.getConnections().size());
+    for (int i = 0; i < inputPorts.length; i++) {
+      if (i % 3 == 0) {
+        assertNull(inputPorts[i].getConnection());
+      } else {
+        assertTrue(outputPort.getConnections().contains(inputPorts[i].getConnection()));
+      }
+    }
+  }
+  
+  @DisplayName("Port 0 of different components, and inputs and outputs with the same number, are told apart")
+  @Test
+  void portsHashApart() {
+    LogicComponent gate = new AndGate();
+    assertNotEquals(gate.getInput(0), gate.getOutput(0));
+    assertNotEquals(0, gate.getOutput(0).hashCode());
+    assertNotEquals(new NotGate().getOutput(0).hashCode(), new NotGate().getOutput(0).hashCode());
+  }
+  
+}
@@ -0,0 +1,90 @@
+package ca.keal.logikos.logic;
+
+import ca.keal.logikos.util.DeserializationException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WideGateTest {
+  
+  @DisplayName("Wide gates compute their function over every input")
+  @Test
+  void evaluatesEveryInput() {
+    for (int numInputs = WideGate.MIN_INPUTS; numInputs <= 5; numInputs++) {
+      for (int vector = 0; vector < 1 << numInputs; vector++) {
+        int ones = Integer.bitCount(vector);
+        boolean all = ones == numInputs;
+        boolean any = ones > 0;
+        boolean odd = ones % 2 == 1;
+        String message = numInputs + " inputs, vector " + vector;
+        
+        assertEquals(all, eval(new AndGate(numInputs), vector), message);
+        assertEquals(any, eval(new OrGate(numInputs), vector), message);
+        assertEquals(!all, eval(new NandGate(numInputs), vector), message);
+        assertEquals(!any, eval(new NorGate(numInputs), vector), message);
+        assertEquals(odd, eval(new XorGate(numInputs), vector), message);
+        assertEquals(!odd, eval(new XnorGate(numInputs), vector), message);
+      }
+    }
+  }
+  
+  @DisplayName("BUF passes its input through")
+  @Test
+  void bufPassesThrough() {
+    assertFalse(eval(new BufGate(), 0));
+    assertTrue(eval(new BufGate(), 1));
+  }
+  
+  @DisplayName("Wide gates reject too few or too many inputs")
+  @Test
+  void rejectsBadNumInputs() {
+    assertThrows(IllegalArgumentException.class, () -> new AndGate(1));
+    assertThrows(IllegalArgumentException.class, () -> new XorGate(WideGate.MAX_INPUTS + 1));
+    assertEquals(WideGate.MAX_INPUTS, new OrGate(WideGate.MAX_INPUTS).getNumInputs());
+  }
+  
+  @DisplayName("The number of inputs survives toXml() and fromXml(), and defaults to 2")
+  @Test
+  void numInputsRoundTrips() throws Exception {
+    Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    List<IntFunction<LogicComponent>> makers = Arrays.asList(AndGate::new, OrGate::new, NandGate::new, NorGate::new,
+        XorGate::new, XnorGate::new);
+    for (IntFunction<LogicComponent> maker : makers) {
+      for (int numInputs : new int[] {2, 3, 64}) {
+        LogicComponent gate = maker.apply(numInputs);
+        Element elem = gate.toXml(doc);
+        assertEquals(numInputs != 2, elem.hasAttribute("inputs"));
+        
+        LogicComponent read = LogicComponent.fromXml(elem, null);
+        assertEquals(gate.getClass(), read.getClass());
+        assertEquals(numInputs, read.getNumInputs());
+      }
+    }
+    
+    Element bad = new AndGate(3).toXml(doc);
+    bad.setAttribute("inputs", "65");
+    assertThrows(DeserializationException.class, () -> LogicComponent.fromXml(bad, null));
+  }
+  
+  private static boolean eval(Gate gate, int vector) {
+    boolean[] input = new boolean[gate.getNumInputs()];
+    for (int i = 0; i < input.length; i++) {
+      input[i] = (vector >>> i & 1) != 0;
+    }
+    boolean[] output = new boolean[1];
+    gate.logicalEval(input, output);
+    return output[0];
+  }
+  
+}
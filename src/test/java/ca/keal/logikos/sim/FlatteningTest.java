@@ -0,0 +1,174 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.InputFC;
+import ca.keal.logikos.logic.EvaluationListener;
+import ca.keal.logikos.logic.LogicComponent;
+import ca.keal.logikos.logic.NotGate;
+import ca.keal.logikos.logic.UserGate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static ca.keal.logikos.sim.TestCircuits.add;
+import static ca.keal.logikos.sim.TestCircuits.addInput;
+import static ca.keal.logikos.sim.TestCircuits.addOutput;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FlatteningTest {
+  
+  @Test
+  @DisplayName("Flattening with per-level timing matches nested simulation exactly")
+  void perLevelTimingMatchesNested() {
+    for (long seed = 0; seed < 5; seed++) {
+      Field field = TestCircuits.randomNestedField(seed, 3);
+      Simulation nested = new Simulation(Netlist.compile(field, Netlist.Flattening.NONE));
+      Simulation flat = new Simulation(Netlist.compile(field, Netlist.Flattening.PER_LEVEL_TIMING));
+      Simulation flatEventDriven = new Simulation(Netlist.compile(field, Netlist.Flattening.PER_LEVEL_TIMING));
+      flatEventDriven.setEventDriven(true);
+      assertEquals(0, flat.getNetlist().userGates.length);
+      
+      Random random = new Random(seed);
+      for (int tick = 0; tick < 1000; tick++) {
+        if (tick % 5 == 0) {
+          int slot = random.nextInt(3);
+          boolean value = random.nextBoolean();
+          nested.setInput(slot, value);
+          flat.setInput(slot, value);
+          flatEventDriven.setInput(slot, value);
+        }
+        nested.tick(null);
+        flat.tick(null);
+        flatEventDriven.tick(null);
+        for (int output = 0; output < field.getOutputFCs().size(); output++) {
+          assertEquals(nested.getOutput(output), flat.getOutput(output), "seed " + seed + ", tick " + tick);
+          assertEquals(nested.getOutput(output), flatEventDriven.getOutput(output), "seed " + seed + ", tick " + tick);
+        }
+      }
+    }
+  }
+  
+  @Test
+  @DisplayName("Flattening without delays gives the same truth table and removes the boundary delays")
+  void zeroDelay() {
+    Field inner = new Field();
+    inner.setName("NOT");
+    addOutput(inner, add(inner, new NotGate(), addInput(inner).getLogicComponent()));
+    Field middle = new Field();
+    middle.setName("NOT NOT NOT");
+    UserGate first = add(middle, new UserGate(inner), addInput(middle).getLogicComponent());
+    UserGate second = add(middle, new UserGate(inner), first);
+    addOutput(middle, add(middle, new UserGate(inner), second));
+    
+    Field field = new Field();
+    InputFC input = addInput(field);
+    addOutput(field, add(field, new UserGate(middle), input.getLogicComponent()));
+    
+    Netlist flat = Netlist.compile(field, Netlist.Flattening.ZERO_DELAY);
+    assertEquals(5, flat.getNumComponents()); // the input, three NOTs and the output
+    assertArrayEquals(TruthTable.of(field).getColumn(0), TruthTable.of(flat).getColumn(0));
+    
+    // the same as the three NOTs placed directly in the field
+    Field direct = new Field();
+    LogicComponent last = addInput(direct).getLogicComponent();
+    for (int i = 0; i < 3; i++) {
+      last = add(direct, new NotGate(), last);
+    }
+    addOutput(direct, last);
+    
+    Simulation flatSim = new Simulation(flat);
+    Simulation directSim = new Simulation(Netlist.compile(direct));
+    flatSim.setInput(0, true);
+    directSim.setInput(0, true);
+    for (int tick = 0; tick < 10; tick++) {
+      flatSim.tick(null);
+      directSim.tick(null);
+      assertEquals(directSim.getOutput(0), flatSim.getOutput(0), "tick " + tick);
+    }
+  }
+  
+  @Test
+  @DisplayName("Listeners are told about user gates, not the components inlined from them")
+  void eventsForFieldComponents() {
+    Field inner = new Field();
+    inner.setName("NOT");
+    addOutput(inner, add(inner, new NotGate(), addInput(inner).getLogicComponent()));
+    Field field = new Field();
+    field.setEventDriven(false);
+    InputFC input = addInput(field);
+    UserGate userGate = add(field, new UserGate(inner), input.getLogicComponent());
+    addOutput(field, userGate);
+    
+    List<EvaluationListener.Event> events = new ArrayList<>();
+    field.tick(events::add);
+    field.tick(events::add);
+    field.tick(events::add);
+    
+    // one event for each of the input, the user gate and the output on each tick, and none for the NOT inside
+    assertEquals(9, events.size());
+    int userGateEvents = 0;
+    for (EvaluationListener.Event e : events) {
+      if (e.getLogicComponent() == userGate) {
+        userGateEvents++;
+      }
+    }
+    assertEquals(3, userGateEvents);
+    assertArrayEquals(new boolean[] {true}, events.get(events.size() - 2).getOutputs());
+  }
+  
+  @Test
+  @DisplayName("Instances of one user gate share its definition but not its state")
+  void sharedDefinition() {
+    // zero-delay flattening changes the timing, so it can't be compared with ticking each component
+    for (Netlist.Flattening flattening : new Netlist.Flattening[] {Netlist.Flattening.NONE,
+        Netlist.Flattening.PER_LEVEL_TIMING}) {
+      Field definition = TestCircuits.randomNestedField(7, 2);
+      Field field = new Field();
+      field.setFlattening(flattening);
+      List<LogicComponent> inputs = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        inputs.add(addInput(field).getLogicComponent());
+      }
+      for (int i = 0; i < 3; i++) {
+        UserGate userGate = add(field, new UserGate(definition), inputs.get(i), inputs.get((i + 1) % 3), inputs.get(0));
+        addOutput(field, userGate);
+      }
+      
+      if (flattening == Netlist.Flattening.NONE) {
+        Netlist netlist = field.getNetlist();
+        assertSame(netlist.userGates[0], netlist.userGates[1]);
+        assertSame(netlist.userGates[0], netlist.userGates[2]);
+      }
+      
+      Random random = new Random(7);
+      for (int tick = 0; tick < 500; tick++) {
+        if (tick % 5 == 0) {
+          field.getInputFCs().get(random.nextInt(3)).toggle();
+        }
+        boolean[] expected = TestCircuits.referenceTick(field);
+        assertArrayEquals(expected, field.tick(null), flattening + ", tick " + tick);
+      }
+    }
+  }
+  
+  @Test
+  @DisplayName("A user gate wired straight through to itself can't be flattened without delays")
+  void wireLoop() {
+    Field inner = new Field();
+    inner.setName("wire");
+    addOutput(inner, addInput(inner).getLogicComponent());
+    Field field = new Field();
+    UserGate userGate = add(field, new UserGate(inner));
+    userGate.getInput(0).connectTo(userGate.getOutput(0));
+    
+    assertThrows(IllegalStateException.class, () -> Netlist.compile(field, Netlist.Flattening.ZERO_DELAY));
+    Netlist.compile(field, Netlist.Flattening.PER_LEVEL_TIMING);
+  }
+  
+}
@@ -0,0 +1,96 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.logic.LogicComponent;
+import ca.keal.logikos.logic.UserGate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static ca.keal.logikos.sim.TestCircuits.add;
+import static ca.keal.logikos.sim.TestCircuits.addInput;
+import static ca.keal.logikos.sim.TestCircuits.addOutput;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LaneSimulationTest {
+  
+  // Run 64 separate simulations on random stimulus alongside one lane simulation given the same stimulus lane by lane
+  private static void assertLanesMatch(Netlist netlist, long seed) {
+    Simulation[] references = new Simulation[LaneSimulation.LANES];
+    for (int lane = 0; lane < references.length; lane++) {
+      references[lane] = new Simulation(netlist);
+    }
+    LaneSimulation lanes = new LaneSimulation(netlist);
+    Random random = new Random(seed);
+    
+    for (int tick = 0; tick < 200; tick++) {
+      if (tick % 5 == 0) {
+        for (int slot = 0; slot < netlist.getNumInputs(); slot++) {
+          long stimulus = random.nextLong();
+          lanes.setInput(slot, stimulus);
+          for (int lane = 0; lane < references.length; lane++) {
+            references[lane].setInput(slot, (stimulus >>> lane & 1L) != 0);
+          }
+        }
+      }
+      lanes.tick();
+      for (int lane = 0; lane < references.length; lane++) {
+        references[lane].tick(null);
+        for (int output = 0; output < netlist.getNumOutputs(); output++) {
+          assertEquals(references[lane].getOutput(output), lanes.getOutput(output, lane),
+              "seed " + seed + ", tick " + tick + ", lane " + lane + ", output " + output);
+        }
+      }
+    }
+  }
+  
+  @Test
+  @DisplayName("Every lane ticks exactly like a separate simulation, however the netlist is flattened")
+  void lanesMatchSimulations() {
+    for (long seed = 0; seed < 3; seed++) {
+      for (Netlist.Flattening flattening : Netlist.Flattening.values()) {
+        assertLanesMatch(Netlist.compile(TestCircuits.randomNestedField(seed, 2), flattening), seed);
+      }
+    }
+  }
+  
+  @Test
+  @DisplayName("Lookup tables are read with a different row in every lane")
+  void lanesMatchThroughLookupTables() {
+    Field field = new Field();
+    UserGate gate = new UserGate(TestCircuits.randomCombinationalField(1, 5, 25));
+    LogicComponent[] inputs = new LogicComponent[gate.getNumInputs()];
+    for (int i = 0; i < inputs.length; i++) {
+      inputs[i] = addInput(field).getLogicComponent();
+    }
+    add(field, gate, inputs);
+    for (int i = 0; i < gate.getNumOutputs(); i++) {
+      addOutput(field, gate, i);
+    }
+    
+    Netlist netlist = Netlist.compile(field, Netlist.Flattening.LOOKUP_TABLE);
+    assertEquals(1, netlist.lookupTables.length);
+    assertLanesMatch(netlist, 1);
+  }
+  
+  @Test
+  @DisplayName("Inputs can be set one lane at a time, and resetting clears every lane")
+  void singleLaneInputs() {
+    LaneSimulation lanes = new LaneSimulation(Netlist.compile(TestCircuits.randomField(0, 4, 30)));
+    lanes.setInput(2, 5, true);
+    lanes.setInput(2, 63, true);
+    assertEquals(1L << 5 | 1L << 63, lanes.getInput(2));
+    lanes.setInput(2, 5, false);
+    assertEquals(1L << 63, lanes.getInput(2));
+    
+    lanes.run(10);
+    assertEquals(10, lanes.getTime());
+    lanes.reset();
+    assertEquals(0, lanes.getTime());
+    assertEquals(0L, lanes.getInput(2));
+    assertThrows(IllegalArgumentException.class, () -> lanes.run(-1));
+  }
+  
+}
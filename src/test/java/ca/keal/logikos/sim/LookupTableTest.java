@@ -0,0 +1,157 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.InputFC;
+import ca.keal.logikos.logic.Clock;
+import ca.keal.logikos.logic.LogicComponent;
+import ca.keal.logikos.logic.NotGate;
+import ca.keal.logikos.logic.UserGate;
+import ca.keal.logikos.logic.XorGate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static ca.keal.logikos.sim.TestCircuits.add;
+import static ca.keal.logikos.sim.TestCircuits.addInput;
+import static ca.keal.logikos.sim.TestCircuits.addOutput;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LookupTableTest {
+  
+  private Path dir;
+  
+  @BeforeEach
+  void createDirectory() throws Exception {
+    dir = Files.createTempDirectory("logikos");
+  }
+  
+  @AfterEach
+  void deleteDirectory() throws Exception {
+    for (File file : dir.toFile().listFiles()) {
+      Files.delete(file.toPath());
+    }
+    Files.delete(dir);
+  }
+  
+  // A field with an input for each of the gate's inputs, feeding one instance of the gate, whose outputs are outputs
+  private static Field wrap(Field gateField) {
+    Field field = new Field();
+    UserGate gate = new UserGate(gateField);
+    LogicComponent[] inputs = new LogicComponent[gate.getNumInputs()];
+    for (int i = 0; i < inputs.length; i++) {
+      inputs[i] = addInput(field).getLogicComponent();
+    }
+    add(field, gate, inputs);
+    for (int i = 0; i < gate.getNumOutputs(); i++) {
+      addOutput(field, gate, i);
+    }
+    return field;
+  }
+  
+  @Test
+  @DisplayName("A combinational user gate becomes a lookup table which settles to the same outputs in one tick")
+  void combinationalGateIsTabulated() {
+    for (long seed = 0; seed < 5; seed++) {
+      Field inner = TestCircuits.randomCombinationalField(seed, 6, 30);
+      Field field = wrap(inner);
+      field.setFlattening(Netlist.Flattening.LOOKUP_TABLE);
+      assertEquals(1, field.getNetlist().lookupTables.length);
+      assertEquals(0, field.getNetlist().userGates.length);
+      
+      Field reference = wrap(inner);
+      List<InputFC> inputFCs = field.getInputFCs();
+      boolean[] outputs = new boolean[field.getOutputFCs().size()];
+      boolean[] expected = new boolean[outputs.length];
+      for (int row = 0; row < 1 << inputFCs.size(); row++) {
+        for (int i = 0; i < inputFCs.size(); i++) {
+          inputFCs.get(i).getLogicComponent().setValue((row >>> i & 1) != 0);
+          reference.getInputFCs().get(i).getLogicComponent().setValue((row >>> i & 1) != 0);
+        }
+        reference.settle(null, expected);
+        
+        // one tick each for the inputs, the table, and the outputs
+        for (int tick = 0; tick < 3; tick++) {
+          field.tick(null, outputs);
+        }
+        assertArrayEquals(expected, outputs, "seed " + seed + ", row " + row);
+      }
+    }
+  }
+  
+  @Test
+  @DisplayName("Truth tables see through lookup tables")
+  void truthTableThroughLookupTable() {
+    Field inner = TestCircuits.randomCombinationalField(7, 8, 40);
+    Netlist netlist = Netlist.compile(wrap(inner), Netlist.Flattening.LOOKUP_TABLE);
+    assertEquals(1, netlist.lookupTables.length);
+    
+    TruthTable expected = TruthTable.of(inner);
+    TruthTable actual = TruthTable.of(netlist);
+    for (int output = 0; output < expected.getNumOutputs(); output++) {
+      assertArrayEquals(expected.getColumn(output), actual.getColumn(output));
+    }
+  }
+  
+  @Test
+  @DisplayName("Sequential user gates and user gates with too many inputs are inlined instead")
+  void onlyCombinationalGatesAreTabulated() {
+    Field clocked = new Field();
+    clocked.setName("clocked");
+    InputFC a = addInput(clocked);
+    addOutput(clocked, add(clocked, new XorGate(), a.getLogicComponent(), add(clocked, new Clock())));
+    assertNull(LookupTableCache.get(clocked));
+    
+    Field wide = TestCircuits.randomCombinationalField(0, LookupTableCache.MAX_INPUTS + 1, 20);
+    assertNull(LookupTableCache.get(wide));
+    
+    Field field = wrap(clocked);
+    field.setFlattening(Netlist.Flattening.LOOKUP_TABLE);
+    assertEquals(0, field.getNetlist().lookupTables.length);
+  }
+  
+  @Test
+  @DisplayName("Lookup tables are read back from their sidecar until the gate's logic changes")
+  void sidecarIsReused() throws Exception {
+    Field inner = TestCircuits.randomCombinationalField(3, 4, 20);
+    inner.setFilename(dir.resolve("gate.lgk").toString());
+    Path sidecar = dir.resolve("gate.lut");
+    
+    TruthTable computed = LookupTableCache.get(inner);
+    assertTrue(Files.exists(sidecar));
+    
+    // Flip a bit of the saved table; if the sidecar is read, the flipped bit comes back
+    try (RandomAccessFile file = new RandomAccessFile(sidecar.toFile(), "rw")) {
+      file.seek(file.length() - 1);
+      int last = file.read();
+      file.seek(file.length() - 1);
+      file.write(last ^ 1);
+    }
+    TruthTable read = LookupTableCache.get(inner);
+    int lastOutput = computed.getNumOutputs() - 1;
+    assertNotEquals(computed.getColumn(lastOutput)[0], read.getColumn(lastOutput)[0]);
+    
+    // Changing the logic changes the hash, so the stale sidecar is ignored and replaced
+    LogicComponent lastGate = inner.getOutputFCs().get(0).getLogicComponent().getInput(0).getConnection().getOutput()
+        .getComponent();
+    NotGate not = add(inner, new NotGate(), lastGate);
+    inner.getOutputFCs().get(0).getLogicComponent().getInput(0).connectTo(not.getOutput(0));
+    TruthTable recomputed = LookupTableCache.get(inner);
+    TruthTable expected = TruthTable.of(inner);
+    for (int output = 0; output < expected.getNumOutputs(); output++) {
+      assertArrayEquals(expected.getColumn(output), recomputed.getColumn(output));
+    }
+    assertArrayEquals(recomputed.getColumn(lastOutput), LookupTableCache.get(inner).getColumn(lastOutput));
+  }
+  
+}
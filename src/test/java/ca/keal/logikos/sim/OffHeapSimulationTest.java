@@ -0,0 +1,105 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.util.DeserializationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OffHeapSimulationTest {
+  
+  private Path dir;
+  
+  @BeforeEach
+  void createDirectory() throws Exception {
+    dir = Files.createTempDirectory("logikos");
+  }
+  
+  @AfterEach
+  void deleteDirectory() throws Exception {
+    for (File file : dir.toFile().listFiles()) {
+      Files.delete(file.toPath());
+    }
+    Files.delete(dir);
+  }
+  
+  @Test
+  @DisplayName("An off-heap simulation ticks exactly like a simulation on the heap, whether copied or mapped")
+  void matchesSimulation() throws Exception {
+    for (long seed = 0; seed < 5; seed++) {
+      Netlist netlist = Netlist.compile(TestCircuits.randomNestedField(seed, 2), Netlist.Flattening.PER_LEVEL_TIMING);
+      Path file = dir.resolve("netlist" + seed + ".lgn");
+      OffHeapNetlist.of(netlist).write(file);
+      
+      Simulation reference = new Simulation(netlist);
+      OffHeapSimulation copied = new OffHeapSimulation(OffHeapNetlist.of(netlist));
+      OffHeapSimulation mapped = new OffHeapSimulation(OffHeapNetlist.map(file));
+      Random random = new Random(seed);
+      
+      for (int tick = 0; tick < 500; tick++) {
+        if (tick % 7 == 0 && netlist.getNumInputs() > 0) {
+          int slot = random.nextInt(netlist.getNumInputs());
+          boolean value = random.nextBoolean();
+          reference.setInput(slot, value);
+          copied.setInput(slot, value);
+          mapped.setInput(slot, value);
+        }
+        reference.tick(null);
+        copied.tick();
+        mapped.tick();
+        for (int net = 0; net < netlist.getNumNets(); net++) {
+          String message = "seed " + seed + ", tick " + tick + ", net " + net;
+          assertEquals(reference.getNetValue(net), copied.getNetValue(net), message);
+          assertEquals(reference.getNetValue(net), mapped.getNetValue(net), message);
+        }
+      }
+      
+      mapped.reset();
+      assertEquals(0, mapped.getTime());
+      for (int net = 0; net < netlist.getNumNets(); net++) {
+        assertEquals(false, mapped.getNetValue(net));
+      }
+    }
+  }
+  
+  @Test
+  @DisplayName("Only flat netlists are kept off the heap")
+  void onlyFlatNetlists() {
+    Netlist nested = Netlist.compile(TestCircuits.randomNestedField(0, 2), Netlist.Flattening.NONE);
+    assertThrows(IllegalArgumentException.class, () -> OffHeapNetlist.of(nested));
+  }
+  
+  @Test
+  @DisplayName("Mapping a file which isn't a valid netlist fails")
+  void rejectsInvalidFiles() throws Exception {
+    Path file = dir.resolve("netlist.lgn");
+    OffHeapNetlist.of(Netlist.compile(TestCircuits.randomField(0, 4, 50))).write(file);
+    
+    // Point the last fan-in entry at a net past the end
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      int numComponents = Integer.reverseBytes(readInt(raf, 8));
+      int fanInLength = Integer.reverseBytes(readInt(raf, 24));
+      raf.seek(28 + (numComponents + 1) * 4L + (fanInLength - 1) * 4L);
+      raf.writeInt(Integer.reverseBytes(numComponents));
+    }
+    assertThrows(DeserializationException.class, () -> OffHeapNetlist.map(file));
+    
+    Files.write(file, new byte[] {1, 2, 3});
+    assertThrows(DeserializationException.class, () -> OffHeapNetlist.map(file));
+  }
+  
+  private static int readInt(RandomAccessFile raf, long position) throws Exception {
+    raf.seek(position);
+    return raf.readInt();
+  }
+  
+}
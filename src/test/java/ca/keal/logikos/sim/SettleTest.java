@@ -0,0 +1,175 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.InputFC;
+import ca.keal.logikos.logic.LogicComponent;
+import ca.keal.logikos.logic.NandGate;
+import ca.keal.logikos.logic.NotGate;
+import ca.keal.logikos.logic.UserGate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static ca.keal.logikos.sim.TestCircuits.add;
+import static ca.keal.logikos.sim.TestCircuits.addInput;
+import static ca.keal.logikos.sim.TestCircuits.addOutput;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SettleTest {
+  
+  @Test
+  @DisplayName("A change propagates down a long chain in one call")
+  void longChain() {
+    Field field = new Field();
+    InputFC input = addInput(field);
+    LogicComponent last = input.getLogicComponent();
+    for (int i = 0; i < 101; i++) {
+      last = add(field, new NotGate(), last);
+    }
+    addOutput(field, last);
+    
+    boolean[] outputs = new boolean[1];
+    assertTrue(field.settle(null, outputs));
+    assertArrayEquals(new boolean[] {true}, outputs);
+    input.toggle();
+    assertTrue(field.settle(null, outputs));
+    assertArrayEquals(new boolean[] {false}, outputs);
+  }
+  
+  @Test
+  @DisplayName("Settled outputs of combinational fields match their truth tables")
+  void matchesTruthTable() {
+    for (long seed = 0; seed < 5; seed++) {
+      Field field = TestCircuits.randomCombinationalField(seed, 6, 40);
+      TruthTable table = TruthTable.of(field);
+      List<InputFC> inputFCs = field.getInputFCs();
+      boolean[] outputs = new boolean[field.getOutputFCs().size()];
+      
+      // visit the rows in Gray code order, so one input changes at a time
+      for (int i = 0; i < table.getNumRows(); i++) {
+        int row = i ^ (i >>> 1);
+        for (int input = 0; input < inputFCs.size(); input++) {
+          inputFCs.get(input).getLogicComponent().setValue((row & (1 << input)) != 0);
+        }
+        assertTrue(field.settle(null, outputs));
+        for (int output = 0; output < outputs.length; output++) {
+          assertEquals(table.getOutput(output, row), outputs[output], "seed " + seed + ", row " + row);
+        }
+      }
+    }
+  }
+  
+  @Test
+  @DisplayName("A latch settles and holds its state")
+  void latch() {
+    // an active-low SR latch
+    Field field = new Field();
+    InputFC notSet = addInput(field);
+    InputFC notReset = addInput(field);
+    NandGate q = add(field, new NandGate());
+    NandGate notQ = add(field, new NandGate());
+    q.getInput(0).connectTo(notSet.getLogicComponent().getOutput(0));
+    q.getInput(1).connectTo(notQ.getOutput(0));
+    notQ.getInput(0).connectTo(notReset.getLogicComponent().getOutput(0));
+    notQ.getInput(1).connectTo(q.getOutput(0));
+    addOutput(field, q);
+    
+    boolean[] outputs = new boolean[1];
+    notReset.toggle();
+    assertTrue(field.settle(null, outputs)); // set
+    assertArrayEquals(new boolean[] {true}, outputs);
+    notSet.toggle();
+    assertTrue(field.settle(null, outputs)); // hold
+    assertArrayEquals(new boolean[] {true}, outputs);
+    notReset.toggle();
+    assertTrue(field.settle(null, outputs)); // reset
+    assertArrayEquals(new boolean[] {false}, outputs);
+    notReset.toggle();
+    assertTrue(field.settle(null, outputs)); // hold
+    assertArrayEquals(new boolean[] {false}, outputs);
+  }
+  
+  @Test
+  @DisplayName("An oscillating loop is reported rather than evaluated forever")
+  void ringOscillator() {
+    Field field = new Field();
+    InputFC input = addInput(field);
+    NandGate enable = add(field, new NandGate());
+    NotGate first = add(field, new NotGate(), enable);
+    NotGate second = add(field, new NotGate(), first);
+    enable.getInput(0).connectTo(input.getLogicComponent().getOutput(0));
+    enable.getInput(1).connectTo(second.getOutput(0));
+    addOutput(field, second);
+    
+    boolean[] outputs = new boolean[1];
+    assertTrue(field.settle(null, outputs));
+    assertTrue(field.getOscillatingComponents().isEmpty());
+    
+    input.toggle();
+    assertFalse(field.settle(null, outputs));
+    List<LogicComponent> oscillating = field.getOscillatingComponents();
+    assertFalse(oscillating.isEmpty());
+    for (LogicComponent lc : oscillating) {
+      assertTrue(lc == enable || lc == first || lc == second);
+    }
+    
+    input.toggle();
+    assertTrue(field.settle(null, outputs));
+    assertTrue(field.getOscillatingComponents().isEmpty());
+  }
+  
+  @Test
+  @DisplayName("Nested user gates settle the same as flattened ones")
+  void nestedUserGates() {
+    Field inner = new Field();
+    inner.setName("NAND NOT");
+    LogicComponent a = addInput(inner).getLogicComponent();
+    LogicComponent b = addInput(inner).getLogicComponent();
+    addOutput(inner, add(inner, new NotGate(), add(inner, new NandGate(), a, b)));
+    
+    Field field = new Field();
+    InputFC x = addInput(field);
+    InputFC y = addInput(field);
+    UserGate and = add(field, new UserGate(inner), x.getLogicComponent(), y.getLogicComponent());
+    addOutput(field, add(field, new UserGate(inner), and, x.getLogicComponent()));
+    
+    Simulation nested = new Simulation(Netlist.compile(field, Netlist.Flattening.NONE));
+    Simulation flat = new Simulation(Netlist.compile(field, Netlist.Flattening.PER_LEVEL_TIMING));
+    for (int row = 0; row < 4; row++) {
+      for (Simulation sim : new Simulation[] {nested, flat}) {
+        sim.setInput(0, (row & 1) != 0);
+        sim.setInput(1, (row & 2) != 0);
+        assertTrue(sim.settle(null));
+      }
+      assertEquals(row == 3, nested.getOutput(0));
+      assertEquals(row == 3, flat.getOutput(0));
+    }
+  }
+  
+  @Test
+  @DisplayName("Levelization puts every component after the components driving it")
+  void levelization() {
+    for (long seed = 0; seed < 5; seed++) {
+      Netlist netlist = Netlist.compile(TestCircuits.randomField(seed, 4, 200));
+      Levelization levels = netlist.levelization();
+      
+      int[] group = new int[netlist.getNumComponents()];
+      for (int g = 0; g < levels.cyclic.length; g++) {
+        for (int i = levels.groupStart[g]; i < levels.groupStart[g + 1]; i++) {
+          group[levels.order[i]] = g;
+        }
+        assertTrue(levels.cyclic[g] || levels.groupStart[g + 1] - levels.groupStart[g] == 1);
+      }
+      for (int c = 0; c < netlist.getNumComponents(); c++) {
+        for (int i = netlist.fanInStart[c]; i < netlist.fanInStart[c + 1]; i++) {
+          assertTrue(group[netlist.netDriver[netlist.fanIn[i]]] <= group[c]);
+        }
+      }
+    }
+  }
+  
+}
@@ -0,0 +1,143 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.logic.Clock;
+import ca.keal.logikos.logic.LogicComponent;
+import ca.keal.logikos.logic.NotGate;
+import ca.keal.logikos.logic.UserGate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static ca.keal.logikos.sim.TestCircuits.add;
+import static ca.keal.logikos.sim.TestCircuits.addInput;
+import static ca.keal.logikos.sim.TestCircuits.addOutput;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SimulationMetricsTest {
+  
+  @Test
+  @DisplayName("Ticking every component counts every component, by type")
+  void countsFullTicks() {
+    Field field = TestCircuits.randomField(0, 4, 30);
+    field.setEventDriven(false);
+    SimulationMetrics metrics = new SimulationMetrics();
+    field.setMetrics(metrics);
+    for (int tick = 0; tick < 1000; tick++) {
+      field.tick(null);
+    }
+    
+    int numComponents = field.getNetlist().getNumComponents();
+    assertEquals(1000, metrics.getTicks());
+    assertEquals(numComponents, metrics.getComponentsEvaluatedPerTick(), 1e-9);
+    Map<String, Long> byType = metrics.getEvaluationsByGateType();
+    assertEquals(1000L, (long) byType.get("CLOCK"));
+    assertEquals(1000L * numComponents, byType.values().stream().mapToLong(Long::longValue).sum());
+    assertTrue(metrics.getNetToggleRate() > 0 && metrics.getNetToggleRate() <= 1);
+    assertTrue(metrics.getTickLatencyP50Nanos() > 0);
+    assertTrue(metrics.getTickLatencyP99Nanos() >= metrics.getTickLatencyP50Nanos());
+    assertTrue(metrics.getEstimatedHeapBytes() > 4L * field.getNetlist().getNumNets());
+    
+    metrics.reset();
+    assertEquals(0, metrics.getTicks());
+    assertEquals(0, metrics.getTickLatencyP99Nanos());
+  }
+  
+  @Test
+  @DisplayName("Event-driven ticks count only the components evaluated and the nets toggled, and skipped ticks count")
+  void countsEvents() {
+    Field field = new Field();
+    addOutput(field, add(field, new NotGate(), add(field, new Clock(10, 5, 0))));
+    SimulationMetrics metrics = new SimulationMetrics();
+    field.setMetrics(metrics);
+    field.run(1000, null, new boolean[1]);
+    
+    // Everything is evaluated on the first tick. After that, the clock toggles every 5 ticks from tick 6, and then
+    // the NOT and the output follow, each toggling its net.
+    assertEquals(1000, metrics.getTicks());
+    Map<String, Long> byType = metrics.getEvaluationsByGateType();
+    assertEquals(1L + 199, (long) byType.get("CLOCK"));
+    assertEquals(1L + 199, (long) byType.get("NOT"));
+    assertEquals(0.6, metrics.getNetTogglesPerTick(), 0.01);
+    assertTrue(metrics.getComponentsEvaluatedPerTick() < 1);
+  }
+  
+  @Test
+  @DisplayName("User gates ticked from several threads at once are all counted")
+  void countsParallelUserGates() {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      // Many user gates side by side, so that the threads tick them at the same time
+      Field field = new Field();
+      Field gateField = TestCircuits.randomNestedField(0, 1);
+      LogicComponent[] inputs = {addInput(field).getLogicComponent(), addInput(field).getLogicComponent()};
+      for (int i = 0; i < 500; i++) {
+        UserGate gate = new UserGate(gateField);
+        add(field, gate);
+        for (int port = 0; port < gate.getNumInputs(); port++) {
+          gate.getInput(port).connectTo(inputs[(i + port) % 2].getOutput(0));
+        }
+        addOutput(field, gate);
+      }
+      Netlist netlist = Netlist.compile(field, Netlist.Flattening.NONE);
+      Simulation sequential = new Simulation(netlist);
+      Simulation parallel = new Simulation(netlist);
+      parallel.setParallel(pool, 1);
+      SimulationMetrics sequentialMetrics = new SimulationMetrics();
+      SimulationMetrics parallelMetrics = new SimulationMetrics();
+      sequential.setMetrics(sequentialMetrics);
+      parallel.setMetrics(parallelMetrics);
+      
+      for (int tick = 0; tick < 500; tick++) {
+        sequential.tick(null);
+        parallel.tick(null);
+      }
+      assertEquals(500, parallelMetrics.getTicks());
+      assertEquals(sequentialMetrics.getEvaluationsByGateType(), parallelMetrics.getEvaluationsByGateType());
+      assertEquals(sequentialMetrics.getComponentsEvaluatedPerTick(), parallelMetrics.getComponentsEvaluatedPerTick());
+      assertEquals(sequentialMetrics.getNetTogglesPerTick(), parallelMetrics.getNetTogglesPerTick());
+    } finally {
+      pool.shutdown();
+    }
+  }
+  
+  @Test
+  @DisplayName("Registered metrics can be read from the platform MBean server")
+  void readOverJmx() throws Exception {
+    Field field = TestCircuits.randomField(1, 2, 10);
+    SimulationMetrics metrics = new SimulationMetrics();
+    field.setMetrics(metrics);
+    ObjectName name = metrics.register("test, with \"quotes\"");
+    try {
+      field.run(50, null, new boolean[field.getOutputFCs().size()]);
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      assertEquals(50L, server.getAttribute(name, "Ticks"));
+      assertTrue((Double) server.getAttribute(name, "TicksPerSecond") > 0);
+    } finally {
+      metrics.unregister();
+    }
+    assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+  }
+  
+  @Test
+  @DisplayName("Any file path can be used as the name of registered metrics")
+  void registerQuotesName() throws Exception {
+    String filename = "C:\\designs\\mode=fast,v*?.lgk";
+    SimulationMetrics metrics = new SimulationMetrics();
+    ObjectName name = metrics.register(filename);
+    try {
+      assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+      assertEquals(filename, ObjectName.unquote(name.getKeyProperty("name")));
+    } finally {
+      metrics.unregister();
+    }
+  }
+  
+}
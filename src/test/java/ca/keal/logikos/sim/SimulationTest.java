@@ -0,0 +1,532 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.FieldComponent;
+import ca.keal.logikos.field.InputFC;
+import ca.keal.logikos.field.OutputFC;
+import ca.keal.logikos.logic.AndGate;
+import ca.keal.logikos.logic.Clock;
+import ca.keal.logikos.logic.EvaluationListener;
+import ca.keal.logikos.logic.NandGate;
+import ca.keal.logikos.logic.NotGate;
+import ca.keal.logikos.logic.Port;
+import ca.keal.logikos.logic.UserGate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static ca.keal.logikos.sim.TestCircuits.add;
+import static ca.keal.logikos.sim.TestCircuits.addInput;
+import static ca.keal.logikos.sim.TestCircuits.addOutput;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SimulationTest {
+  
+  @Test
+  @DisplayName("Compiled simulation matches ticking each component on a random field with feedback")
+  void matchesReferenceTick() {
+    matchesReferenceTick(false);
+  }
+  
+  @Test
+  @DisplayName("Event-driven simulation matches ticking each component on a random field with feedback")
+  void eventDrivenMatchesReferenceTick() {
+    matchesReferenceTick(true);
+  }
+  
+  private void matchesReferenceTick(boolean eventDriven) {
+    for (long seed = 0; seed < 10; seed++) {
+      Field field = TestCircuits.randomField(seed, 4, 40);
+      field.setEventDriven(eventDriven);
+      List<InputFC> inputFCs = field.getInputFCs();
+      Random random = new Random(seed);
+      
+      for (int tick = 0; tick < 1000; tick++) {
+        if (tick % 7 == 0) {
+          inputFCs.get(random.nextInt(inputFCs.size())).toggle();
+        }
+        boolean[] expected = TestCircuits.referenceTick(field);
+        assertArrayEquals(expected, field.tick(null), "seed " + seed + ", tick " + tick);
+      }
+    }
+  }
+  
+  @Test
+  @DisplayName("Ticking in parallel gives exactly the same state as ticking on one thread")
+  void parallelMatchesSequential() {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (long seed = 0; seed < 3; seed++) {
+        Netlist netlist = Netlist.compile(TestCircuits.randomField(seed, 4, 5000));
+        Simulation sequential = new Simulation(netlist);
+        Simulation parallel = new Simulation(netlist);
+        parallel.setParallel(pool, 100);
+        Random random = new Random(seed);
+        
+        for (int tick = 0; tick < 200; tick++) {
+          if (tick % 7 == 0) {
+            int slot = random.nextInt(4);
+            boolean value = random.nextBoolean();
+            sequential.setInput(slot, value);
+            parallel.setInput(slot, value);
+          }
+          sequential.tick(null);
+          parallel.tick(null);
+          for (int net = 0; net < netlist.getNumNets(); net++) {
+            assertEquals(sequential.getNetValue(net), parallel.getNetValue(net), "seed " + seed + ", tick " + tick);
+          }
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+  
+  @Test
+  @DisplayName("Parallel chunks never drive nets in the same word")
+  void parallelChunks() {
+    Netlist netlist = Netlist.compile(TestCircuits.randomNestedField(3, 3), Netlist.Flattening.PER_LEVEL_TIMING);
+    int[] chunks = netlist.parallelChunks(10);
+    assertTrue(chunks.length > 3);
+    assertEquals(netlist.getNumComponents(), chunks[chunks.length - 1]);
+    for (int i = 1; i < chunks.length - 1; i++) {
+      assertTrue(chunks[i] - chunks[i - 1] >= 10);
+      for (int before = 0; before < chunks[i]; before++) {
+        for (int after = chunks[i]; after < netlist.getNumComponents(); after++) {
+          int lastWordBefore = (netlist.outputNet[before] + netlist.numOutputNets[before] - 1) >>> 6;
+          assertTrue(netlist.numOutputNets[before] == 0 || lastWordBefore < netlist.outputNet[after] >>> 6);
+        }
+      }
+    }
+  }
+  
+  @Test
+  @DisplayName("A signal advances one component per tick")
+  void oneComponentPerTick() {
+    Field field = new Field();
+    InputFC input = addInput(field);
+    NotGate not = add(field, new NotGate(), input.getLogicComponent());
+    addOutput(field, not);
+    
+    input.toggle();
+    // tick 1: the input takes its value; tick 2: the NOT sees it; tick 3: the output sees the NOT
+    assertArrayEquals(new boolean[] {false}, field.tick(null));
+    assertArrayEquals(new boolean[] {true}, field.tick(null));
+    assertArrayEquals(new boolean[] {false}, field.tick(null));
+    assertArrayEquals(new boolean[] {false}, field.tick(null));
+  }
+  
+  @Test
+  @DisplayName("User gates are ticked once per outer tick")
+  void userGateTiming() {
+    Field inner = new Field();
+    inner.setName("AND");
+    InputFC a = addInput(inner);
+    InputFC b = addInput(inner);
+    addOutput(inner, add(inner, new AndGate(), a.getLogicComponent(), b.getLogicComponent()));
+    
+    Field outer = new Field();
+    InputFC x = addInput(outer);
+    InputFC y = addInput(outer);
+    UserGate userGate = add(outer, new UserGate(inner), x.getLogicComponent(), y.getLogicComponent());
+    addOutput(outer, userGate);
+    
+    x.toggle();
+    y.toggle();
+    boolean[][] expected = {{false}, {false}, {false}, {false}, {true}, {true}};
+    for (boolean[] outputs : expected) {
+      assertArrayEquals(outputs, outer.tick(null));
+    }
+  }
+  
+  @Test
+  @DisplayName("Event-driven simulation settles once nothing changes, and wakes up when an input does")
+  void eventDrivenSettles() {
+    Field field = new Field();
+    InputFC input = addInput(field);
+    NotGate first = add(field, new NotGate(), input.getLogicComponent());
+    NotGate second = add(field, new NotGate(), first);
+    addOutput(field, second);
+    
+    Simulation sim = field.getSimulation();
+    for (int tick = 0; tick < 4; tick++) {
+      field.tick(null);
+    }
+    assertFalse(sim.hasPendingActivity());
+    
+    List<EvaluationListener.Event> events = new ArrayList<>();
+    field.tick(events::add);
+    assertTrue(events.isEmpty());
+    
+    input.toggle();
+    field.tick(events::add);
+    assertEquals(1, events.size());
+    assertEquals(input.getLogicComponent(), events.get(0).getLogicComponent());
+    assertTrue(sim.hasPendingActivity());
+  }
+  
+  @Test
+  @DisplayName("Event-driven simulation keeps ticking user gates with clocks inside")
+  void eventDrivenUserGateClock() {
+    Field inner = new Field();
+    inner.setName("CLK");
+    addOutput(inner, add(inner, new Clock()));
+    
+    Field outer = new Field();
+    addOutput(outer, add(outer, new UserGate(inner)));
+    Simulation full = new Simulation(Netlist.compile(outer));
+    Simulation eventDriven = new Simulation(Netlist.compile(outer));
+    eventDriven.setEventDriven(true);
+    
+    for (int tick = 0; tick < 1000; tick++) {
+      full.tick(null);
+      eventDriven.tick(null);
+      assertEquals(full.getOutput(0), eventDriven.getOutput(0), "tick " + tick);
+    }
+  }
+  
+  @Test
+  @DisplayName("Running skips ahead to clock edges with the same result as ticking")
+  void runMatchesTicking() {
+    for (long seed = 0; seed < 5; seed++) {
+      Netlist netlist = Netlist.compile(clockedField(seed));
+      Simulation ticked = new Simulation(netlist);
+      Simulation run = new Simulation(netlist);
+      ticked.setEventDriven(true);
+      run.setEventDriven(true);
+      Random random = new Random(seed);
+      
+      for (int step = 0; step < 50; step++) {
+        int slot = random.nextInt(2);
+        boolean value = random.nextBoolean();
+        ticked.setInput(slot, value);
+        run.setInput(slot, value);
+        
+        int ticks = random.nextInt(500);
+        for (int tick = 0; tick < ticks; tick++) {
+          ticked.tick(null);
+        }
+        run.run(ticks, null);
+        for (int net = 0; net < netlist.getNumNets(); net++) {
+          assertEquals(ticked.getNetValue(net), run.getNetValue(net), "seed " + seed + ", step " + step);
+        }
+      }
+    }
+  }
+  
+  // A clock and two inputs driving a random acyclic tree of gates, which goes quiet between clock edges
+  private static Field clockedField(long seed) {
+    Field field = TestCircuits.randomCombinationalField(seed, 3, 20);
+    Clock clock = add(field, new Clock());
+    InputFC replaced = field.getInputFCs().get(2);
+    for (FieldComponent fc : field.getFieldComponents()) {
+      for (Port.Input port : fc.getLogicComponent().getInputs()) {
+        if (port.getConnection() != null && port.getConnection().getOutput().getComponent()
+            == replaced.getLogicComponent()) {
+          port.connectTo(clock.getOutput(0));
+        }
+      }
+    }
+    field.removeFieldComponent(replaced);
+    return field;
+  }
+  
+  @Test
+  @DisplayName("A settled design runs for a million clock periods in moments")
+  void runMillionsOfClockPeriods() {
+    Field field = new Field();
+    addOutput(field, add(field, new NotGate(), add(field, new Clock())));
+    Simulation sim = field.getSimulation();
+    
+    // The clock is true from tick 201 to tick 400 of every period, and the NOT and the output each add a tick of delay
+    long periods = 1_000_000;
+    sim.run(periods * 2 * 200 + 2, null);
+    assertFalse(sim.getOutput(0));
+    sim.run(200, null);
+    assertTrue(sim.getOutput(0));
+  }
+  
+  @Test
+  @DisplayName("Many clocks with different periods, duty cycles and phases are ticked exactly, event-driven or not")
+  void multiRateClocks() {
+    Random random = new Random(42);
+    Field field = new Field();
+    InputFC enable = addInput(field);
+    for (int i = 0; i < 50; i++) {
+      int period = 2 + random.nextInt(i < 5 ? 100_000 : 300);
+      Clock clock = add(field, new Clock(period, 1 + random.nextInt(period - 1), random.nextInt(period)));
+      addOutput(field, add(field, new AndGate(), enable.getLogicComponent(), clock));
+    }
+    
+    Simulation full = new Simulation(Netlist.compile(field));
+    Simulation eventDriven = new Simulation(Netlist.compile(field));
+    eventDriven.setEventDriven(true);
+    Simulation run = new Simulation(Netlist.compile(field));
+    run.setEventDriven(true);
+    for (int tick = 0; tick < 3000; tick++) {
+      if (tick % 500 == 0) {
+        enable.toggle();
+        full.pullInputs();
+        eventDriven.pullInputs();
+        run.pullInputs();
+      }
+      boolean[] expected = TestCircuits.referenceTick(field);
+      full.tick(null);
+      eventDriven.tick(null);
+      run.run(1, null);
+      for (int output = 0; output < expected.length; output++) {
+        assertEquals(expected[output], full.getOutput(output), "tick " + tick);
+        assertEquals(expected[output], eventDriven.getOutput(output), "tick " + tick);
+        assertEquals(expected[output], run.getOutput(output), "tick " + tick);
+      }
+    }
+  }
+  
+  @Test
+  @DisplayName("Running packed vectors matches setting each input and ticking")
+  void runVectorsMatchesTicking() {
+    for (long seed = 0; seed < 4; seed++) {
+      // more than 64 inputs, so that vectors take two words
+      Field field = seed % 2 == 0 ? TestCircuits.randomField(seed, 4, 40)
+          : TestCircuits.randomCombinationalField(seed, 70, 200);
+      Field reference = seed % 2 == 0 ? TestCircuits.randomField(seed, 4, 40)
+          : TestCircuits.randomCombinationalField(seed, 70, 200);
+      int numInputs = field.getInputFCs().size();
+      int numOutputs = field.getOutputFCs().size();
+      int inputWords = (numInputs + 63) / 64;
+      int outputWords = (numOutputs + 63) / 64;
+      
+      Random random = new Random(seed);
+      int numVectors = 100;
+      int ticksPerVector = 3;
+      long[] stimulus = new long[numVectors * inputWords];
+      for (int i = 0; i < stimulus.length; i++) {
+        stimulus[i] = random.nextLong();
+      }
+      long[] results = new long[numVectors * outputWords];
+      field.runVectors(stimulus, numVectors, ticksPerVector, results);
+      
+      boolean[] outputs = new boolean[numOutputs];
+      for (int vector = 0; vector < numVectors; vector++) {
+        for (int i = 0; i < numInputs; i++) {
+          long word = stimulus[vector * inputWords + i / 64];
+          reference.getInputFCs().get(i).getLogicComponent().setValue((word >>> i & 1) != 0);
+        }
+        for (int tick = 0; tick < ticksPerVector; tick++) {
+          reference.tick(null, outputs);
+        }
+        for (int i = 0; i < numOutputs; i++) {
+          long word = results[vector * outputWords + i / 64];
+          assertEquals(outputs[i], (word >>> i & 1) != 0, "seed " + seed + ", vector " + vector);
+        }
+      }
+    }
+  }
+  
+  @Test
+  @DisplayName("Packed vectors can be run from and into buffers")
+  void runVectorsFromBuffers() {
+    Field field = TestCircuits.randomCombinationalField(1, 6, 30);
+    long[] stimulus = new long[64];
+    for (int i = 0; i < stimulus.length; i++) {
+      stimulus[i] = i;
+    }
+    long[] expected = new long[64];
+    TestCircuits.randomCombinationalField(1, 6, 30).runVectors(stimulus, 64, 10, expected);
+    
+    LongBuffer in = ByteBuffer.allocateDirect(64 * 8).asLongBuffer();
+    in.put(stimulus).flip();
+    LongBuffer out = ByteBuffer.allocateDirect(64 * 8).asLongBuffer();
+    assertEquals(64, field.runVectors(in, 10, out));
+    assertEquals(0, in.remaining());
+    out.flip();
+    long[] actual = new long[64];
+    out.get(actual);
+    assertArrayEquals(expected, actual);
+    
+    in.rewind();
+    assertThrows(BufferOverflowException.class, () -> field.runVectors(in, 10, LongBuffer.allocate(10)));
+    assertEquals(64, in.remaining());
+  }
+  
+  @Test
+  @DisplayName("Compiled simulation matches ticking each component, nested user gates and all")
+  void compiledMatchesReferenceTick() {
+    for (long seed = 0; seed < 6; seed++) {
+      Field field = seed % 2 == 0 ? TestCircuits.randomField(seed, 4, 40) : TestCircuits.randomNestedField(seed, 2);
+      field.setEventDriven(false);
+      field.setCompiled(true);
+      assertTrue(field.getSimulation().isCompiled());
+      List<InputFC> inputFCs = field.getInputFCs();
+      Random random = new Random(seed);
+      
+      for (int tick = 0; tick < 1000; tick++) {
+        if (tick % 7 == 0) {
+          inputFCs.get(random.nextInt(inputFCs.size())).toggle();
+        }
+        boolean[] expected = TestCircuits.referenceTick(field);
+        assertArrayEquals(expected, field.tick(null), "seed " + seed + ", tick " + tick);
+      }
+    }
+  }
+  
+  @Test
+  @DisplayName("Compiled simulation of a netlist split into many methods matches interpreting it, net by net")
+  void compiledLargeNetlist() {
+    Netlist netlist = Netlist.compile(TestCircuits.randomField(42, 8, 20_000));
+    Simulation interpreted = new Simulation(netlist);
+    Simulation compiled = new Simulation(netlist);
+    compiled.setCompiled(true);
+    Random random = new Random(42);
+    for (int tick = 0; tick < 200; tick++) {
+      int slot = random.nextInt(netlist.getNumInputs());
+      boolean value = random.nextBoolean();
+      interpreted.setInput(slot, value);
+      compiled.setInput(slot, value);
+      interpreted.tick(null);
+      compiled.tick(null);
+      for (int net = 0; net < netlist.getNumNets(); net++) {
+        assertEquals(interpreted.getNetValue(net), compiled.getNetValue(net), "tick " + tick + ", net " + net);
+      }
+    }
+  }
+  
+  @Test
+  @DisplayName("Compiled netlists are hidden classes where the JVM has them, so that they can be unloaded")
+  void compiledNetlistIsHidden() throws Exception {
+    Class<?> compiled = Netlist.compile(TestCircuits.randomField(0, 4, 20)).evaluator().getClass();
+    if (Runtime.version().feature() >= 15) {
+      // Class.isHidden() is called by reflection, as it needs Java 15
+      assertTrue((Boolean) Class.class.getMethod("isHidden").invoke(compiled));
+    }
+  }
+  
+  @Test
+  @DisplayName("Only flat netlists can be compiled")
+  void onlyFlatNetlistsCompile() {
+    Field field = TestCircuits.randomNestedField(0, 1);
+    Netlist nested = Netlist.compile(field, Netlist.Flattening.NONE);
+    assertFalse(nested.isFlat());
+    assertThrows(IllegalArgumentException.class, () -> new Simulation(nested).setCompiled(true));
+    
+    // a field falls back to interpreting it
+    field.setFlattening(Netlist.Flattening.NONE);
+    field.setCompiled(true);
+    assertFalse(field.getSimulation().isCompiled());
+    field.tick(null);
+  }
+  
+  @Test
+  @DisplayName("Restoring a snapshot rewinds the whole design, nested user gates and clocks included")
+  void snapshotRewinds() {
+    for (boolean eventDriven : new boolean[] {false, true}) {
+      Field field = TestCircuits.randomNestedField(eventDriven ? 1 : 2, 2);
+      field.setFlattening(Netlist.Flattening.NONE);
+      field.setEventDriven(eventDriven);
+      assertTrue(field.getNetlist().userGates.length > 0);
+      List<InputFC> inputFCs = field.getInputFCs();
+      Random random = new Random(eventDriven ? 1 : 2);
+      for (int tick = 0; tick < 500; tick++) {
+        inputFCs.get(random.nextInt(inputFCs.size())).toggle();
+        field.tick(null);
+      }
+      
+      // From the same warm state, A toggles the inputs and B only ticks; after rewinding, A must repeat itself exactly
+      Simulation.Snapshot warm = field.snapshot();
+      assertEquals(500, warm.getTime());
+      List<boolean[]> a = runFrom(field, warm, new Random(3));
+      runFrom(field, warm, null);
+      List<boolean[]> again = runFrom(field, warm, new Random(3));
+      assertEquals(a.size(), again.size());
+      for (int tick = 0; tick < a.size(); tick++) {
+        assertArrayEquals(a.get(tick), again.get(tick), "event-driven " + eventDriven + ", tick " + tick);
+      }
+    }
+  }
+  
+  // Restore the field to snapshot, then tick it 500 times, toggling a random input every few ticks if random is given
+  private static List<boolean[]> runFrom(Field field, Simulation.Snapshot snapshot, Random random) {
+    field.restore(snapshot);
+    List<InputFC> inputFCs = field.getInputFCs();
+    List<boolean[]> outputs = new ArrayList<>();
+    for (int tick = 0; tick < 500; tick++) {
+      if (random != null && tick % 5 == 0) {
+        inputFCs.get(random.nextInt(inputFCs.size())).toggle();
+      }
+      outputs.add(field.tick(null));
+    }
+    return outputs;
+  }
+  
+  @Test
+  @DisplayName("A snapshot taken before the field is reset can still be restored")
+  void snapshotSurvivesReset() {
+    Field field = TestCircuits.randomNestedField(4, 2);
+    List<InputFC> inputFCs = field.getInputFCs();
+    Random random = new Random(4);
+    for (int tick = 0; tick < 200; tick++) {
+      inputFCs.get(random.nextInt(inputFCs.size())).toggle();
+      field.tick(null);
+    }
+    Simulation.Snapshot warm = field.snapshot();
+    List<boolean[]> before = runFrom(field, warm, new Random(5));
+    
+    field.reset();
+    assertEquals(0, field.getSimulation().getTime());
+    List<boolean[]> after = runFrom(field, warm, new Random(5));
+    for (int tick = 0; tick < before.size(); tick++) {
+      assertArrayEquals(before.get(tick), after.get(tick), "tick " + tick);
+    }
+  }
+  
+  @Test
+  @DisplayName("A snapshot can only be restored into a simulation of the same netlist")
+  void snapshotOfOtherNetlist() {
+    Field field = TestCircuits.randomField(0, 4, 20);
+    Simulation.Snapshot snapshot = field.snapshot();
+    assertThrows(IllegalArgumentException.class, () -> new Simulation(Netlist.compile(field)).restore(snapshot));
+    new Simulation(field.getNetlist()).restore(snapshot);
+    field.setModified(true);
+    assertThrows(IllegalArgumentException.class, () -> field.restore(snapshot));
+  }
+  
+  @Test
+  @DisplayName("Removing a connection directly through its ports recompiles the field")
+  void removedConnectionRecompiles() {
+    Field field = new Field();
+    InputFC a = addInput(field);
+    OutputFC out = addOutput(field, add(field, new NotGate(), a.getLogicComponent()));
+    for (int tick = 0; tick < 3; tick++) {
+      field.tick(null);
+    }
+    assertTrue(field.tick(null)[0]);
+    
+    out.getLogicComponent().getInput(0).getConnection().destruct();
+    assertThrows(IllegalStateException.class, () -> field.tick(null));
+    out.getLogicComponent().getInput(0).connectTo(a.getLogicComponent().getOutput(0));
+    for (int tick = 0; tick < 3; tick++) {
+      field.tick(null);
+    }
+    assertFalse(field.tick(null)[0]);
+  }
+  
+  @Test
+  @DisplayName("An unconnected input port cannot be compiled")
+  void unconnectedInput() {
+    Field field = new Field();
+    add(field, new NandGate());
+    assertThrows(IllegalStateException.class, () -> Netlist.compile(field));
+  }
+  
+}
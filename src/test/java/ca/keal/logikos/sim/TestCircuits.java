@@ -0,0 +1,219 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.FieldComponent;
+import ca.keal.logikos.field.InputFC;
+import ca.keal.logikos.field.OutputFC;
+import ca.keal.logikos.field.Position;
+import ca.keal.logikos.logic.AndGate;
+import ca.keal.logikos.logic.BufGate;
+import ca.keal.logikos.logic.Clock;
+import ca.keal.logikos.logic.Constant;
+import ca.keal.logikos.logic.Input;
+import ca.keal.logikos.logic.LogicComponent;
+import ca.keal.logikos.logic.NandGate;
+import ca.keal.logikos.logic.NorGate;
+import ca.keal.logikos.logic.NotGate;
+import ca.keal.logikos.logic.OrGate;
+import ca.keal.logikos.logic.Output;
+import ca.keal.logikos.logic.UserGate;
+import ca.keal.logikos.logic.XnorGate;
+import ca.keal.logikos.logic.XorGate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Builders for the {@link Field}s used by the simulation tests.
+ */
+final class TestCircuits {
+  
+  private static final Position ORIGIN = new Position(0, 0);
+  
+  private TestCircuits() {}
+  
+  static InputFC addInput(Field field) {
+    InputFC inputFC = new InputFC(new Input(), ORIGIN, InputFC.Type.SWITCH);
+    field.addFieldComponent(inputFC);
+    return inputFC;
+  }
+  
+  static OutputFC addOutput(Field field, LogicComponent from) {
+    return addOutput(field, from, 0);
+  }
+  
+  static OutputFC addOutput(Field field, LogicComponent from, int port) {
+    OutputFC outputFC = new OutputFC(new Output(), ORIGIN, OutputFC.Type.LAMP);
+    field.addFieldComponent(outputFC);
+    outputFC.getLogicComponent().getInput(0).connectTo(from.getOutput(port));
+    return outputFC;
+  }
+  
+  static <LC extends LogicComponent> LC add(Field field, LC lc, LogicComponent... from) {
+    field.addFieldComponent(new FieldComponent(lc, ORIGIN));
+    for (int i = 0; i < from.length; i++) {
+      lc.getInput(i).connectTo(from[i].getOutput(0));
+    }
+    return lc;
+  }
+  
+  /**
+   * A field with {@code numInputs} inputs and one output per gate, whose gates are wired to random earlier or later
+   * components, so that it contains both combinational paths and feedback loops. A clock and constants are included.
+   */
+  static Field randomField(long seed, int numInputs, int numGates) {
+    Random random = new Random(seed);
+    Field field = new Field();
+    field.setName("random");
+    
+    List<LogicComponent> sources = new ArrayList<>();
+    for (int i = 0; i < numInputs; i++) {
+      sources.add(addInput(field).getLogicComponent());
+    }
+    sources.add(add(field, new Clock()));
+    sources.add(add(field, new Constant(false)));
+    sources.add(add(field, new Constant(true)));
+    
+    List<Supplier<LogicComponent>> gateTypes = new ArrayList<>();
+    gateTypes.add(AndGate::new);
+    gateTypes.add(OrGate::new);
+    gateTypes.add(NandGate::new);
+    gateTypes.add(NotGate::new);
+    gateTypes.add(NorGate::new);
+    gateTypes.add(XorGate::new);
+    gateTypes.add(XnorGate::new);
+    gateTypes.add(BufGate::new);
+    gateTypes.add(() -> new AndGate(3));
+    gateTypes.add(() -> new OrGate(4));
+    gateTypes.add(() -> new XorGate(5));
+    gateTypes.add(() -> new NandGate(64));
+    
+    List<LogicComponent> gates = new ArrayList<>();
+    for (int i = 0; i < numGates; i++) {
+      gates.add(add(field, gateTypes.get(random.nextInt(gateTypes.size())).get()));
+    }
+    
+    List<LogicComponent> all = new ArrayList<>(sources);
+    all.addAll(gates);
+    for (LogicComponent gate : gates) {
+      for (int i = 0; i < gate.getNumInputs(); i++) {
+        gate.getInput(i).connectTo(all.get(random.nextInt(all.size())).getOutput(0));
+      }
+      addOutput(field, gate);
+    }
+    
+    return field;
+  }
+  
+  /**
+   * A field like {@link #randomField(long, int, int)}, but in which some of the gates are user gates made of random
+   * fields themselves, nested {@code depth} levels deep.
+   */
+  static Field randomNestedField(long seed, int depth) {
+    Random random = new Random(seed);
+    Field field = new Field();
+    field.setName("nested" + depth);
+    
+    List<LogicComponent> all = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      all.add(addInput(field).getLogicComponent());
+    }
+    all.add(add(field, new Clock()));
+    
+    List<LogicComponent> gates = new ArrayList<>();
+    for (int i = 0; i < 12; i++) {
+      LogicComponent gate;
+      if (depth > 0 && i % 4 == 0) {
+        gate = new UserGate(randomNestedField(random.nextLong(), depth - 1));
+      } else if (i % 2 == 0) {
+        gate = new NandGate();
+      } else {
+        gate = new OrGate();
+      }
+      gates.add(add(field, gate));
+    }
+    all.addAll(gates);
+    
+    for (LogicComponent gate : gates) {
+      for (int i = 0; i < gate.getNumInputs(); i++) {
+        gate.getInput(i).connectTo(all.get(random.nextInt(all.size())).getOutput(0));
+      }
+      addOutput(field, gate);
+    }
+    
+    return field;
+  }
+  
+  /**
+   * A combinational field of {@code numInputs} inputs whose outputs are random trees of gates over them.
+   */
+  static Field randomCombinationalField(long seed, int numInputs, int numGates) {
+    Random random = new Random(seed);
+    Field field = new Field();
+    field.setName("combinational");
+    
+    List<LogicComponent> all = new ArrayList<>();
+    for (int i = 0; i < numInputs; i++) {
+      all.add(addInput(field).getLogicComponent());
+    }
+    for (int i = 0; i < numGates; i++) {
+      LogicComponent a = all.get(random.nextInt(all.size()));
+      LogicComponent b = all.get(random.nextInt(all.size()));
+      LogicComponent c = all.get(random.nextInt(all.size()));
+      switch (random.nextInt(7)) {
+        case 0:
+          all.add(add(field, new AndGate(), a, b));
+          break;
+        case 1:
+          all.add(add(field, new OrGate(), a, b));
+          break;
+        case 2:
+          all.add(add(field, new NandGate(), a, b));
+          break;
+        case 3:
+          all.add(add(field, new NorGate(3), a, b, c));
+          break;
+        case 4:
+          all.add(add(field, new XorGate(3), a, b, c));
+          break;
+        case 5:
+          all.add(add(field, new XnorGate(), a, b));
+          break;
+        default:
+          all.add(add(field, new NotGate(), a));
+          break;
+      }
+    }
+    for (int i = all.size() - Math.min(numGates, 4); i < all.size(); i++) {
+      addOutput(field, all.get(i));
+    }
+    
+    return field;
+  }
+  
+  /**
+   * Tick {@code field} the old way, by ticking each of its {@link LogicComponent}s in three passes, and return the
+   * outputs.
+   */
+  static boolean[] referenceTick(Field field) {
+    for (FieldComponent fc : field.getFieldComponents()) {
+      fc.getLogicComponent().updateInputs();
+    }
+    for (FieldComponent fc : field.getFieldComponents()) {
+      fc.getLogicComponent().tick(null);
+    }
+    for (FieldComponent fc : field.getFieldComponents()) {
+      fc.getLogicComponent().updateOutputs();
+    }
+    
+    List<OutputFC> outputFCs = field.getOutputFCs();
+    boolean[] outputs = new boolean[outputFCs.size()];
+    for (int i = 0; i < outputs.length; i++) {
+      outputs[i] = outputFCs.get(i).getLogicComponent().getOutputValue(0);
+    }
+    return outputs;
+  }
+  
+}
@@ -0,0 +1,133 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.InputFC;
+import ca.keal.logikos.logic.AndGate;
+import ca.keal.logikos.logic.Clock;
+import ca.keal.logikos.logic.NotGate;
+import ca.keal.logikos.logic.OrGate;
+import ca.keal.logikos.logic.UserGate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static ca.keal.logikos.sim.TestCircuits.add;
+import static ca.keal.logikos.sim.TestCircuits.addInput;
+import static ca.keal.logikos.sim.TestCircuits.addOutput;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TruthTableTest {
+  
+  @Test
+  @DisplayName("Truth table matches the settled outputs of ticking every input vector")
+  void matchesSettledTicks() {
+    for (long seed = 0; seed < 5; seed++) {
+      Field field = TestCircuits.randomCombinationalField(seed, 8, 30);
+      TruthTable table = TruthTable.of(field);
+      List<InputFC> inputFCs = field.getInputFCs();
+      
+      for (int row = 0; row < table.getNumRows(); row++) {
+        for (int i = 0; i < inputFCs.size(); i++) {
+          inputFCs.get(i).getLogicComponent().setValue((row >>> i & 1) != 0);
+        }
+        boolean[] settled = null;
+        for (int tick = 0; tick < 35; tick++) {
+          settled = field.tick(null);
+        }
+        
+        boolean[] fromTable = new boolean[table.getNumOutputs()];
+        for (int output = 0; output < fromTable.length; output++) {
+          fromTable[output] = table.getOutput(output, row);
+        }
+        assertArrayEquals(settled, fromTable, "seed " + seed + ", row " + row);
+      }
+    }
+  }
+  
+  @Test
+  @DisplayName("Truth table of a small field only sets the valid rows")
+  void smallTable() {
+    Field field = new Field();
+    InputFC a = addInput(field);
+    InputFC b = addInput(field);
+    addOutput(field, add(field, new AndGate(), a.getLogicComponent(), b.getLogicComponent()));
+    addOutput(field, add(field, new NotGate(), a.getLogicComponent()));
+    
+    TruthTable table = TruthTable.of(field);
+    assertEquals(4, table.getNumRows());
+    assertArrayEquals(new long[] {0b1000}, table.getColumn(0));
+    assertArrayEquals(new long[] {0b0101}, table.getColumn(1));
+  }
+  
+  @Test
+  @DisplayName("Truth table looks through user gates and covers inputs past the first word")
+  void userGatesAndWideInputs() {
+    Field inner = new Field();
+    inner.setName("OR");
+    InputFC x = addInput(inner);
+    InputFC y = addInput(inner);
+    addOutput(inner, add(inner, new OrGate(), x.getLogicComponent(), y.getLogicComponent()));
+    
+    Field outer = new Field();
+    InputFC first = addInput(outer);
+    for (int i = 0; i < 8; i++) {
+      addInput(outer);
+    }
+    InputFC last = outer.getInputFCs().get(8);
+    addOutput(outer, add(outer, new UserGate(inner), first.getLogicComponent(), last.getLogicComponent()));
+    
+    TruthTable table = TruthTable.of(outer);
+    for (long row = 0; row < table.getNumRows(); row++) {
+      assertEquals((row & 1) != 0 || (row & 0x100) != 0, table.getOutput(0, row), "row " + row);
+    }
+  }
+  
+  @Test
+  @DisplayName("Fields with clocks or feedback loops have no truth table")
+  void sequentialFieldsRejected() {
+    Field clocked = new Field();
+    addOutput(clocked, add(clocked, new Clock()));
+    assertThrows(IllegalArgumentException.class, () -> TruthTable.of(clocked));
+    
+    Field loop = new Field();
+    NotGate not = add(loop, new NotGate());
+    not.getInput(0).connectTo(not.getOutput(0));
+    addOutput(loop, not);
+    assertThrows(IllegalArgumentException.class, () -> TruthTable.of(loop));
+  }
+  
+  @Test
+  @DisplayName("Evaluators several words wide, with or without the Vector API, agree with one word at a time")
+  void wideEvaluatorsAgree() {
+    Netlist netlist = Netlist.compile(TestCircuits.randomCombinationalField(3, 10, 60));
+    WordEvaluator narrow = new WordEvaluator(netlist);
+    Random random = new Random(3);
+    
+    for (WordEvaluator wide : new WordEvaluator[] {new WordEvaluator(netlist, 4), WordEvaluator.create(netlist, 64)}) {
+      int width = wide.getWidth();
+      long[] inputWords = new long[netlist.getNumInputs() * width];
+      long[] outputWords = new long[netlist.getNumOutputs() * width];
+      for (int i = 0; i < inputWords.length; i++) {
+        inputWords[i] = random.nextLong();
+      }
+      wide.evaluate(inputWords, outputWords);
+      
+      long[] inputWord = new long[netlist.getNumInputs()];
+      long[] outputWord = new long[netlist.getNumOutputs()];
+      for (int w = 0; w < width; w++) {
+        for (int i = 0; i < inputWord.length; i++) {
+          inputWord[i] = inputWords[i * width + w];
+        }
+        narrow.evaluate(inputWord, outputWord);
+        for (int output = 0; output < outputWord.length; output++) {
+          assertEquals(outputWord[output], outputWords[output * width + w], "width " + width + ", word " + w);
+        }
+      }
+    }
+  }
+  
+}
@@ -0,0 +1,88 @@
+package ca.keal.logikos.sim;
+
+import ca.keal.logikos.field.Field;
+import ca.keal.logikos.field.InputFC;
+import ca.keal.logikos.logic.AndGate;
+import ca.keal.logikos.logic.Clock;
+import ca.keal.logikos.logic.NotGate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static ca.keal.logikos.sim.TestCircuits.add;
+import static ca.keal.logikos.sim.TestCircuits.addInput;
+import static ca.keal.logikos.sim.TestCircuits.addOutput;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VcdRecorderTest {
+  
+  @Test
+  @DisplayName("Only the signals which changed are written, under their labels")
+  void writesChanges() throws Exception {
+    Field field = new Field();
+    field.setName("inverter");
+    InputFC in = addInput(field);
+    in.getOptions().stream().filter(option -> option.getText().equals("Label")).findFirst().get().setValue("data in");
+    addOutput(field, add(field, new NotGate(), in.getLogicComponent()));
+    
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (VcdRecorder recorder = new VcdRecorder(field, Channels.newChannel(bytes))) {
+      for (int tick = 0; tick < 6; tick++) {
+        if (tick == 3) {
+          in.toggle();
+        }
+        field.tick(null);
+        recorder.sample();
+      }
+    }
+    
+    List<String> lines = lines(bytes);
+    assertTrue(lines.contains("$scope module inverter $end"));
+    assertTrue(lines.contains("$var wire 1 ! data_in $end"));
+    assertTrue(lines.contains("$var wire 1 \" out0 $end"));
+    // The input, the NOT and the output each take a tick, so the output goes high on tick 2, and low again two ticks
+    // after the input changes on tick 4
+    List<String> changes = lines.subList(lines.indexOf("$enddefinitions $end") + 1, lines.size());
+    assertEquals(Arrays.asList("#1", "0!", "0\"", "#2", "1\"", "#4", "1!", "#6", "0\""), changes);
+  }
+  
+  @Test
+  @DisplayName("Running a quiet design for many clock periods only writes the clock edges")
+  void runSkipsQuietTicks() throws Exception {
+    Field field = new Field();
+    InputFC enable = addInput(field);
+    addOutput(field, add(field, new AndGate(), enable.getLogicComponent(), add(field, new Clock(10, 5, 0))));
+    enable.getLogicComponent().setValue(true);
+    
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (VcdRecorder recorder = new VcdRecorder(field, Channels.newChannel(bytes))) {
+      recorder.run(100_000);
+      assertEquals(100_000, field.getSimulation().getTime());
+      field.reset();
+      field.tick(null);
+      assertThrows(IllegalStateException.class, recorder::sample);
+    }
+    
+    List<String> lines = lines(bytes);
+    List<String> changes = lines.subList(lines.indexOf("$enddefinitions $end") + 1, lines.size());
+    // the first tick, then a rise and a fall of the output per period, but the last fall is after tick 100000
+    assertEquals(3 + 2 * 2 * 10_000 - 2, changes.size());
+    assertEquals("#8", changes.get(3));
+    assertEquals("1\"", changes.get(4));
+    assertEquals("#13", changes.get(5));
+  }
+  
+  private static List<String> lines(ByteArrayOutputStream bytes) {
+    return Arrays.stream(new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("\\n"))
+        .collect(Collectors.toList());
+  }
+  
+}
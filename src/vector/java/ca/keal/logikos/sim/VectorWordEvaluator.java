@@ -0,0 +1,74 @@
+package ca.keal.logikos.sim;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A {@link WordEvaluator} which holds one vector register of words per net, as wide as the machine's preferred vector
+ * size, and evaluates each gate with the Vector API: AND, OR and XOR over all 256 lanes of an AVX2 register, or all
+ * 512 of an AVX-512 one, in one instruction per input.
+ *
+ * <p>This class uses the {@code jdk.incubator.vector} module, so it must only be loaded when the module is available;
+ * it is never referred to directly, but created by {@link WordEvaluator#create(Netlist, int)}.</p>
+ */
+final class VectorWordEvaluator extends WordEvaluator {
+
+  private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+  VectorWordEvaluator(Netlist netlist) {
+    super(netlist, preferredWidth());
+  }
+
+  /** The number of words per net: the number of {@code long}s in a vector register. */
+  static int preferredWidth() {
+    return SPECIES.length();
+  }
+
+  @Override
+  WordEvaluator nested(Netlist userGate) {
+    return new VectorWordEvaluator(userGate);
+  }
+
+  @Override
+  void evaluateGate(int opcode, int from, int to, int out) {
+    final long[] words = netWords;
+    final int[] fanIn = netlist.fanIn;
+    LongVector vector = LongVector.fromArray(SPECIES, words, fanIn[from] * width);
+    switch (opcode) {
+      case Netlist.OP_BUF:
+        break;
+      case Netlist.OP_NOT:
+        vector = vector.not();
+        break;
+      case Netlist.OP_AND:
+      case Netlist.OP_NAND:
+        for (int i = from + 1; i < to; i++) {
+          vector = vector.and(LongVector.fromArray(SPECIES, words, fanIn[i] * width));
+        }
+        if (opcode == Netlist.OP_NAND) {
+          vector = vector.not();
+        }
+        break;
+      case Netlist.OP_OR:
+      case Netlist.OP_NOR:
+        for (int i = from + 1; i < to; i++) {
+          vector = vector.or(LongVector.fromArray(SPECIES, words, fanIn[i] * width));
+        }
+        if (opcode == Netlist.OP_NOR) {
+          vector = vector.not();
+        }
+        break;
+      default:
+        for (int i = from + 1; i < to; i++) {
+          vector = vector.lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, words, fanIn[i] * width));
+        }
+        if (opcode == Netlist.OP_XNOR) {
+          vector = vector.not();
+        }
+        break;
+    }
+    vector.intoArray(words, out);
+  }
+
+}